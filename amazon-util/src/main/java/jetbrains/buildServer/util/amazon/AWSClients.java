@@ -24,27 +24,40 @@ import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.auth.BasicSessionCredentials;
 import com.amazonaws.regions.Region;
 import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalkClient;
+import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClient;
 import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
 import com.amazonaws.services.securitytoken.model.Credentials;
+import com.amazonaws.services.sqs.AmazonSQSClient;
 import jetbrains.buildServer.util.StringUtil;
 import jetbrains.buildServer.version.ServerVersionHolder;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 public class AWSClients {
 
+  // service names used as endpoint override keys
+  public static final String ELASTICBEANSTALK_SERVICE = "elasticbeanstalk";
+  public static final String S3_SERVICE = "s3";
+  public static final String SQS_SERVICE = "sqs";
+  public static final String STS_SERVICE = "sts";
+
   @Nullable
   private final AWSCredentials myCredentials;
   @NotNull
   private final Region myRegion;
   @NotNull
-  private final ClientConfiguration myClientConfiguration;
+  private Map<String, String> myEndpoints = Collections.emptyMap();
+  @NotNull
+  private Map<String, String> myTransportSettings = Collections.emptyMap();
 
   private AWSClients(@Nullable AWSCredentials credentials, @NotNull String region) {
     myCredentials = credentials;
     myRegion = AWSRegions.getRegion(region);
-    myClientConfiguration = createClientConfiguration();
   }
 
   @NotNull
@@ -62,14 +75,53 @@ public class AWSClients {
     return fromExistingCredentials(new BasicAWSCredentials(accessKeyId, secretAccessKey), region);
   }
 
+  /**
+   * @param endpoints service name to the endpoint clients of the service use instead of the public regional one,
+   *                  e.g. an interface VPC endpoint or a local stand-in
+   */
+  @NotNull
+  public AWSClients withEndpoints(@NotNull Map<String, String> endpoints) {
+    myEndpoints = Collections.unmodifiableMap(new HashMap<String, String>(endpoints));
+    return this;
+  }
+
+  @NotNull
+  public Map<String, String> getEndpoints() {
+    return myEndpoints;
+  }
+
+  /**
+   * @param settings transport settings applied to the clients created after the call, see {@link AWSTransport#getServiceSettings}
+   */
+  @NotNull
+  public AWSClients withTransport(@NotNull Map<String, String> settings) {
+    myTransportSettings = Collections.unmodifiableMap(new HashMap<String, String>(settings));
+    return this;
+  }
+
+  @NotNull
+  public Map<String, String> getTransportSettings() {
+    return myTransportSettings;
+  }
+
   @NotNull
   public AWSElasticBeanstalkClient createElasticBeanstalkClient() {
-    return withRegion(myCredentials == null ? new AWSElasticBeanstalkClient(myClientConfiguration) : new AWSElasticBeanstalkClient(myCredentials, myClientConfiguration));
+    return withEndpoint(withRegion(myCredentials == null ? new AWSElasticBeanstalkClient(getClientConfiguration(ELASTICBEANSTALK_SERVICE)) : new AWSElasticBeanstalkClient(myCredentials, getClientConfiguration(ELASTICBEANSTALK_SERVICE))), ELASTICBEANSTALK_SERVICE);
+  }
+
+  @NotNull
+  public AmazonS3Client createS3Client() {
+    return withEndpoint(withRegion(myCredentials == null ? new AmazonS3Client(getClientConfiguration(S3_SERVICE)) : new AmazonS3Client(myCredentials, getClientConfiguration(S3_SERVICE))), S3_SERVICE);
+  }
+
+  @NotNull
+  public AmazonSQSClient createSQSClient() {
+    return withEndpoint(withRegion(myCredentials == null ? new AmazonSQSClient(getClientConfiguration(SQS_SERVICE)) : new AmazonSQSClient(myCredentials, getClientConfiguration(SQS_SERVICE))), SQS_SERVICE);
   }
 
   @NotNull
   public AWSSecurityTokenServiceClient createSecurityTokenServiceClient() {
-    return myCredentials == null ? new AWSSecurityTokenServiceClient(myClientConfiguration) : new AWSSecurityTokenServiceClient(myCredentials, myClientConfiguration);
+    return withEndpoint(myCredentials == null ? new AWSSecurityTokenServiceClient(getClientConfiguration(STS_SERVICE)) : new AWSSecurityTokenServiceClient(myCredentials, getClientConfiguration(STS_SERVICE)), STS_SERVICE);
   }
 
   @NotNull
@@ -82,6 +134,13 @@ public class AWSClients {
     return client.withRegion(myRegion);
   }
 
+  @NotNull
+  private <T extends AmazonWebServiceClient> T withEndpoint(@NotNull T client, @NotNull String serviceName) {
+    final String endpoint = myEndpoints.get(serviceName);
+    if (endpoint != null) client.setEndpoint(endpoint);
+    return client;
+  }
+
   @NotNull
   public AWSSessionCredentials createSessionCredentials(@NotNull String iamRoleARN, @Nullable String externalID, @NotNull String sessionName, int sessionDuration) throws AWSException {
     final AssumeRoleRequest assumeRoleRequest = new AssumeRoleRequest().withRoleArn(iamRoleARN).withRoleSessionName(sessionName).withDurationSeconds(sessionDuration);
@@ -102,6 +161,11 @@ public class AWSClients {
     return StringUtil.truncateStringValue(sessionName.replaceAll(UNSUPPORTED_SESSION_NAME_CHARS, "_"), MAX_SESSION_NAME_LENGTH);
   }
 
+  @NotNull
+  private ClientConfiguration getClientConfiguration(@NotNull String serviceName) {
+    return AWSTransport.apply(createClientConfiguration(), AWSTransport.getServiceSettings(myTransportSettings, serviceName));
+  }
+
   @NotNull
   private static ClientConfiguration createClientConfiguration() {
     return new ClientConfiguration().withUserAgent("JetBrains TeamCity " + ServerVersionHolder.getVersion().getDisplayVersion());
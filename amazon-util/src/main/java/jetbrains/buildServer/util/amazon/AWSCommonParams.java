@@ -63,6 +63,10 @@ public final class AWSCommonParams {
       USE_DEFAULT_CREDENTIAL_PROVIDER_CHAIN_PARAM, "false"
   ));
 
+  // followed by the service name, e.g. aws.endpoint.s3, {region} is replaced with the region name
+  public static final String ENDPOINT_PARAM_PREFIX = "aws.endpoint.";
+  public static final String ENDPOINT_REGION_PLACEHOLDER = "{region}";
+
   public static final String TEMP_CREDENTIALS_SESSION_NAME_PARAM = "temp_credentials_session_name";
   public static final String TEMP_CREDENTIALS_SESSION_NAME_DEFAULT_PREFIX = "TeamCity_AWS_support_";
   public static final String TEMP_CREDENTIALS_DURATION_SEC_PARAM = "temp_credentials_duration_sec";
@@ -94,10 +98,8 @@ public final class AWSCommonParams {
       invalids.put(REGION_NAME_PARAM, REGION_NAME_LABEL + " mustn't be empty");
     } else {
       if (!isReference(regionName, acceptReferences)) {
-        try {
-          AWSRegions.getRegion(regionName);
-        } catch (IllegalArgumentException e) {
-          invalids.put(REGION_NAME_PARAM, e.getMessage());
+        if (AWSRegions.findRegion(regionName) == null) {
+          invalids.put(REGION_NAME_PARAM, AWSRegions.getUnsupportedRegionMessage(regionName));
         }
       }
     }
@@ -136,6 +138,23 @@ public final class AWSCommonParams {
     return params.get(REGION_NAME_PARAM);
   }
 
+  /**
+   * @return service name to endpoint overrides for the parameters region
+   */
+  @NotNull
+  public static Map<String, String> getEndpoints(@NotNull Map<String, String> params) {
+    final String regionName = getRegionName(params);
+    final Map<String, String> endpoints = new HashMap<String, String>();
+    for (Map.Entry<String, String> e : params.entrySet()) {
+      if (!e.getKey().startsWith(ENDPOINT_PARAM_PREFIX) || StringUtil.isEmptyOrSpaces(e.getValue())) continue;
+
+      final String endpoint = e.getValue().trim();
+      endpoints.put(e.getKey().substring(ENDPOINT_PARAM_PREFIX.length()),
+        regionName == null ? endpoint : endpoint.replace(ENDPOINT_REGION_PLACEHOLDER, regionName));
+    }
+    return endpoints;
+  }
+
   private static boolean isReference(@NotNull String param, boolean acceptReferences) {
     return acceptReferences && ReferencesResolverUtil.containsReference(param);
   }
@@ -155,6 +174,7 @@ public final class AWSCommonParams {
         useDefaultCredProvChain ?
             fromDefaultCredentialProviderChain(regionName) :
             fromBasicCredentials(params.get(ACCESS_KEY_ID_PARAM), getSecretAccessKey(params), regionName);
+    awsClients.withEndpoints(getEndpoints(params)).withTransport(AWSTransport.getEffectiveSettings(params));
 
     return
         TEMP_CREDENTIALS_OPTION.equals(params.get(CREDENTIALS_TYPE_PARAM)) ? createTempAWSClients(awsClients, params, lazy) : awsClients;
@@ -170,7 +190,7 @@ public final class AWSCommonParams {
             return createSessionCredentials(clients, params);
           }
         } : createSessionCredentials(clients, params),
-        clients.getRegion());
+        clients.getRegion()).withEndpoints(clients.getEndpoints()).withTransport(clients.getTransportSettings());
   }
 
   @NotNull
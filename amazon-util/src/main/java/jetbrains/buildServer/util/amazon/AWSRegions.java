@@ -19,30 +19,47 @@ package jetbrains.buildServer.util.amazon;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+/**
+ * Regions known to the SDK, looked up once on class loading
+ */
 public final class AWSRegions {
   private static final Map<String, String> REGION_NAMES_FOR_WEB;
+  private static final Map<String, Region> REGIONS;
 
   static {
-    REGION_NAMES_FOR_WEB = new LinkedHashMap<String, String>();
-    REGION_NAMES_FOR_WEB.put("us-east-1", "US East (N. Virginia)");
-    REGION_NAMES_FOR_WEB.put("us-east-2", "US East (Ohio)");
-    REGION_NAMES_FOR_WEB.put("us-west-1", "US West (N. California)");
-    REGION_NAMES_FOR_WEB.put("us-west-2", "US West (Oregon)");
-    REGION_NAMES_FOR_WEB.put("eu-west-1", "EU West (Dublin)");
-    REGION_NAMES_FOR_WEB.put("eu-west-2", "EU West (London)");
-    REGION_NAMES_FOR_WEB.put("eu-central-1", "EU Central (Frankfurt)");
-    REGION_NAMES_FOR_WEB.put("sa-east-1", "South America (Sao Paulo)");
-    REGION_NAMES_FOR_WEB.put("ap-northeast-1", "Asia Pacific (Tokyo)");
-    REGION_NAMES_FOR_WEB.put("ap-northeast-2", "Asia Pacific (Seoul)");
-    REGION_NAMES_FOR_WEB.put("ap-southeast-1", "Asia Pacific (Singapore)");
-    REGION_NAMES_FOR_WEB.put("ap-southeast-2", "Asia Pacific (Sydney)");
-    REGION_NAMES_FOR_WEB.put("us-gov-west-1", "AWS GovCloud (US)");
-    REGION_NAMES_FOR_WEB.put("cn-north-1", "China (Beijing)");
+    final Map<String, String> namesForWeb = new LinkedHashMap<String, String>();
+    namesForWeb.put("us-east-1", "US East (N. Virginia)");
+    namesForWeb.put("us-east-2", "US East (Ohio)");
+    namesForWeb.put("us-west-1", "US West (N. California)");
+    namesForWeb.put("us-west-2", "US West (Oregon)");
+    namesForWeb.put("eu-west-1", "EU West (Dublin)");
+    namesForWeb.put("eu-west-2", "EU West (London)");
+    namesForWeb.put("eu-central-1", "EU Central (Frankfurt)");
+    namesForWeb.put("sa-east-1", "South America (Sao Paulo)");
+    namesForWeb.put("ap-northeast-1", "Asia Pacific (Tokyo)");
+    namesForWeb.put("ap-northeast-2", "Asia Pacific (Seoul)");
+    namesForWeb.put("ap-southeast-1", "Asia Pacific (Singapore)");
+    namesForWeb.put("ap-southeast-2", "Asia Pacific (Sydney)");
+    namesForWeb.put("us-gov-west-1", "AWS GovCloud (US)");
+    namesForWeb.put("cn-north-1", "China (Beijing)");
+    REGION_NAMES_FOR_WEB = Collections.unmodifiableMap(namesForWeb);
+
+    final Map<String, Region> regions = new HashMap<String, Region>();
+    for (Regions region : Regions.values()) {
+      try {
+        regions.put(region.getName(), Region.getRegion(region));
+      } catch (Exception e) {
+        // the region is missing from the SDK endpoints metadata
+      }
+    }
+    REGIONS = Collections.unmodifiableMap(regions);
   }
 
   @NotNull
@@ -53,16 +70,23 @@ public final class AWSRegions {
 
   @NotNull
   public static Map<String, String> getAllRegions() {
-    return Collections.unmodifiableMap(REGION_NAMES_FOR_WEB);
+    return REGION_NAMES_FOR_WEB;
+  }
+
+  @Nullable
+  public static Region findRegion(@NotNull String regionName) {
+    return REGIONS.get(regionName);
   }
 
   @NotNull
   public static Region getRegion(@NotNull String regionName) throws IllegalArgumentException {
-    try {
-      return Region.getRegion(Regions.fromName(regionName));
-    } catch (Exception e) {
-      // see below
-    }
-    throw new IllegalArgumentException("Unsupported region name " + regionName);
+    final Region region = findRegion(regionName);
+    if (region == null) throw new IllegalArgumentException(getUnsupportedRegionMessage(regionName));
+    return region;
+  }
+
+  @NotNull
+  public static String getUnsupportedRegionMessage(@NotNull String regionName) {
+    return "Unsupported region name " + regionName;
   }
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.util.amazon;
+
+import com.amazonaws.ClientConfiguration;
+import jetbrains.buildServer.util.CollectionsUtil;
+import jetbrains.buildServer.util.StringUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * HTTP transport settings of the AWS clients: a named profile and individual settings overriding it.
+ * Settings which are not set keep the SDK defaults.
+ */
+public final class AWSTransport {
+  public static final String TRANSPORT_PARAM_PREFIX = "aws.transport.";
+
+  public static final String PROFILE_PARAM = TRANSPORT_PARAM_PREFIX + "profile";
+  public static final String MAX_CONNECTIONS_PARAM = TRANSPORT_PARAM_PREFIX + "max.connections";
+  public static final String CONNECTION_TTL_MS_PARAM = TRANSPORT_PARAM_PREFIX + "connection.ttl.ms";
+  public static final String CONNECTION_TIMEOUT_MS_PARAM = TRANSPORT_PARAM_PREFIX + "connection.timeout.ms";
+  public static final String SOCKET_TIMEOUT_MS_PARAM = TRANSPORT_PARAM_PREFIX + "socket.timeout.ms";
+  public static final String REQUEST_TIMEOUT_MS_PARAM = TRANSPORT_PARAM_PREFIX + "request.timeout.ms";
+  public static final String TCP_KEEP_ALIVE_PARAM = TRANSPORT_PARAM_PREFIX + "tcp.keep.alive";
+  public static final String GZIP_PARAM = TRANSPORT_PARAM_PREFIX + "gzip";
+
+  public static final String DEFAULT_PROFILE = "default";
+  // many regions or builds sharing the agent JVM
+  public static final String HIGH_CONCURRENCY_PROFILE = "high-concurrency";
+  // pollers which had better retry than wait for a stuck connection, see getServiceSettings for the exceptions
+  public static final String LOW_LATENCY_PROFILE = "low-latency";
+
+  // above the longest SQS long polling wait of 20 seconds
+  static final int LONG_POLL_TIMEOUT_MS = 30000;
+
+  private static final List<String> INTEGER_SETTINGS = Arrays.asList(
+    MAX_CONNECTIONS_PARAM, CONNECTION_TTL_MS_PARAM, CONNECTION_TIMEOUT_MS_PARAM, SOCKET_TIMEOUT_MS_PARAM, REQUEST_TIMEOUT_MS_PARAM);
+  private static final List<String> BOOLEAN_SETTINGS = Arrays.asList(TCP_KEEP_ALIVE_PARAM, GZIP_PARAM);
+
+  private static final Map<String, Map<String, String>> PROFILES;
+
+  static {
+    final Map<String, Map<String, String>> profiles = new LinkedHashMap<String, Map<String, String>>();
+    profiles.put(DEFAULT_PROFILE, Collections.<String, String>emptyMap());
+    profiles.put(HIGH_CONCURRENCY_PROFILE, Collections.unmodifiableMap(CollectionsUtil.asMap(
+      MAX_CONNECTIONS_PARAM, "200",
+      CONNECTION_TTL_MS_PARAM, "60000",
+      TCP_KEEP_ALIVE_PARAM, "true")));
+    profiles.put(LOW_LATENCY_PROFILE, Collections.unmodifiableMap(CollectionsUtil.asMap(
+      CONNECTION_TIMEOUT_MS_PARAM, "2000",
+      SOCKET_TIMEOUT_MS_PARAM, "10000",
+      REQUEST_TIMEOUT_MS_PARAM, "15000",
+      TCP_KEEP_ALIVE_PARAM, "true")));
+    PROFILES = Collections.unmodifiableMap(profiles);
+  }
+
+  /**
+   * @return the profile settings overridden by the individual settings from the parameters, ordered by name
+   */
+  @NotNull
+  public static Map<String, String> getEffectiveSettings(@NotNull Map<String, String> params) {
+    final Map<String, String> settings = new TreeMap<String, String>();
+    final Map<String, String> profile = PROFILES.get(getProfileName(params));
+    if (profile != null) settings.putAll(profile);
+
+    for (String key : CollectionsUtil.join(INTEGER_SETTINGS, BOOLEAN_SETTINGS)) {
+      final String value = params.get(key);
+      if (StringUtil.isNotEmpty(value)) settings.put(key, value.trim());
+    }
+    return settings;
+  }
+
+  /**
+   * S3 clients copy and upload bundles in parts of many megabytes, so they keep the SDK default socket and request timeouts.
+   * SQS clients long poll for notifications, so their timeouts are kept above the longest wait.
+   *
+   * @param settings    the effective settings
+   * @param serviceName one of the AWSClients service names
+   * @return the settings the clients of the service use
+   */
+  @NotNull
+  public static Map<String, String> getServiceSettings(@NotNull Map<String, String> settings, @NotNull String serviceName) {
+    final Map<String, String> serviceSettings = new TreeMap<String, String>(settings);
+    if (AWSClients.S3_SERVICE.equals(serviceName)) {
+      serviceSettings.remove(SOCKET_TIMEOUT_MS_PARAM);
+      serviceSettings.remove(REQUEST_TIMEOUT_MS_PARAM);
+    } else if (AWSClients.SQS_SERVICE.equals(serviceName)) {
+      raise(serviceSettings, SOCKET_TIMEOUT_MS_PARAM, LONG_POLL_TIMEOUT_MS);
+      raise(serviceSettings, REQUEST_TIMEOUT_MS_PARAM, LONG_POLL_TIMEOUT_MS);
+    }
+    return serviceSettings;
+  }
+
+  private static void raise(@NotNull Map<String, String> settings, @NotNull String key, int min) {
+    final Integer value = getPositiveInteger(settings.get(key));
+    if (value != null && value < min) settings.put(key, String.valueOf(min));
+  }
+
+  /**
+   * Returns map from parameter name to invalidity reason
+   */
+  @NotNull
+  public static Map<String, String> validate(@NotNull Map<String, String> params) {
+    final Map<String, String> invalids = new HashMap<String, String>();
+
+    final String profileName = getProfileName(params);
+    if (!PROFILES.containsKey(profileName)) {
+      invalids.put(PROFILE_PARAM, "Unknown AWS transport profile " + profileName + ", must be one of " + PROFILES.keySet());
+    }
+
+    for (String key : INTEGER_SETTINGS) {
+      final String value = params.get(key);
+      if (StringUtil.isNotEmpty(value) && getPositiveInteger(value) == null) {
+        invalids.put(key, key + " must be a positive integer value");
+      }
+    }
+
+    for (String key : BOOLEAN_SETTINGS) {
+      final String value = params.get(key);
+      if (StringUtil.isNotEmpty(value) && !"true".equals(value.trim()) && !"false".equals(value.trim())) {
+        invalids.put(key, key + " must be true or false");
+      }
+    }
+
+    return invalids;
+  }
+
+  /**
+   * Invalid settings are ignored
+   */
+  @NotNull
+  public static ClientConfiguration apply(@NotNull ClientConfiguration configuration, @NotNull Map<String, String> settings) {
+    final Integer maxConnections = getPositiveInteger(settings.get(MAX_CONNECTIONS_PARAM));
+    if (maxConnections != null) configuration.setMaxConnections(maxConnections);
+
+    final Integer connectionTTL = getPositiveInteger(settings.get(CONNECTION_TTL_MS_PARAM));
+    if (connectionTTL != null) configuration.setConnectionTTL(connectionTTL);
+
+    final Integer connectionTimeout = getPositiveInteger(settings.get(CONNECTION_TIMEOUT_MS_PARAM));
+    if (connectionTimeout != null) configuration.setConnectionTimeout(connectionTimeout);
+
+    final Integer socketTimeout = getPositiveInteger(settings.get(SOCKET_TIMEOUT_MS_PARAM));
+    if (socketTimeout != null) configuration.setSocketTimeout(socketTimeout);
+
+    final Integer requestTimeout = getPositiveInteger(settings.get(REQUEST_TIMEOUT_MS_PARAM));
+    if (requestTimeout != null) configuration.setRequestTimeout(requestTimeout);
+
+    final String tcpKeepAlive = settings.get(TCP_KEEP_ALIVE_PARAM);
+    if (tcpKeepAlive != null) configuration.setUseTcpKeepAlive(Boolean.parseBoolean(tcpKeepAlive));
+
+    final String gzip = settings.get(GZIP_PARAM);
+    if (gzip != null) configuration.setUseGzip(Boolean.parseBoolean(gzip));
+
+    return configuration;
+  }
+
+  @NotNull
+  public static String describe(@NotNull Map<String, String> settings) {
+    if (settings.isEmpty()) return "SDK defaults";
+    final StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, String> e : settings.entrySet()) {
+      if (sb.length() > 0) sb.append(", ");
+      sb.append(e.getKey().substring(TRANSPORT_PARAM_PREFIX.length())).append('=').append(e.getValue());
+    }
+    return sb.toString();
+  }
+
+  @NotNull
+  private static String getProfileName(@NotNull Map<String, String> params) {
+    final String profileName = params.get(PROFILE_PARAM);
+    return StringUtil.isEmptyOrSpaces(profileName) ? DEFAULT_PROFILE : profileName.trim();
+  }
+
+  @Nullable
+  private static Integer getPositiveInteger(@Nullable String value) {
+    if (value == null) return null;
+    try {
+      final int i = Integer.parseInt(value.trim());
+      return i > 0 ? i : null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
@@ -60,6 +60,16 @@ public class AWSCommonParamsTest extends BaseTestCase {
         containsEntry(IAM_ROLE_ARN_PARAM, "IAM role ARN mustn't be empty");
   }
 
+  @Test
+  public void endpoints() {
+    then(getEndpoints(CollectionsUtil.<String>asMap(
+      REGION_NAME_PARAM, "eu-west-1",
+      ENDPOINT_PARAM_PREFIX + "s3", " https://bucket.vpce-1a2b3c4d.s3.{region}.vpce.amazonaws.com ",
+      ENDPOINT_PARAM_PREFIX + "sqs", "",
+      "aws.other", "value"))).as("Must collect endpoint overrides").
+        containsOnly(entry("s3", "https://bucket.vpce-1a2b3c4d.s3.eu-west-1.vpce.amazonaws.com"));
+  }
+
   @NotNull
   private Map<String, String> validate(String... pairs) {
     return AWSCommonParams.validate(CollectionsUtil.<String>asMap(pairs), false);
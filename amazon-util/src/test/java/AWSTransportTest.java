@@ -0,0 +1,76 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.amazonaws.ClientConfiguration;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.util.CollectionsUtil;
+import jetbrains.buildServer.util.amazon.AWSClients;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+import static jetbrains.buildServer.util.amazon.AWSTransport.*;
+import static org.assertj.core.api.BDDAssertions.*;
+
+public class AWSTransportTest extends BaseTestCase {
+  @Test
+  public void settings_override_profile() {
+    final Map<String, String> settings = getEffectiveSettings(CollectionsUtil.<String>asMap(
+      PROFILE_PARAM, LOW_LATENCY_PROFILE,
+      SOCKET_TIMEOUT_MS_PARAM, "5000",
+      GZIP_PARAM, "true"));
+    then(describe(settings)).isEqualTo("connection.timeout.ms=2000, gzip=true, request.timeout.ms=15000, socket.timeout.ms=5000, tcp.keep.alive=true");
+
+    final ClientConfiguration configuration = apply(new ClientConfiguration(), settings);
+    then(configuration.getSocketTimeout()).isEqualTo(5000);
+    then(configuration.getRequestTimeout()).isEqualTo(15000);
+    then(configuration.useGzip()).isTrue();
+  }
+
+  @Test
+  public void low_latency_timeouts_spare_long_polls_and_bundle_copies() {
+    final Map<String, String> settings = getEffectiveSettings(CollectionsUtil.<String>asMap(PROFILE_PARAM, LOW_LATENCY_PROFILE));
+
+    then(getServiceSettings(settings, AWSClients.ELASTICBEANSTALK_SERVICE)).isEqualTo(settings);
+
+    final ClientConfiguration sqs = apply(new ClientConfiguration(), getServiceSettings(settings, AWSClients.SQS_SERVICE));
+    then(sqs.getSocketTimeout()).isEqualTo(30000);
+    then(sqs.getRequestTimeout()).isEqualTo(30000);
+    then(sqs.getConnectionTimeout()).isEqualTo(2000);
+
+    final ClientConfiguration s3 = apply(new ClientConfiguration(), getServiceSettings(settings, AWSClients.S3_SERVICE));
+    then(s3.getSocketTimeout()).isEqualTo(ClientConfiguration.DEFAULT_SOCKET_TIMEOUT);
+    then(s3.getRequestTimeout()).isEqualTo(ClientConfiguration.DEFAULT_REQUEST_TIMEOUT);
+    then(s3.getConnectionTimeout()).isEqualTo(2000);
+    then(s3.useTcpKeepAlive()).isTrue();
+  }
+
+  @Test
+  public void default_profile_keeps_sdk_defaults() {
+    then(getEffectiveSettings(CollectionsUtil.<String>asMap())).isEmpty();
+  }
+
+  @Test
+  public void unexpected_settings() {
+    then(validate(CollectionsUtil.<String>asMap(
+      PROFILE_PARAM, "fastest",
+      MAX_CONNECTIONS_PARAM, "0",
+      TCP_KEEP_ALIVE_PARAM, "yes"))).as("Must detect unexpected transport settings").hasSize(3).
+        containsEntry(PROFILE_PARAM, "Unknown AWS transport profile fastest, must be one of [default, high-concurrency, low-latency]").
+        containsEntry(MAX_CONNECTIONS_PARAM, "aws.transport.max.connections must be a positive integer value").
+        containsEntry(TCP_KEEP_ALIVE_PARAM, "aws.transport.tcp.keep.alive must be true or false");
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import jetbrains.buildServer.util.NamedDaemonThreadFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects environment events and hands them to the sink in groups,
+ * so that no more than maxFlushesPerMin groups are written per minute.
+ * <p>
+ * Urgent events (e.g. errors) and explicit {@link #flush()} calls bypass the rate limit.
+ * Events held back by the rate limit are flushed by a timer once it allows, even if no other event follows.
+ * The sink is called with this logger locked.
+ */
+class CoalescingEventLogger {
+  @NotNull
+  private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+    new NamedDaemonThreadFactory("ElasticBeanstalk events flush"));
+
+  @NotNull
+  private final Sink mySink;
+  private final long myMinFlushIntervalMillis;
+  @NotNull
+  private final List<String> myPending = new ArrayList<String>();
+  private long myLastFlushTime = 0;
+  @Nullable
+  private ScheduledFuture<?> myScheduledFlush;
+
+  CoalescingEventLogger(int maxFlushesPerMin, @NotNull Sink sink) {
+    mySink = sink;
+    myMinFlushIntervalMillis = 60 * 1000L / Math.max(1, maxFlushesPerMin);
+  }
+
+  synchronized void add(@NotNull String event, boolean urgent) {
+    myPending.add(event);
+    final long delay = myLastFlushTime + myMinFlushIntervalMillis - System.currentTimeMillis();
+    if (urgent || delay <= 0) {
+      flush();
+    } else if (myScheduledFlush == null) {
+      myScheduledFlush = TIMER.schedule(new Runnable() {
+        @Override
+        public void run() {
+          flush();
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  synchronized void flush() {
+    if (myScheduledFlush != null) {
+      myScheduledFlush.cancel(false);
+      myScheduledFlush = null;
+    }
+    if (myPending.isEmpty()) return;
+
+    final List<String> events = new ArrayList<String>(myPending);
+    myPending.clear();
+    myLastFlushTime = System.currentTimeMillis();
+
+    mySink.flush(events);
+  }
+
+  interface Sink {
+    void flush(@NotNull List<String> events);
+  }
+}
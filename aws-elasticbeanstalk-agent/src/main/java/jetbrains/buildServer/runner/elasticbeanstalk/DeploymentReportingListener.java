@@ -0,0 +1,126 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import jetbrains.buildServer.agent.BuildProgressLogger;
+import jetbrains.buildServer.messages.serviceMessages.ServiceMessage;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static jetbrains.buildServer.runner.elasticbeanstalk.ElasticBeanstalkConstants.*;
+
+/**
+ * Reports finished deployments to the server, where they form the environment deployment history.
+ * If waiting is handed over to the server, reports the started deployment for the server to watch instead.
+ * The last known instances rollout counts are reported as build statistics of the region.
+ */
+class DeploymentReportingListener extends AWSClient.Listener {
+  @NotNull
+  private final BuildProgressLogger myBuildLogger;
+  @NotNull
+  private final String myStepId;
+  @NotNull
+  private final String myRegionName;
+  @NotNull
+  private final String myApplicationName;
+  @Nullable
+  private final Integer myServerWaitTimeoutSec;
+  @Nullable
+  private String myEnvironmentName;
+  private long myStartTime;
+  @Nullable
+  private Integer myDeployedInstances;
+  private int myTotalInstances;
+
+  /**
+   * @param stepId               id of the build step, the server watches the deployment with the step settings
+   * @param serverWaitTimeoutSec how long the server should wait for the started deployment, null if the agent waits itself
+   */
+  DeploymentReportingListener(@NotNull BuildProgressLogger buildLogger, @NotNull String stepId, @NotNull String regionName,
+                              @NotNull String applicationName, @Nullable Integer serverWaitTimeoutSec) {
+    myBuildLogger = buildLogger;
+    myStepId = stepId;
+    myRegionName = regionName;
+    myApplicationName = applicationName;
+    myServerWaitTimeoutSec = serverWaitTimeoutSec;
+  }
+
+  @Override
+  void deploymentStarted(@NotNull String environmentId, @NotNull String environmentName, @NotNull String versionLabel) {
+    myEnvironmentName = environmentName;
+    myStartTime = System.currentTimeMillis();
+    if (myServerWaitTimeoutSec != null) {
+      final Map<String, String> attributes = getAttributes(environmentName, versionLabel);
+      attributes.put(WATCH_ENVIRONMENT_ID_ATTR, environmentId);
+      attributes.put(WATCH_STEP_ID_ATTR, myStepId);
+      attributes.put(WATCH_TIMEOUT_SEC_ATTR, String.valueOf(myServerWaitTimeoutSec));
+      myBuildLogger.message(ServiceMessage.asString(WATCH_SERVICE_MESSAGE, attributes));
+    }
+  }
+
+  @Override
+  void rolloutProgress(@NotNull String environmentName, @NotNull String versionLabel, int deployedInstances, int totalInstances,
+                       @Nullable Long etaSec) {
+    myDeployedInstances = deployedInstances;
+    myTotalInstances = totalInstances;
+  }
+
+  @Override
+  void deploymentFailed(@NotNull String applicationName, @NotNull String environmentName, @NotNull String versionLabel,
+                        @NotNull Boolean hasTimeout, @Nullable ErrorInfo errorInfo) {
+    report(environmentName, versionLabel, hasTimeout ? DEPLOYMENT_STATUS_TIMEOUT : DEPLOYMENT_STATUS_FAILURE);
+  }
+
+  @Override
+  void deploymentSucceeded(@NotNull String versionLabel) {
+    if (myEnvironmentName != null) report(myEnvironmentName, versionLabel, DEPLOYMENT_STATUS_SUCCESS);
+  }
+
+  private void report(@NotNull String environmentName, @NotNull String versionLabel, @NotNull String status) {
+    final Map<String, String> attributes = getAttributes(environmentName, versionLabel);
+    attributes.put(DEPLOYMENT_STATUS_ATTR, status);
+    attributes.put(DEPLOYMENT_DURATION_SEC_ATTR, String.valueOf((System.currentTimeMillis() - myStartTime) / 1000));
+    myBuildLogger.message(ServiceMessage.asString(DEPLOYMENT_SERVICE_MESSAGE, attributes));
+
+    if (myDeployedInstances != null) {
+      // a successful deployment may finish between polls
+      final int deployed = DEPLOYMENT_STATUS_SUCCESS.equals(status) ? myTotalInstances : myDeployedInstances;
+      reportStatistic(INSTANCES_DEPLOYED_STATISTIC, deployed);
+      reportStatistic(INSTANCES_TOTAL_STATISTIC, myTotalInstances);
+    }
+  }
+
+  private void reportStatistic(@NotNull String key, int value) {
+    final Map<String, String> attributes = new HashMap<String, String>();
+    attributes.put("key", key + "." + myRegionName);
+    attributes.put("value", String.valueOf(value));
+    myBuildLogger.message(ServiceMessage.asString("buildStatisticValue", attributes));
+  }
+
+  @NotNull
+  private Map<String, String> getAttributes(@NotNull String environmentName, @NotNull String versionLabel) {
+    final Map<String, String> attributes = new HashMap<String, String>();
+    attributes.put(DEPLOYMENT_REGION_ATTR, myRegionName);
+    attributes.put(DEPLOYMENT_APPLICATION_ATTR, myApplicationName);
+    attributes.put(DEPLOYMENT_ENVIRONMENT_ATTR, environmentName);
+    attributes.put(DEPLOYMENT_VERSION_ATTR, versionLabel);
+    return attributes;
+  }
+}
@@ -16,38 +16,167 @@
 
 package jetbrains.buildServer.runner.elasticbeanstalk;
 
+import com.amazonaws.services.s3.AmazonS3;
 import jetbrains.buildServer.RunBuildException;
 import jetbrains.buildServer.agent.*;
 import jetbrains.buildServer.messages.ErrorData;
+import jetbrains.buildServer.messages.serviceMessages.ServiceMessage;
+import jetbrains.buildServer.util.amazon.AWSTransport;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
 
 import static jetbrains.buildServer.runner.elasticbeanstalk.ElasticBeanstalkConstants.*;
 import static jetbrains.buildServer.util.StringUtil.nullIfEmpty;
 import static jetbrains.buildServer.util.amazon.AWSCommonParams.*;
 
 public class ElasticBeanstalkRunner implements AgentBuildRunner {
+  private static final long LISTENERS_CLOSE_TIMEOUT_MS = 30000;
+
+  @NotNull
+  private final ArtifactsWatcher myArtifactsWatcher;
+
+  public ElasticBeanstalkRunner(@NotNull ArtifactsWatcher artifactsWatcher) {
+    myArtifactsWatcher = artifactsWatcher;
+  }
+
   @NotNull
   @Override
   public BuildProcess createBuildProcess(@NotNull final AgentRunningBuild runningBuild, @NotNull final BuildRunnerContext context) throws RunBuildException {
     return new SyncBuildProcessAdapter() {
+      @NotNull
+      private final List<AWSClient> myAWSClients = new CopyOnWriteArrayList<AWSClient>();
+      private volatile boolean myCancelled = false;
+
+      @Override
+      protected void interruptImpl() {
+        cancelDeployments();
+      }
+
+      private void cancelDeployments() {
+        myCancelled = true;
+        for (AWSClient awsClient : myAWSClients) awsClient.cancel();
+      }
+
       @NotNull
       @Override
       protected BuildFinishedStatus runImpl() throws RunBuildException {
 
         final Map<String, String> runnerParameters = validateParams();
+
+        final String supersededBy = runnerParameters.get(SUPERSEDED_BY_PARAM);
+        if (supersededBy != null) {
+          skipSuperseded(runnerParameters, supersededBy);
+          return BuildFinishedStatus.FINISHED_SUCCESS;
+        }
+
         final Map<String, String> configParameters = context.getConfigParameters();
+        final Map<String, String> transportSettings = AWSTransport.getEffectiveSettings(configParameters);
+        if (!transportSettings.isEmpty()) {
+          runningBuild.getBuildLogger().message("AWS clients transport: " + AWSTransport.describe(transportSettings));
+        }
 
+        final List<String> regionNames = ElasticBeanstalkUtil.getRegionNames(runnerParameters);
+        if (regionNames.size() == 1) {
+          return deployToRegion(runnerParameters, configParameters, runningBuild.getBuildLogger(), false, null);
+        }
+        return deployToRegions(regionNames, runnerParameters, configParameters);
+      }
+
+      /**
+       * Deploys to all regions in parallel, each region logs to its own flow.
+       * The first failed region cancels the deployments to the other regions, which stop before the next step
+       * or, if already waiting, abort the environment update when configured so.
+       */
+      @NotNull
+      private BuildFinishedStatus deployToRegions(@NotNull List<String> regionNames, @NotNull final Map<String, String> runnerParameters,
+                                                  @NotNull final Map<String, String> configParameters) throws RunBuildException {
+        final String mainRegionName = getRegionName(runnerParameters);
+        final AmazonS3 bundleSource = Boolean.parseBoolean(runnerParameters.get(REPLICATE_BUNDLE_PARAM))
+          ? createAWSClients(getClientParameters(runnerParameters, runningBuild, configParameters), true).createS3Client() : null;
+
+        final Map<String, Callable<BuildFinishedStatus>> regions = new LinkedHashMap<String, Callable<BuildFinishedStatus>>();
+        for (final String regionName : regionNames) {
+          regions.put(regionName, new Callable<BuildFinishedStatus>() {
+            @Override
+            public BuildFinishedStatus call() throws Exception {
+              final FlowLogger flowLogger = runningBuild.getBuildLogger().getThreadLogger();
+              flowLogger.startFlow();
+              final String block = "Region " + regionName;
+              flowLogger.targetStarted(block);
+              try {
+                return deployToRegion(ElasticBeanstalkUtil.getRegionParameters(runnerParameters, regionName), configParameters, flowLogger, true,
+                  regionName.equals(mainRegionName) ? null : bundleSource);
+              } finally {
+                flowLogger.targetFinished(block);
+                flowLogger.disposeFlow();
+              }
+            }
+          });
+        }
+
+        return new RegionDeployments(runningBuild.getBuildLogger()) {
+          @Override
+          boolean isCancelled() {
+            return myCancelled;
+          }
+
+          @Override
+          void cancel() {
+            cancelDeployments();
+          }
+        }.run(regions);
+      }
+
+      /**
+       * @param bundleSource client of the main region if the version bundle must be copied from the main region bucket
+       */
+      @NotNull
+      private BuildFinishedStatus deployToRegion(@NotNull Map<String, String> runnerParameters, @NotNull Map<String, String> configParameters,
+                                                 @NotNull BuildProgressLogger buildLogger, boolean multiRegion, @Nullable AmazonS3 bundleSource) {
         final Mutable m = new Mutable(configParameters);
-        m.problemOccurred = false;
-        m.s3ObjectVersion = nullIfEmpty(configParameters.get(S3_OBJECT_VERSION_CONFIG_PARAM));
 
-        final AWSClient awsClient = createAWSClient(runnerParameters, runningBuild).withListener(
-          new LoggingDeploymentListener(runnerParameters, runningBuild.getBuildLogger(), runningBuild.getCheckoutDirectory().getAbsolutePath()));
+        final TimelineWriter timeline = new TimelineWriter(getTimelineFile(runnerParameters, multiRegion));
+        final File instanceLogsDirectory = new File(runningBuild.getBuildTempDirectory(),
+          "elasticbeanstalk-logs-" + getEnvironmentFileName(runnerParameters, multiRegion));
 
+        final AWSClient awsClient = createAWSClient(runnerParameters, runningBuild, configParameters).withListener(
+          new LoggingDeploymentListener(runnerParameters, buildLogger, runningBuild.getCheckoutDirectory().getAbsolutePath(),
+            getIntegerOrDefault(configParameters.get(LOG_MAX_MESSAGES_PER_MIN_CONFIG_PARAM), LOG_MAX_MESSAGES_PER_MIN_DEFAULT)))
+          // the timeline writer queues the records itself, it must see every event when it happens
+          .withSyncListener(new TimelineDeploymentListener(timeline))
+          .withListener(new DeploymentReportingListener(buildLogger, context.getId(), getRegionName(runnerParameters), runnerParameters.get(APP_NAME_PARAM),
+            ElasticBeanstalkUtil.isServerWaitEnabled(runnerParameters) ? getDeploymentSchedule(runnerParameters, configParameters).getTimeoutSec() : null))
+          .withHealthThresholds(ElasticBeanstalkUtil.getIntegerOrNull(runnerParameters.get(HEALTH_DEGRADED_PERCENT_PARAM)),
+            getIntegerOrDefault(runnerParameters.get(HEALTH_DEGRADED_DURATION_SEC_PARAM), HEALTH_DEGRADED_DURATION_SEC_DEFAULT))
+          .withAbortOnFailure(Boolean.parseBoolean(runnerParameters.get(ABORT_ON_FAILURE_PARAM)))
+          .withRollback(getRollbackVersionLabel(runnerParameters))
+          .withOptionSettings(ElasticBeanstalkUtil.getOptionSettings(runnerParameters))
+          .withVersionProcessing(Boolean.parseBoolean(runnerParameters.get(PROCESS_VERSION_PARAM)))
+          .withNotificationQueue(createNotificationQueue(runnerParameters, runningBuild, configParameters))
+          .withInstanceLogs("false".equals(configParameters.get(INSTANCE_LOGS_CONFIG_PARAM)) ? null : instanceLogsDirectory,
+            getIntegerOrDefault(configParameters.get(INSTANCE_LOGS_MAX_KB_CONFIG_PARAM), INSTANCE_LOGS_MAX_KB_DEFAULT) * 1024L);
+        myAWSClients.add(awsClient);
+        if (myCancelled) awsClient.cancel();
+
+        try {
+          return deploy(awsClient, runnerParameters, configParameters, m, bundleSource);
+        } finally {
+          awsClient.closeListeners(LISTENERS_CLOSE_TIMEOUT_MS);
+          timeline.close();
+          myArtifactsWatcher.addNewArtifactsPath(timeline.getFile().getAbsolutePath() + " => " + ARTIFACTS_PATH);
+          if (instanceLogsDirectory.isDirectory()) {
+            myArtifactsWatcher.addNewArtifactsPath(instanceLogsDirectory.getAbsolutePath() + " => " + ARTIFACTS_PATH + "/" + instanceLogsDirectory.getName());
+          }
+        }
+      }
+
+      @NotNull
+      private BuildFinishedStatus deploy(@NotNull AWSClient awsClient, @NotNull Map<String, String> runnerParameters,
+                                         @NotNull Map<String, String> configParameters, @NotNull Mutable m, @Nullable AmazonS3 bundleSource) {
         final String s3BucketName = runnerParameters.get(S3_BUCKET_NAME_PARAM);
         String s3ObjectKey = runnerParameters.get(S3_OBJECT_KEY_PARAM);
 
@@ -55,22 +184,96 @@ public class ElasticBeanstalkRunner implements AgentBuildRunner {
         final String environmentName = runnerParameters.get(ENV_NAME_PARAM);
         final String versionLabel = runnerParameters.get(APP_VERSION_PARAM);
         final Boolean skipDuplicateVersions = Boolean.valueOf(runnerParameters.get(APP_VERSION_SKIP_DUPE_PARAM));
+        final boolean blueGreen = ElasticBeanstalkUtil.isBlueGreenDeployment(runnerParameters);
+
+        // a bundle to be copied isn't in the regional bucket yet, an existing version is reused if duplicates are skipped
+        if (!awsClient.preflight(applicationName, environmentName, s3BucketName, bundleSource == null ? s3ObjectKey : null,
+          skipDuplicateVersions ? versionLabel : null,
+          getIntegerOrDefault(configParameters.get(PREFLIGHT_TIMEOUT_SEC_CONFIG_PARAM), PREFLIGHT_TIMEOUT_SEC_DEFAULT))) {
+          return BuildFinishedStatus.FINISHED_WITH_PROBLEMS;
+        }
+
+        final DeploymentPlan plan;
+        if ("false".equals(configParameters.get(SKIP_UNCHANGED_CONFIG_PARAM))) {
+          plan = DeploymentPlan.full("redeployment forced by " + SKIP_UNCHANGED_CONFIG_PARAM);
+        } else if (blueGreen) {
+          // a blue/green deployment has nothing to do if the live environment already runs the version
+          final String liveEnvironmentName = awsClient.findLiveEnvironmentName(applicationName, environmentName,
+            runnerParameters.get(IDLE_ENV_NAME_PARAM), runnerParameters.get(LIVE_CNAME_PREFIX_PARAM));
+          plan = liveEnvironmentName == null
+            ? DeploymentPlan.full("live environment unknown")
+            : awsClient.planDeployment(applicationName, liveEnvironmentName, versionLabel, skipDuplicateVersions, false);
+        } else {
+          plan = awsClient.planDeployment(applicationName, environmentName, versionLabel, skipDuplicateVersions, true);
+        }
+        if (plan.isNothingToDo()) return BuildFinishedStatus.FINISHED_SUCCESS;
+
+        if (plan.isCreateVersion() && bundleSource != null && !m.problemOccurred && !awsClient.isCancelled()) {
+          final String mainBucketName = context.getRunnerParameters().get(S3_BUCKET_NAME_PARAM);
+          if (!awsClient.copyBundle(bundleSource, mainBucketName, s3BucketName, s3ObjectKey)) return BuildFinishedStatus.FINISHED_WITH_PROBLEMS;
+        }
 
-        if (!m.problemOccurred && !isInterrupted()) {
-          awsClient.createApplicationVersion(applicationName, versionLabel, skipDuplicateVersions, s3BucketName, s3ObjectKey);
+        if (plan.isCreateVersion() && !m.problemOccurred && !awsClient.isCancelled()) {
+          // the plan already knows whether the version exists
+          if (!awsClient.createApplicationVersion(applicationName, versionLabel, skipDuplicateVersions && !plan.isVersionChecked(), s3BucketName, s3ObjectKey)) {
+            m.problemOccurred = true;
+          }
         }
 
-        if (!m.problemOccurred && !isInterrupted()) {
-          if (ElasticBeanstalkUtil.isDeploymentWaitEnabled(runnerParameters)) {
-            awsClient.updateEnvironmentAndWait(environmentName, versionLabel,
-              Integer.parseInt(runnerParameters.get(WAIT_TIMEOUT_SEC_PARAM)),
-              getIntegerOrDefault(configParameters.get(WAIT_POLL_INTERVAL_SEC_CONFIG_PARAM), WAIT_POLL_INTERVAL_SEC_DEFAULT));
+        if (plan.isDeploy() && !m.problemOccurred && !awsClient.isCancelled()) {
+          final boolean deployed;
+          if (blueGreen) {
+            deployed = awsClient.deployBlueGreen(applicationName, environmentName, runnerParameters.get(IDLE_ENV_NAME_PARAM),
+              runnerParameters.get(LIVE_CNAME_PREFIX_PARAM), versionLabel,
+              getDeploymentSchedule(runnerParameters, configParameters));
+          } else if (ElasticBeanstalkUtil.isServerWaitEnabled(runnerParameters)) {
+            // the started update is reported to the server, which waits for it after the build frees the agent
+            deployed = awsClient.updateEnvironment(environmentName, versionLabel);
+          } else if (ElasticBeanstalkUtil.isDeploymentWaitEnabled(runnerParameters)) {
+            deployed = awsClient.updateEnvironmentAndWait(environmentName, versionLabel, getDeploymentSchedule(runnerParameters, configParameters));
           } else {
-            awsClient.updateEnvironment(environmentName, versionLabel);
+            deployed = awsClient.updateEnvironment(environmentName, versionLabel);
           }
+          if (!deployed) m.problemOccurred = true;
+        }
+
+        // a cancelled region skips the remaining steps, it isn't deployed either
+        return m.problemOccurred || awsClient.isCancelled() ? BuildFinishedStatus.FINISHED_WITH_PROBLEMS : BuildFinishedStatus.FINISHED_SUCCESS;
+      }
+
+      private void skipSuperseded(@NotNull Map<String, String> runnerParameters, @NotNull String supersededBy) {
+        final BuildProgressLogger buildLogger = runningBuild.getBuildLogger();
+        buildLogger.message(String.format("Skipping deployment of version %s to environment %s: a newer build of %s deploying to the same environment is queued",
+          runnerParameters.get(APP_VERSION_PARAM), runnerParameters.get(ENV_NAME_PARAM), supersededBy));
+        buildLogger.message(ServiceMessage.asString("buildStatus",
+          Collections.singletonMap("text", "{build.status.text}; deployment superseded")));
+      }
+
+      /**
+       * Blue/green deployments leave the live environment untouched, a failed in-place deployment is rolled back
+       * to the last good version known to the server
+       */
+      @Nullable
+      private String getRollbackVersionLabel(@NotNull Map<String, String> runnerParameters) {
+        if (!Boolean.parseBoolean(runnerParameters.get(ROLLBACK_ON_FAILURE_PARAM)) || ElasticBeanstalkUtil.isBlueGreenDeployment(runnerParameters)) return null;
+        final String versionLabel = runnerParameters.get(LAST_GOOD_VERSION_PARAM);
+        if (versionLabel == null) {
+          runningBuild.getBuildLogger().message("The last successful deployment to environment " + runnerParameters.get(ENV_NAME_PARAM) + " in region " +
+            getRegionName(runnerParameters) + " is unknown, rollback on failure is disabled");
         }
+        return versionLabel;
+      }
 
-        return m.problemOccurred ? BuildFinishedStatus.FINISHED_WITH_PROBLEMS : BuildFinishedStatus.FINISHED_SUCCESS;
+      @NotNull
+      private File getTimelineFile(@NotNull Map<String, String> runnerParameters, boolean multiRegion) {
+        return new File(runningBuild.getBuildTempDirectory(), "elasticbeanstalk-timeline-" + getEnvironmentFileName(runnerParameters, multiRegion) + ".jsonl");
+      }
+
+      @NotNull
+      private String getEnvironmentFileName(@NotNull Map<String, String> runnerParameters, boolean multiRegion) {
+        String name = runnerParameters.get(ENV_NAME_PARAM);
+        if (multiRegion) name += "-" + getRegionName(runnerParameters);
+        return name.replaceAll("[^\\w.-]", "_");
       }
 
       @NotNull
@@ -101,17 +304,54 @@ public class ElasticBeanstalkRunner implements AgentBuildRunner {
   }
 
   @NotNull
-  private AWSClient createAWSClient(final Map<String, String> runnerParameters, @NotNull final AgentRunningBuild runningBuild) {
+  private static DeploymentSchedule getDeploymentSchedule(@NotNull Map<String, String> runnerParameters, @NotNull Map<String, String> configParameters) {
+    return DeploymentSchedule.create(
+      ElasticBeanstalkUtil.getIntegerOrNull(runnerParameters.get(WAIT_TIMEOUT_SEC_PARAM)),
+      getIntegerOrDefault(configParameters.get(WAIT_POLL_INTERVAL_SEC_CONFIG_PARAM), WAIT_POLL_INTERVAL_SEC_DEFAULT),
+      ElasticBeanstalkUtil.getIntegerOrNull(runnerParameters.get(HISTORY_P50_SEC_PARAM)),
+      ElasticBeanstalkUtil.getIntegerOrNull(runnerParameters.get(HISTORY_P95_SEC_PARAM)));
+  }
+
+  @Nullable
+  private static EnvironmentNotificationQueue createNotificationQueue(@NotNull Map<String, String> runnerParameters,
+                                                                     @NotNull AgentRunningBuild runningBuild,
+                                                                     @NotNull Map<String, String> configParameters) {
+    final String queueUrl = ElasticBeanstalkUtil.getNotificationQueueUrl(runnerParameters);
+    if (queueUrl == null) return null;
+
+    return new EnvironmentNotificationQueue(createAWSClients(getClientParameters(runnerParameters, runningBuild, configParameters), true).createSQSClient(), queueUrl);
+  }
+
+  @NotNull
+  private AWSClient createAWSClient(final Map<String, String> runnerParameters, @NotNull final AgentRunningBuild runningBuild,
+                                    @NotNull Map<String, String> configParameters) {
+    final Map<String, String> params = getClientParameters(runnerParameters, runningBuild, configParameters);
+    final AWSClient awsClient = new AWSClient(createAWSClients(params, true));
+    if (TEMP_CREDENTIALS_OPTION.equals(params.get(CREDENTIALS_TYPE_PARAM))) {
+      awsClient.withCredentialsLifetime(getIntegerOrDefault(params.get(TEMP_CREDENTIALS_DURATION_SEC_PARAM), TEMP_CREDENTIALS_DURATION_SEC_DEFAULT));
+    }
+    return awsClient;
+  }
+
+  @NotNull
+  private static Map<String, String> getClientParameters(@NotNull Map<String, String> runnerParameters, @NotNull AgentRunningBuild runningBuild,
+                                                         @NotNull Map<String, String> configParameters) {
     final Map<String, String> params = new HashMap<>(runnerParameters);
     params.put(TEMP_CREDENTIALS_SESSION_NAME_PARAM, runningBuild.getBuildTypeExternalId() + runningBuild.getBuildId());
-    if (ElasticBeanstalkUtil.isDeploymentWaitEnabled(runnerParameters)) {
-      params.put(TEMP_CREDENTIALS_DURATION_SEC_PARAM, String.valueOf(2 * Integer.parseInt(runnerParameters.get(WAIT_TIMEOUT_SEC_PARAM))));
+    // endpoints and transport are usually agent specific, e.g. VPC endpoints, so they come from the configuration parameters
+    for (Map.Entry<String, String> e : configParameters.entrySet()) {
+      if (e.getKey().startsWith(ENDPOINT_PARAM_PREFIX) || e.getKey().startsWith(AWSTransport.TRANSPORT_PARAM_PREFIX)) params.put(e.getKey(), e.getValue());
     }
-
-    return new AWSClient(createAWSClients(params, true));
+    if (ElasticBeanstalkUtil.isDeploymentWaitEnabled(runnerParameters) && !ElasticBeanstalkUtil.isServerWaitEnabled(runnerParameters)) {
+      final int timeoutSec = getDeploymentSchedule(runnerParameters, configParameters).getTimeoutSec();
+      // a failed deployment is aborted and rolled back within the same budget again, the waits are cut to the credentials lifetime anyway
+      final boolean rollback = Boolean.parseBoolean(runnerParameters.get(ROLLBACK_ON_FAILURE_PARAM)) && !ElasticBeanstalkUtil.isBlueGreenDeployment(runnerParameters);
+      params.put(TEMP_CREDENTIALS_DURATION_SEC_PARAM, String.valueOf((rollback ? 3 : 2) * timeoutSec));
+    }
+    return params;
   }
 
-  private static class ElasticBeanstalkRunnerException extends RunBuildException {
+  static class ElasticBeanstalkRunnerException extends RunBuildException {
     ElasticBeanstalkRunnerException(@NotNull String message, @Nullable Throwable cause) {
       super(message, cause, ErrorData.BUILD_RUNNER_ERROR_TYPE);
       this.setLogStacktrace(false);
@@ -16,6 +16,7 @@
 
 package jetbrains.buildServer.runner.elasticbeanstalk;
 
+import com.amazonaws.services.elasticbeanstalk.model.ConfigurationOptionSetting;
 import com.intellij.openapi.diagnostic.Logger;
 import jetbrains.buildServer.agent.BuildProgressLogger;
 import jetbrains.buildServer.log.Loggers;
@@ -28,14 +29,19 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 class LoggingDeploymentListener extends AWSClient.Listener {
   @NotNull
   private static final Logger LOG = Logger.getInstance(Loggers.VCS_CATEGORY + ElasticBeanstalkRunner.class);
 
+  static final String COPY_BUNDLE = "Copy version bundle";
   static final String CREATE_VERSION = "Create version";
   static final String UPDATE_ENVIRONMENT = "Update environment";
+  static final String ENVIRONMENT_EVENTS = "Environment events";
+  static final String INSTANCE_LOGS = "Instance logs";
+  static final String ROLLBACK = "Roll back environment";
 
   @NotNull
   private final Map<String, String> myRunnerParameters;
@@ -43,11 +49,24 @@ class LoggingDeploymentListener extends AWSClient.Listener {
   private final BuildProgressLogger myBuildLogger;
   @NotNull
   private final String myCheckoutDir;
+  @NotNull
+  private final CoalescingEventLogger myEvents;
 
   LoggingDeploymentListener(@NotNull Map<String, String> runnerParameters, @NotNull BuildProgressLogger buildLogger, @NotNull String checkoutDir) {
+    this(runnerParameters, buildLogger, checkoutDir, ElasticBeanstalkConstants.LOG_MAX_MESSAGES_PER_MIN_DEFAULT);
+  }
+
+  LoggingDeploymentListener(@NotNull Map<String, String> runnerParameters, @NotNull BuildProgressLogger buildLogger, @NotNull String checkoutDir,
+                            int maxEventMessagesPerMin) {
     myRunnerParameters = runnerParameters;
     myBuildLogger = buildLogger;
     myCheckoutDir = checkoutDir;
+    myEvents = new CoalescingEventLogger(maxEventMessagesPerMin, new CoalescingEventLogger.Sink() {
+      @Override
+      public void flush(@NotNull List<String> events) {
+        logEvents(events);
+      }
+    });
   }
 
   @Override
@@ -70,6 +89,48 @@ class LoggingDeploymentListener extends AWSClient.Listener {
     close(CREATE_VERSION);
   }
 
+  @Override
+  void versionProcessed(@NotNull String applicationName, @NotNull String versionLabel, long durationMillis) {
+    log(String.format("Application %s version %s processed in %d ms", applicationName, versionLabel, durationMillis));
+  }
+
+  @Override
+  void bundleCopyStarted(@NotNull String sourceBucketName, @NotNull String targetBucketName, @NotNull String key, long size) {
+    open(COPY_BUNDLE);
+    log(String.format("Copying %s (%d bytes) from bucket %s to bucket %s", key, size, sourceBucketName, targetBucketName));
+  }
+
+  @Override
+  void bundleCopySkipped(@NotNull String targetBucketName, @NotNull String key) {
+    log(String.format("Bucket %s already holds the up-to-date %s, skipping copy", targetBucketName, key));
+  }
+
+  @Override
+  void bundleCopyFinished(@NotNull String targetBucketName, @NotNull String key, int parts) {
+    log(String.format("Copied %s to bucket %s in %d part(s)", key, targetBucketName, parts));
+    close(COPY_BUNDLE);
+  }
+
+  @Override
+  void environmentNotReady(@NotNull String environmentName, @NotNull String status) {
+    log(String.format("Environment %s is %s, waiting for it to become Ready before deployment", environmentName, status));
+  }
+
+  @Override
+  void optionSettingsApplied(@NotNull String environmentName, @NotNull List<ConfigurationOptionSetting> optionSettings) {
+    log(String.format("Applying option settings to environment %s: %s", environmentName, ElasticBeanstalkUtil.describe(optionSettings)));
+  }
+
+  @Override
+  void deploymentPlanned(@NotNull String environmentName, @NotNull String versionLabel, @NotNull DeploymentPlan plan) {
+    log(String.format("Deployment of version %s to environment %s: %s", versionLabel, environmentName, plan.describe()));
+  }
+
+  @Override
+  void optionSettingsUpToDate(@NotNull String environmentName) {
+    log(String.format("Environment %s option settings are up to date", environmentName));
+  }
+
   @Override
   void deploymentStarted(@NotNull String applicationName, @NotNull String environmentName, @NotNull String versionLabel) {
     open(UPDATE_ENVIRONMENT);
@@ -83,18 +144,31 @@ class LoggingDeploymentListener extends AWSClient.Listener {
   }
 
   @Override
-  void deploymentInProgress(@NotNull String environmentName) {
-    progress(String.format("Waiting for deployment on environment %s", environmentName));
+  void deploymentInProgress(@NotNull String environmentName, @Nullable Long etaSec) {
+    if (etaSec == null) {
+      progress(String.format("Waiting for deployment on environment %s", environmentName));
+    } else {
+      progress(String.format("Waiting for deployment on environment %s, ETA %s", environmentName, ElasticBeanstalkUtil.formatDuration(etaSec)));
+    }
+  }
+
+  @Override
+  void rolloutProgress(@NotNull String environmentName, @NotNull String versionLabel, int deployedInstances, int totalInstances,
+                       @Nullable Long etaSec) {
+    final String message = String.format("%d/%d instances of environment %s on version %s", deployedInstances, totalInstances, environmentName, versionLabel);
+    progress(etaSec == null ? message : message + ", ETA " + ElasticBeanstalkUtil.formatDuration(etaSec));
   }
 
   @Override
-  void deploymentUpdate(@NotNull String message) {
-    progress(message);
+  void deploymentUpdate(@NotNull String message, @Nullable String severity) {
+    myEvents.add(message, isErrorSeverity(severity));
   }
 
   @Override
   void deploymentFailed(@NotNull String applicationName, @NotNull String environmentName, @NotNull String versionLabel,
                         @NotNull Boolean hasTimeout, @Nullable ErrorInfo errorInfo) {
+    myEvents.flush();
+
     String msg = (!hasTimeout ? "Error, " : "Timeout exceeded, ");
 
     String errMessage = "";
@@ -118,8 +192,91 @@ class LoggingDeploymentListener extends AWSClient.Listener {
     close(UPDATE_ENVIRONMENT);
   }
 
+  @Override
+  void deploymentCancelled(@NotNull String environmentName, @NotNull String versionLabel) {
+    myEvents.flush();
+    log(String.format("Waiting for deployment of version %s to environment %s was cancelled", versionLabel, environmentName));
+    close(UPDATE_ENVIRONMENT);
+  }
+
+  @Override
+  void deploymentAbortStarted(@NotNull String environmentName) {
+    myEvents.flush();
+    log(String.format("Aborting update of environment %s", environmentName));
+  }
+
+  @Override
+  void instanceLogsRetrieved(@NotNull String environmentName, int instances, @NotNull List<InstanceLogsDownloader.InstanceLog> logs) {
+    open(INSTANCE_LOGS);
+    log(String.format("Retrieved logs of %d of %d instance(s) of environment %s, see %s in the build artifacts",
+      logs.size(), instances, environmentName, ElasticBeanstalkConstants.ARTIFACTS_PATH));
+    for (InstanceLogsDownloader.InstanceLog instanceLog : logs) {
+      if (instanceLog.error != null) {
+        log(String.format("%s: failed to download the log: %s", instanceLog.instanceId, instanceLog.error));
+      } else {
+        log(String.format("%s: %d bytes%s", instanceLog.instanceId, instanceLog.bytes, instanceLog.truncated ? ", the beginning is skipped" : ""));
+        if (!instanceLog.lastLines.isEmpty()) log(ElasticBeanstalkUtil.printStrings(instanceLog.lastLines).trim());
+      }
+    }
+    close(INSTANCE_LOGS);
+  }
+
+  @Override
+  void deploymentAbortFinished(@NotNull String environmentName, boolean environmentReady) {
+    myEvents.flush();
+    if (environmentReady) {
+      log(String.format("Environment %s rolled back and is Ready", environmentName));
+    } else {
+      err(String.format("Environment %s didn't become Ready after the update was aborted", environmentName));
+    }
+  }
+
+  @Override
+  void rollbackStarted(@NotNull String environmentName, @NotNull String failedVersionLabel, @NotNull String versionLabel) {
+    myEvents.flush();
+    open(ROLLBACK);
+    log(String.format("Rolling environment %s back from version %s to the last successfully deployed version %s", environmentName, failedVersionLabel, versionLabel));
+  }
+
+  @Override
+  void rollbackFinished(@NotNull String environmentName, @NotNull String versionLabel, boolean succeeded) {
+    myEvents.flush();
+    if (succeeded) {
+      final String message = String.format("Environment %s was rolled back to version %s", environmentName, versionLabel);
+      log(message);
+      statusText(message);
+    } else {
+      err(String.format("Failed to roll environment %s back to version %s", environmentName, versionLabel));
+    }
+    close(ROLLBACK);
+  }
+
+  @Override
+  void environmentCloneStarted(@NotNull String sourceEnvironmentName, @NotNull String environmentName) {
+    log(String.format("Creating environment %s with the configuration of environment %s", environmentName, sourceEnvironmentName));
+  }
+
+  @Override
+  void cnameSwapStarted(@NotNull String sourceEnvironmentName, @NotNull String destinationEnvironmentName) {
+    myEvents.flush();
+    log(String.format("Swapping CNAMEs of environments %s and %s", sourceEnvironmentName, destinationEnvironmentName));
+  }
+
+  @Override
+  void cnameSwapFinished(@NotNull String sourceEnvironmentName, @NotNull String destinationEnvironmentName, boolean environmentsReady) {
+    myEvents.flush();
+    if (environmentsReady) {
+      log(String.format("Environment %s is live, previous version stays on environment %s. To roll back swap the environments CNAMEs again",
+        sourceEnvironmentName, destinationEnvironmentName));
+    } else {
+      err(String.format("Environments %s and %s didn't become Ready after CNAMEs swap", sourceEnvironmentName, destinationEnvironmentName));
+    }
+  }
+
   @Override
   void deploymentSucceeded(@NotNull String versionLabel) {
+    myEvents.flush();
+
     String message = String.format("Version %s was deployed successfully", versionLabel);
     log(message);
     statusText(message);
@@ -128,6 +285,7 @@ class LoggingDeploymentListener extends AWSClient.Listener {
 
   @Override
   void exception(@NotNull AWSException e) {
+    myEvents.flush();
     LOG.error(e);
 
     final String message = e.getMessage();
@@ -139,6 +297,20 @@ class LoggingDeploymentListener extends AWSClient.Listener {
     close(UPDATE_ENVIRONMENT);
   }
 
+  private void logEvents(@NotNull List<String> events) {
+    final String last = events.get(events.size() - 1);
+    if (events.size() > 1) {
+      open(ENVIRONMENT_EVENTS);
+      log(ElasticBeanstalkUtil.printStrings(events).trim());
+      close(ENVIRONMENT_EVENTS);
+    }
+    progress(last);
+  }
+
+  private static boolean isErrorSeverity(@Nullable String severity) {
+    return "ERROR".equals(severity) || "FATAL".equals(severity);
+  }
+
   private int getIdentity(String... parts) {
     return AWSCommonParams.calculateIdentity(myCheckoutDir, myRunnerParameters, CollectionsUtil.join(getIdentityFormingParameters(), Arrays.asList(parts)));
   }
@@ -154,32 +326,47 @@ class LoggingDeploymentListener extends AWSClient.Listener {
       myRunnerParameters.get(ElasticBeanstalkConstants.APP_VERSION_PARAM));
   }
 
+  // output methods lock the events logger, so that a timer flush of the events block is not interleaved with other output
   protected void log(@NotNull String message) {
-    myBuildLogger.message(message);
+    synchronized (myEvents) {
+      myBuildLogger.message(message);
+    }
   }
 
   protected void err(@NotNull String message) {
-    myBuildLogger.error(message);
+    synchronized (myEvents) {
+      myBuildLogger.error(message);
+    }
   }
 
   protected void open(@NotNull String block) {
-    myBuildLogger.targetStarted(block);
+    synchronized (myEvents) {
+      myBuildLogger.targetStarted(block);
+    }
   }
 
   protected void close(@NotNull String block) {
-    myBuildLogger.targetFinished(block);
+    synchronized (myEvents) {
+      myBuildLogger.targetFinished(block);
+    }
   }
 
   protected void progress(@NotNull String message) {
-    myBuildLogger.message(String.format("##teamcity[progressMessage '%s']", escape(message)));
+    synchronized (myEvents) {
+      myBuildLogger.message(String.format("##teamcity[progressMessage '%s']", escape(message)));
+    }
   }
 
   protected void problem(int identity, @NotNull String type, @NotNull String descr) {
-    myBuildLogger.message(String.format("##teamcity[buildProblem identity='%d' type='%s' description='%s' tc:tags='tc:internal']", identity, type, escape(descr)));
+    synchronized (myEvents) {
+      myBuildLogger.message(String.format("##teamcity[buildProblem identity='%d' type='%s' description='%s' tc:tags='tc:internal']", identity, type, escape(descr)));
+    }
   }
 
   protected void statusText(@NotNull String text) {
-    myBuildLogger.message(String.format("##teamcity[buildStatus tc:tags='tc:internal' text='{build.status.text}; %s']", text));
+    synchronized (myEvents) {
+      myBuildLogger.message(String.format("##teamcity[buildStatus tc:tags='tc:internal' text='{build.status.text}; %s']", text));
+    }
   }
 
   @NotNull
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import jetbrains.buildServer.RunBuildException;
+import jetbrains.buildServer.agent.BuildFinishedStatus;
+import jetbrains.buildServer.agent.BuildProgressLogger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Runs the deployments to several regions in parallel, the first failed region cancels the deployments to the other regions
+ */
+abstract class RegionDeployments {
+  @NotNull
+  private final BuildProgressLogger myLogger;
+
+  RegionDeployments(@NotNull BuildProgressLogger logger) {
+    myLogger = logger;
+  }
+
+  /**
+   * @return true if the deployments are already cancelled
+   */
+  abstract boolean isCancelled();
+
+  /**
+   * Cancels the running and not yet started deployments to all regions
+   */
+  abstract void cancel();
+
+  /**
+   * @param regions deployment to each region by region name
+   * @return success only if every region succeeded
+   */
+  @NotNull
+  BuildFinishedStatus run(@NotNull Map<String, Callable<BuildFinishedStatus>> regions) throws RunBuildException {
+    final ExecutorService executor = Executors.newFixedThreadPool(regions.size());
+    try {
+      final CompletionService<BuildFinishedStatus> completion = new ExecutorCompletionService<BuildFinishedStatus>(executor);
+      final Map<Future<BuildFinishedStatus>, String> futures = new HashMap<Future<BuildFinishedStatus>, String>();
+      for (Map.Entry<String, Callable<BuildFinishedStatus>> e : regions.entrySet()) {
+        futures.put(completion.submit(e.getValue()), e.getKey());
+      }
+
+      BuildFinishedStatus status = BuildFinishedStatus.FINISHED_SUCCESS;
+      RunBuildException exception = null;
+      for (int i = 0; i < futures.size(); i++) {
+        String regionName = null;
+        boolean failed;
+        try {
+          final Future<BuildFinishedStatus> result = completion.take();
+          regionName = futures.get(result);
+          failed = result.get() != BuildFinishedStatus.FINISHED_SUCCESS;
+        } catch (ExecutionException ex) {
+          failed = true;
+          final Throwable cause = ex.getCause();
+          if (exception == null) {
+            exception = cause instanceof RunBuildException
+              ? (RunBuildException) cause
+              : new ElasticBeanstalkRunner.ElasticBeanstalkRunnerException("Deployment to region " + regionName + " failed: " + cause.getMessage(), cause);
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          cancel();
+          return BuildFinishedStatus.INTERRUPTED;
+        }
+
+        if (failed) {
+          status = BuildFinishedStatus.FINISHED_WITH_PROBLEMS;
+          if (!isCancelled() && i + 1 < futures.size()) {
+            myLogger.warning("Deployment to region " + regionName + " failed, cancelling deployments to the other regions");
+            cancel();
+          }
+        }
+      }
+      if (exception != null) throw exception;
+      return status;
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.amazonaws.services.elasticbeanstalk.model.ConfigurationOptionSetting;
+import jetbrains.buildServer.util.amazon.AWSException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Records every deployment event into the JSON Lines deployment timeline,
+ * must be registered with {@link AWSClient#withSyncListener} for the records to have the event times
+ */
+class TimelineDeploymentListener extends AWSClient.Listener {
+  @NotNull
+  private final TimelineWriter myWriter;
+
+  TimelineDeploymentListener(@NotNull TimelineWriter writer) {
+    myWriter = writer;
+  }
+
+  @Override
+  void createVersionStarted(@NotNull String applicationName, @NotNull String versionLabel,
+                            @NotNull String s3BucketName, @NotNull String s3ObjectKey) {
+    myWriter.write("createVersionStarted", "application", applicationName, "version", versionLabel,
+      "bucket", s3BucketName, "key", s3ObjectKey);
+  }
+
+  @Override
+  void createVersionFinished(@NotNull String applicationName, @NotNull String versionLabel,
+                             @NotNull String s3BucketName, @NotNull String s3ObjectKey) {
+    myWriter.write("createVersionFinished", "application", applicationName, "version", versionLabel);
+  }
+
+  @Override
+  void createVersionSkipped(@NotNull String applicationName, @NotNull String versionLabel) {
+    myWriter.write("createVersionSkipped", "application", applicationName, "version", versionLabel);
+  }
+
+  @Override
+  void versionProcessed(@NotNull String applicationName, @NotNull String versionLabel, long durationMillis) {
+    myWriter.write("versionProcessed", "application", applicationName, "version", versionLabel, "durationMs", durationMillis);
+  }
+
+  @Override
+  void rollbackStarted(@NotNull String environmentName, @NotNull String failedVersionLabel, @NotNull String versionLabel) {
+    myWriter.write("rollbackStarted", "environment", environmentName, "failedVersion", failedVersionLabel, "version", versionLabel);
+  }
+
+  @Override
+  void rollbackFinished(@NotNull String environmentName, @NotNull String versionLabel, boolean succeeded) {
+    myWriter.write("rollbackFinished", "environment", environmentName, "version", versionLabel, "succeeded", succeeded);
+  }
+
+  @Override
+  void bundleCopyStarted(@NotNull String sourceBucketName, @NotNull String targetBucketName, @NotNull String key, long size) {
+    myWriter.write("bundleCopyStarted", "sourceBucket", sourceBucketName, "bucket", targetBucketName, "key", key, "size", size);
+  }
+
+  @Override
+  void bundleCopySkipped(@NotNull String targetBucketName, @NotNull String key) {
+    myWriter.write("bundleCopySkipped", "bucket", targetBucketName, "key", key);
+  }
+
+  @Override
+  void bundleCopyFinished(@NotNull String targetBucketName, @NotNull String key, int parts) {
+    myWriter.write("bundleCopyFinished", "bucket", targetBucketName, "key", key, "parts", parts);
+  }
+
+  @Override
+  void environmentNotReady(@NotNull String environmentName, @NotNull String status) {
+    myWriter.write("environmentNotReady", "environment", environmentName, "status", status);
+  }
+
+  @Override
+  void optionSettingsApplied(@NotNull String environmentName, @NotNull List<ConfigurationOptionSetting> optionSettings) {
+    myWriter.write("optionSettingsApplied", "environment", environmentName, "settings", ElasticBeanstalkUtil.describe(optionSettings));
+  }
+
+  @Override
+  void deploymentPlanned(@NotNull String environmentName, @NotNull String versionLabel, @NotNull DeploymentPlan plan) {
+    myWriter.write("deploymentPlanned", "environment", environmentName, "version", versionLabel,
+      "createVersion", plan.isCreateVersion(), "deploy", plan.isDeploy(), "reason", plan.getReason());
+  }
+
+  @Override
+  void optionSettingsUpToDate(@NotNull String environmentName) {
+    myWriter.write("optionSettingsUpToDate", "environment", environmentName);
+  }
+
+  @Override
+  void deploymentStarted(@NotNull String environmentId, @NotNull String environmentName, @NotNull String versionLabel) {
+    myWriter.write("deploymentStarted", "environmentId", environmentId, "environment", environmentName, "version", versionLabel);
+  }
+
+  @Override
+  void deploymentWaitStarted(@NotNull String environmentName) {
+    myWriter.write("deploymentWaitStarted", "environment", environmentName);
+  }
+
+  @Override
+  void deploymentInProgress(@NotNull String environmentName, @Nullable Long etaSec) {
+    myWriter.write("deploymentInProgress", "environment", environmentName, "etaSec", etaSec);
+  }
+
+  @Override
+  void deploymentUpdate(@NotNull String message, @Nullable String severity) {
+    myWriter.write("event", "severity", severity, "message", message);
+  }
+
+  @Override
+  void environmentPolled(@NotNull String environmentName, @NotNull String status,
+                         @Nullable String health, @Nullable String versionLabel) {
+    myWriter.write("status", "environment", environmentName, "status", status, "health", health, "version", versionLabel);
+  }
+
+  @Override
+  void apiCallFinished(@NotNull String operation, long durationMillis) {
+    myWriter.write("apiCall", "operation", operation, "durationMs", durationMillis);
+  }
+
+  @Override
+  void healthPolled(@NotNull String environmentName, @Nullable String healthStatus, int degradedInstances, int totalInstances) {
+    myWriter.write("health", "environment", environmentName, "health", healthStatus,
+      "degradedInstances", degradedInstances, "totalInstances", totalInstances);
+  }
+
+  @Override
+  void rolloutProgress(@NotNull String environmentName, @NotNull String versionLabel, int deployedInstances, int totalInstances,
+                       @Nullable Long etaSec) {
+    myWriter.write("rollout", "environment", environmentName, "version", versionLabel,
+      "deployedInstances", deployedInstances, "totalInstances", totalInstances, "etaSec", etaSec);
+  }
+
+  @Override
+  void deploymentFailed(@NotNull String applicationName, @NotNull String environmentName, @NotNull String versionLabel,
+                        @NotNull Boolean hasTimeout, @Nullable ErrorInfo errorInfo) {
+    myWriter.write("deploymentFailed", "application", applicationName, "environment", environmentName, "version", versionLabel,
+      "timeout", hasTimeout, "error", errorInfo == null ? null : errorInfo.message);
+  }
+
+  @Override
+  void deploymentCancelled(@NotNull String environmentName, @NotNull String versionLabel) {
+    myWriter.write("deploymentCancelled", "environment", environmentName, "version", versionLabel);
+  }
+
+  @Override
+  void deploymentAbortStarted(@NotNull String environmentName) {
+    myWriter.write("deploymentAbortStarted", "environment", environmentName);
+  }
+
+  @Override
+  void instanceLogsRetrieved(@NotNull String environmentName, int instances, @NotNull List<InstanceLogsDownloader.InstanceLog> logs) {
+    myWriter.write("instanceLogsRetrieved", "environment", environmentName, "instances", instances, "logs", logs.size());
+  }
+
+  @Override
+  void deploymentAbortFinished(@NotNull String environmentName, boolean environmentReady) {
+    myWriter.write("deploymentAbortFinished", "environment", environmentName, "ready", environmentReady);
+  }
+
+  @Override
+  void environmentCloneStarted(@NotNull String sourceEnvironmentName, @NotNull String environmentName) {
+    myWriter.write("environmentCloneStarted", "source", sourceEnvironmentName, "environment", environmentName);
+  }
+
+  @Override
+  void cnameSwapStarted(@NotNull String sourceEnvironmentName, @NotNull String destinationEnvironmentName) {
+    myWriter.write("cnameSwapStarted", "source", sourceEnvironmentName, "destination", destinationEnvironmentName);
+  }
+
+  @Override
+  void cnameSwapFinished(@NotNull String sourceEnvironmentName, @NotNull String destinationEnvironmentName, boolean environmentsReady) {
+    myWriter.write("cnameSwapFinished", "source", sourceEnvironmentName, "destination", destinationEnvironmentName, "ready", environmentsReady);
+  }
+
+  @Override
+  void deploymentSucceeded(@NotNull String versionLabel) {
+    myWriter.write("deploymentSucceeded", "version", versionLabel);
+  }
+
+  @Override
+  void exception(@NotNull AWSException exception) {
+    myWriter.write("exception", "type", exception.getType(), "message", exception.getMessage());
+  }
+}
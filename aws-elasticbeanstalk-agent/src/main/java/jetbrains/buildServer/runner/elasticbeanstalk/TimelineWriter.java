@@ -0,0 +1,182 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.log.Loggers;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends JSON Lines records to a file from a background thread, so that callers never wait for disk I/O.
+ * <p>
+ * Every record gets a monotonic "elapsedMs" field counted from the writer creation and a wall clock "time" field,
+ * both taken when {@link #write} is called, so the writer must be called when the event happens rather than from a delivery queue.
+ */
+class TimelineWriter {
+  @NotNull
+  private static final Logger LOG = Logger.getInstance(Loggers.VCS_CATEGORY + TimelineWriter.class);
+
+  private static final String END_OF_STREAM = "";
+  private static final long CLOSE_TIMEOUT_MILLIS = 10 * 1000;
+
+  @NotNull
+  private final File myFile;
+  @NotNull
+  private final BlockingQueue<String> myQueue = new LinkedBlockingQueue<String>();
+  @NotNull
+  private final Thread myThread;
+  private final long myStartNanos = System.nanoTime();
+  @NotNull
+  private final SimpleDateFormat myDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+  private volatile boolean myClosed = false;
+  private volatile boolean myFailed = false;
+
+  TimelineWriter(@NotNull File file) {
+    myFile = file;
+    myThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writeLoop();
+      }
+    }, "ElasticBeanstalk timeline writer");
+    myThread.setDaemon(true);
+    myThread.start();
+  }
+
+  @NotNull
+  File getFile() {
+    return myFile;
+  }
+
+  /**
+   * @param type   record type
+   * @param fields record fields in name, value order, values are written as JSON numbers, booleans or strings
+   */
+  void write(@NotNull String type, @NotNull Object... fields) {
+    if (myClosed || myFailed) return;
+
+    final StringBuilder sb = new StringBuilder("{");
+    appendField(sb, "elapsedMs", (System.nanoTime() - myStartNanos) / 1000000);
+    sb.append(',');
+    synchronized (myDateFormat) {
+      appendField(sb, "time", myDateFormat.format(new Date()));
+    }
+    sb.append(',');
+    appendField(sb, "type", type);
+    for (int i = 0; i + 1 < fields.length; i += 2) {
+      sb.append(',');
+      appendField(sb, String.valueOf(fields[i]), fields[i + 1]);
+    }
+    sb.append('}');
+
+    myQueue.offer(sb.toString());
+  }
+
+  /**
+   * Writes all the pending records and closes the file
+   */
+  void close() {
+    if (myClosed) return;
+    myClosed = true;
+    if (myFailed) return;
+    myQueue.offer(END_OF_STREAM);
+    try {
+      myThread.join(CLOSE_TIMEOUT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void writeLoop() {
+    Writer writer = null;
+    try {
+      FileUtil.createParentDirs(myFile);
+      writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(myFile), "UTF-8"));
+      while (true) {
+        String record = myQueue.poll(1, TimeUnit.SECONDS);
+        if (record == null) {
+          writer.flush();
+          record = myQueue.take();
+        }
+        if (END_OF_STREAM.equals(record)) break;
+        writer.write(record);
+        writer.write('\n');
+      }
+    } catch (InterruptedException e) {
+      myFailed = true;
+      LOG.warn("Interrupted while writing deployment timeline to " + myFile);
+    } catch (IOException e) {
+      myFailed = true;
+      LOG.warn("Failed to write deployment timeline to " + myFile, e);
+    } finally {
+      myQueue.clear();
+      FileUtil.close(writer);
+    }
+  }
+
+  private static void appendField(@NotNull StringBuilder sb, @NotNull String name, @Nullable Object value) {
+    appendString(sb, name);
+    sb.append(':');
+    if (value == null) {
+      sb.append("null");
+    } else if (value instanceof Number || value instanceof Boolean) {
+      sb.append(value);
+    } else {
+      appendString(sb, value.toString());
+    }
+  }
+
+  private static void appendString(@NotNull StringBuilder sb, @NotNull String s) {
+    sb.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      final char c = s.charAt(i);
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    sb.append('"');
+  }
+}
@@ -57,7 +57,7 @@ public class LoggingDeploymentListenerTest extends LoggingTestCase {
 
     listener.deploymentWaitStarted(FAKE_ENV_NAME);
 
-    listener.deploymentInProgress(FAKE_ENV_NAME);
+    listener.deploymentInProgress(FAKE_ENV_NAME, null);
 
     listener.deploymentSucceeded(FAKE_APP_VERSION);
 
@@ -78,7 +78,7 @@ public class LoggingDeploymentListenerTest extends LoggingTestCase {
 
   @Test
   public void deployment_progress() throws Exception {
-    create().deploymentInProgress(FAKE_ENV_NAME);
+    create().deploymentInProgress(FAKE_ENV_NAME, null);
     assertLog("PROGRESS Waiting for deployment on environment " + FAKE_ENV_NAME);
   }
 
@@ -91,6 +91,65 @@ public class LoggingDeploymentListenerTest extends LoggingTestCase {
       "CLOSE " + LoggingDeploymentListener.UPDATE_ENVIRONMENT);
   }
 
+  @Test
+  public void deployment_cancelled() throws Exception {
+    create().deploymentCancelled(FAKE_ENV_NAME, FAKE_APP_VERSION);
+    assertLog(
+      "LOG Waiting for deployment of version " + FAKE_APP_VERSION + " to environment " + FAKE_ENV_NAME + " was cancelled",
+      "CLOSE " + LoggingDeploymentListener.UPDATE_ENVIRONMENT);
+  }
+
+  @Test
+  public void deployment_updates_coalesced() throws Exception {
+    final LoggingDeploymentListener listener = create();
+    listener.deploymentUpdate("Event 1", "INFO");
+    listener.deploymentUpdate("Event 2", "INFO");
+    listener.deploymentUpdate("Event 3", "INFO");
+    listener.deploymentSucceeded(FAKE_APP_VERSION);
+    assertLog(
+      "PROGRESS Event 1",
+      "OPEN " + LoggingDeploymentListener.ENVIRONMENT_EVENTS,
+      "LOG Event 2\nEvent 3",
+      "CLOSE " + LoggingDeploymentListener.ENVIRONMENT_EVENTS,
+      "PROGRESS Event 3",
+      "LOG Version " + FAKE_APP_VERSION + " was deployed successfully",
+      "STATUS_TEXT Version " + FAKE_APP_VERSION + " was deployed successfully",
+      "CLOSE " + LoggingDeploymentListener.UPDATE_ENVIRONMENT);
+  }
+
+  @Test
+  public void deployment_updates_flushed_on_timer() throws Exception {
+    final LoggingDeploymentListener listener = create(600);
+    listener.deploymentUpdate("Event 1", "INFO");
+    listener.deploymentUpdate("Event 2", "INFO");
+    listener.deploymentUpdate("Event 3", "INFO");
+    Thread.sleep(1000);
+    listener.deploymentSucceeded(FAKE_APP_VERSION);
+    assertLog(
+      "PROGRESS Event 1",
+      "OPEN " + LoggingDeploymentListener.ENVIRONMENT_EVENTS,
+      "LOG Event 2\nEvent 3",
+      "CLOSE " + LoggingDeploymentListener.ENVIRONMENT_EVENTS,
+      "PROGRESS Event 3",
+      "LOG Version " + FAKE_APP_VERSION + " was deployed successfully",
+      "STATUS_TEXT Version " + FAKE_APP_VERSION + " was deployed successfully",
+      "CLOSE " + LoggingDeploymentListener.UPDATE_ENVIRONMENT);
+  }
+
+  @Test
+  public void deployment_update_error_flushed() throws Exception {
+    final LoggingDeploymentListener listener = create();
+    listener.deploymentUpdate("Event 1", "INFO");
+    listener.deploymentUpdate("Event 2", "INFO");
+    listener.deploymentUpdate("Failed event", "ERROR");
+    assertLog(
+      "PROGRESS Event 1",
+      "OPEN " + LoggingDeploymentListener.ENVIRONMENT_EVENTS,
+      "LOG Event 2\nFailed event",
+      "CLOSE " + LoggingDeploymentListener.ENVIRONMENT_EVENTS,
+      "PROGRESS Failed event");
+  }
+
   @Test
   public void deployment_failed_timeout() throws Exception {
     create().deploymentFailed(FAKE_APP_NAME, FAKE_ENV_NAME, FAKE_APP_VERSION, true, null);
@@ -143,9 +202,14 @@ public class LoggingDeploymentListenerTest extends LoggingTestCase {
 
   @NotNull
   private LoggingDeploymentListener create() {
+    return create(ElasticBeanstalkConstants.LOG_MAX_MESSAGES_PER_MIN_DEFAULT);
+  }
+
+  @NotNull
+  private LoggingDeploymentListener create(int maxEventMessagesPerMin) {
     return new LoggingDeploymentListener(Collections.<String, String>emptyMap(),
       new NullBuildProgressLogger(),
-      "fake_checkout_dir") {
+      "fake_checkout_dir", maxEventMessagesPerMin) {
       @Override
       protected void log(@NotNull String message) {
         logMessage("LOG " + message);
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.agent.BuildFinishedStatus;
+import jetbrains.buildServer.agent.NullBuildProgressLogger;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class RegionDeploymentsTest extends BaseTestCase {
+
+  @Test(timeOut = 30000)
+  public void failed_region_cancels_other_regions() throws Exception {
+    final CountDownLatch cancelled = new CountDownLatch(1);
+    final List<String> warnings = new CopyOnWriteArrayList<String>();
+
+    final Map<String, Callable<BuildFinishedStatus>> regions = new LinkedHashMap<String, Callable<BuildFinishedStatus>>();
+    regions.put("us-east-1", new Callable<BuildFinishedStatus>() {
+      @Override
+      public BuildFinishedStatus call() throws Exception {
+        // the wait for the deployment failed
+        return BuildFinishedStatus.FINISHED_WITH_PROBLEMS;
+      }
+    });
+    regions.put("eu-west-1", new Callable<BuildFinishedStatus>() {
+      @Override
+      public BuildFinishedStatus call() throws Exception {
+        // still waiting for the deployment until cancelled
+        return cancelled.await(20, TimeUnit.SECONDS) ? BuildFinishedStatus.FINISHED_WITH_PROBLEMS : BuildFinishedStatus.FINISHED_SUCCESS;
+      }
+    });
+
+    final BuildFinishedStatus status = new RegionDeployments(new NullBuildProgressLogger() {
+      @Override
+      public void warning(@NotNull String message) {
+        warnings.add(message);
+      }
+    }) {
+      @Override
+      boolean isCancelled() {
+        return cancelled.getCount() == 0;
+      }
+
+      @Override
+      void cancel() {
+        cancelled.countDown();
+      }
+    }.run(regions);
+
+    then(status).isEqualTo(BuildFinishedStatus.FINISHED_WITH_PROBLEMS);
+    then(cancelled.getCount()).isZero();
+    then(warnings).containsExactly("Deployment to region us-east-1 failed, cancelling deployments to the other regions");
+  }
+
+  @Test
+  public void succeeded_regions_arent_cancelled() throws Exception {
+    final CountDownLatch cancelled = new CountDownLatch(1);
+
+    final Map<String, Callable<BuildFinishedStatus>> regions = new LinkedHashMap<String, Callable<BuildFinishedStatus>>();
+    for (String regionName : new String[]{"us-east-1", "eu-west-1"}) {
+      regions.put(regionName, new Callable<BuildFinishedStatus>() {
+        @Override
+        public BuildFinishedStatus call() throws Exception {
+          return BuildFinishedStatus.FINISHED_SUCCESS;
+        }
+      });
+    }
+
+    final BuildFinishedStatus status = new RegionDeployments(new NullBuildProgressLogger()) {
+      @Override
+      boolean isCancelled() {
+        return cancelled.getCount() == 0;
+      }
+
+      @Override
+      void cancel() {
+        cancelled.countDown();
+      }
+    }.run(regions);
+
+    then(status).isEqualTo(BuildFinishedStatus.FINISHED_SUCCESS);
+    then(cancelled.getCount()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class TimelineWriterTest extends BaseTestCase {
+
+  @Test
+  public void strings_escaped() throws Exception {
+    then(writeRecord("message", "say \"hi\" to C:\\temp")).isEqualTo("\"message\":\"say \\\"hi\\\" to C:\\\\temp\"");
+  }
+
+  @Test
+  public void control_chars_escaped() throws Exception {
+    then(writeRecord("message", "a\nb\rc\td\u0001e\u001f")).isEqualTo("\"message\":\"a\\nb\\rc\\td\\u0001e\\u001f\"");
+  }
+
+  @Test
+  public void null_written_as_json_null() throws Exception {
+    then(writeRecord("version", null)).isEqualTo("\"version\":null");
+  }
+
+  @Test
+  public void numbers_and_booleans_not_quoted() throws Exception {
+    then(writeRecord("count", 42)).isEqualTo("\"count\":42");
+    then(writeRecord("success", true)).isEqualTo("\"success\":true");
+  }
+
+  @Test
+  public void field_name_escaped() throws Exception {
+    then(writeRecord("na\"me", "value")).isEqualTo("\"na\\\"me\":\"value\"");
+  }
+
+  @Test(timeOut = 5000)
+  public void failed_writer_closes_at_once() throws Exception {
+    final File notDirectory = new File(createTempDir(), "file");
+    then(notDirectory.createNewFile()).isTrue();
+    final TimelineWriter writer = new TimelineWriter(new File(notDirectory, "timeline.jsonl"));
+    for (int i = 0; i < 100; ++i) writer.write("test", "index", i);
+    writer.close();
+
+    then(writer.getFile()).doesNotExist();
+  }
+
+  /**
+   * @return the given field as written after the common record fields
+   */
+  @NotNull
+  private String writeRecord(@NotNull String name, Object value) throws Exception {
+    final File file = new File(createTempDir(), "timeline.jsonl");
+    final TimelineWriter writer = new TimelineWriter(file);
+    writer.write("test", name, value);
+    writer.close();
+
+    final List<String> lines = FileUtil.readFile(file);
+    then(lines).hasSize(1);
+    final String line = lines.get(0);
+    final String prefix = "\"type\":\"test\",";
+    then(line).startsWith("{\"elapsedMs\":").contains(prefix).endsWith("}");
+    return line.substring(line.indexOf(prefix) + prefix.length(), line.length() - 1);
+  }
+}
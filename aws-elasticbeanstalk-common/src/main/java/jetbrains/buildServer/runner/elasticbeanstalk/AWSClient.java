@@ -16,38 +16,435 @@
 
 package jetbrains.buildServer.runner.elasticbeanstalk;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalkClient;
 import com.amazonaws.services.elasticbeanstalk.model.*;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import jetbrains.buildServer.util.NamedDaemonThreadFactory;
 import jetbrains.buildServer.util.amazon.AWSClients;
 import jetbrains.buildServer.util.amazon.AWSException;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
 
 public class AWSClient {
+  // the environment is described at least every few poll intervals even if no notifications arrive
+  private static final int NOTIFICATION_FALLBACK_POLLS = 3;
+  // shorter than the SQS long polling limit to notice cancellation sooner
+  private static final int NOTIFICATION_WAIT_SEC = 10;
+  // instances publish the requested logs to S3 within a minute or so
+  private static final int INSTANCE_LOGS_TIMEOUT_SEC = 90;
+  private static final int INSTANCE_LOGS_POLL_INTERVAL_SEC = 5;
+  // processing usually takes seconds, it mostly waits for the bundle to be read from S3
+  private static final int VERSION_PROCESSING_TIMEOUT_SEC = 600;
+  private static final int VERSION_PROCESSING_POLL_INTERVAL_SEC = 3;
 
   @NotNull
-  private AWSElasticBeanstalkClient myElasticBeanstalkClient;
+  private final AWSElasticBeanstalkClient myElasticBeanstalkClient;
   @NotNull
-  private Listener myListener = new Listener();
+  private final AmazonS3 myS3Client;
+  @NotNull
+  private final CompositeListener myListener = new CompositeListener();
+  @NotNull
+  private final List<AsyncListener> myAsyncListeners = new ArrayList<>();
   @NotNull
   private HashMap<Integer, EventDescription> pastEvents = new HashMap<>();
+  @Nullable
+  private Integer myDegradedPercent;
+  private int myDegradedDurationSec;
+  private boolean myAbortOnFailure;
+  @Nullable
+  private String myRollbackVersionLabel;
+  @NotNull
+  private List<ConfigurationOptionSetting> myOptionSettings = Collections.emptyList();
+  @NotNull
+  private final Map<String, List<ConfigurationOptionSetting>> myConfigurationSettings = new HashMap<>();
+  @Nullable
+  private EnvironmentNotificationQueue myNotificationQueue;
+  @Nullable
+  private File myInstanceLogsDirectory;
+  private long myInstanceLogsMaxBytes;
+  private boolean myProcessVersion;
+  @Nullable
+  private String myProcessedVersionLabel;
+  @Nullable
+  private Future<TimedResult<String>> myVersionProcessing;
+  // API calls made on the background threads, reported by the main thread, the values are the operations
+  @NotNull
+  private final Queue<TimedResult<String>> myBackgroundCalls = new ConcurrentLinkedQueue<TimedResult<String>>();
+  @NotNull
+  private final CountDownLatch myCancelled = new CountDownLatch(1);
+  private long myCredentialsDeadline = Long.MAX_VALUE;
 
   AWSClient(@NotNull AWSClients clients) {
-    myElasticBeanstalkClient = clients.createElasticBeanstalkClient();
+    this(clients.createElasticBeanstalkClient(), clients.createS3Client());
   }
 
+  AWSClient(@NotNull AWSElasticBeanstalkClient elasticBeanstalkClient, @NotNull AmazonS3 s3Client) {
+    myElasticBeanstalkClient = elasticBeanstalkClient;
+    myS3Client = s3Client;
+  }
+
+  /**
+   * Adds listener to be notified about the deployment progress. Each listener is notified on its own thread
+   * in the order of the events, so a slow listener doesn't delay the deployment or the other listeners.
+   *
+   * @see #closeListeners
+   */
   @NotNull
   AWSClient withListener(@NotNull Listener listener) {
-    myListener = listener;
+    final AsyncListener asyncListener = new AsyncListener(listener, AsyncListener.QUEUE_CAPACITY);
+    myAsyncListeners.add(asyncListener);
+    myListener.add(asyncListener);
+    return this;
+  }
+
+  /**
+   * Adds listener to be notified directly on the notifying thread, so it never misses an event and sees it when it happens.
+   * The listener must neither block nor do I/O.
+   *
+   * @see #withListener
+   */
+  @NotNull
+  AWSClient withSyncListener(@NotNull Listener listener) {
+    myListener.add(listener);
+    return this;
+  }
+
+  /**
+   * Stops the background waits and waits for the listeners to process all notifications,
+   * must be called when the client is no longer used
+   */
+  void closeListeners(long timeoutMillis) {
+    final Future<TimedResult<String>> processing = myVersionProcessing;
+    if (processing != null) processing.cancel(true);
+    reportBackgroundCalls();
+
+    final long deadline = System.currentTimeMillis() + timeoutMillis;
+    for (AsyncListener l : myAsyncListeners) l.close(Math.max(1, deadline - System.currentTimeMillis()));
+  }
+
+  /**
+   * Enables failing the deployment when more than degradedPercent of the environment instances
+   * are Degraded or Severe for degradedDurationSec seconds. Requires enhanced health reporting.
+   *
+   * @param degradedPercent     null disables the check
+   * @param degradedDurationSec seconds the degraded instances share must stay over the threshold
+   */
+  @NotNull
+  AWSClient withHealthThresholds(@Nullable Integer degradedPercent, int degradedDurationSec) {
+    myDegradedPercent = degradedPercent;
+    myDegradedDurationSec = degradedDurationSec;
+    return this;
+  }
+
+  /**
+   * Enables aborting the environment update when waiting for it times out, an error is detected or the wait is cancelled.
+   * After the abort the environment is awaited to roll back to Ready, so that the next deployment can start.
+   */
+  @NotNull
+  AWSClient withAbortOnFailure(boolean abortOnFailure) {
+    myAbortOnFailure = abortOnFailure;
+    return this;
+  }
+
+  /**
+   * Enables updating the environment back to the given version when waiting for the deployment detects a failure or times out.
+   * The failed update is aborted first, the rollback is awaited like the deployment and isn't rolled back itself.
+   *
+   * @param versionLabel the last successfully deployed version, null to disable
+   */
+  @NotNull
+  AWSClient withRollback(@Nullable String versionLabel) {
+    myRollbackVersionLabel = versionLabel;
+    return this;
+  }
+
+  /**
+   * Sets option settings, e.g. the deployment policy, to apply together with the version on environment update or creation.
+   * Only the settings which differ from the current environment configuration are sent.
+   */
+  @NotNull
+  AWSClient withOptionSettings(@NotNull List<ConfigurationOptionSetting> optionSettings) {
+    myOptionSettings = optionSettings;
+    return this;
+  }
+
+  /**
+   * Makes waiting for the deployment follow the environment notifications from the queue instead of polling the environment events.
+   * The environment is described when a notification arrives and, as a fallback, every few poll intervals.
+   *
+   * @param notificationQueue null to poll
+   */
+  @NotNull
+  AWSClient withNotificationQueue(@Nullable EnvironmentNotificationQueue notificationQueue) {
+    myNotificationQueue = notificationQueue;
+    return this;
+  }
+
+  /**
+   * Enables retrieving the tail of the environment instances logs when the deployment fails.
+   * Logs are saved to a file per instance, see {@link Listener#instanceLogsRetrieved}.
+   *
+   * @param directory null to disable
+   * @param maxBytes  maximum size of a single instance log
+   */
+  @NotNull
+  AWSClient withInstanceLogs(@Nullable File directory, long maxBytes) {
+    myInstanceLogsDirectory = directory;
+    myInstanceLogsMaxBytes = maxBytes;
+    return this;
+  }
+
+  /**
+   * Makes the created application versions processed, i.e. the bundle and its configuration files validated, before deploying them.
+   * The version status is awaited in the background while the environment is prepared, a version which fails processing isn't deployed.
+   */
+  @NotNull
+  AWSClient withVersionProcessing(boolean processVersion) {
+    myProcessVersion = processVersion;
+    return this;
+  }
+
+  /**
+   * Limits the waits which follow a failed or cancelled deployment, e.g. for the aborted update, to the lifetime of the temporary credentials
+   * the clients use, so that the wait doesn't fail with expired credentials
+   *
+   * @param lifetimeSec credentials lifetime counted from now
+   */
+  @NotNull
+  AWSClient withCredentialsLifetime(int lifetimeSec) {
+    myCredentialsDeadline = System.currentTimeMillis() + lifetimeSec * 1000L;
     return this;
   }
 
+  /**
+   * Stops waiting for the deployment, may be called from any thread
+   */
+  void cancel() {
+    myCancelled.countDown();
+  }
+
+  boolean isCancelled() {
+    return myCancelled.getCount() == 0;
+  }
+
+  /**
+   * Copies the application version bundle from the bucket in another region to the bucket in this client region,
+   * unless the target bucket already holds an up-to-date copy
+   *
+   * @param sourceS3 client of the source bucket region
+   * @return false if the copy failed
+   */
+  boolean copyBundle(@NotNull AmazonS3 sourceS3, @NotNull String sourceBucketName, @NotNull String targetBucketName, @NotNull String key) {
+    try {
+      final S3BundleCopier copier = new S3BundleCopier(sourceS3, myS3Client);
+
+      long callStart = System.nanoTime();
+      final ObjectMetadata source = copier.getSourceMetadata(sourceBucketName, key);
+      apiCallFinished("HeadObject", callStart);
+
+      callStart = System.nanoTime();
+      final boolean upToDate = copier.isUpToDate(source.getETag(), targetBucketName, key);
+      apiCallFinished("HeadObject", callStart);
+
+      if (upToDate) {
+        myListener.bundleCopySkipped(targetBucketName, key);
+        return true;
+      }
+
+      myListener.bundleCopyStarted(sourceBucketName, targetBucketName, key, source.getContentLength());
+      callStart = System.nanoTime();
+      final int parts = copier.copy(sourceBucketName, key, source, targetBucketName, key);
+      apiCallFinished(parts > 1 ? "UploadPartCopy" : "CopyObject", callStart);
+      myListener.bundleCopyFinished(targetBucketName, key, parts);
+      return true;
+    } catch (Throwable t) {
+      processFailure(t);
+      return false;
+    }
+  }
+
+  /**
+   * Checks concurrently that the version bundle, the application and the environment exist and are accessible,
+   * so that a misconfigured build fails before anything is changed. Checks not finished in time are skipped.
+   * Only read permissions are checked, CreateApplicationVersion and UpdateEnvironment have no dry run.
+   *
+   * @param s3ObjectKey  null to skip the bundle check, e.g. when the bundle is yet to be copied to the bucket
+   * @param versionLabel the version reused if it exists, so that its bundle is checked only if it doesn't,
+   *                     null if the version is created anyway
+   * @return false if a check failed, the failures are reported as an exception
+   */
+  boolean preflight(@NotNull final String applicationName, @NotNull final String environmentName,
+                    @NotNull final String s3BucketName, @Nullable final String s3ObjectKey, @Nullable final String versionLabel,
+                    int timeoutSec) {
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    final Future<TimedResult<Boolean>> versionExists = s3ObjectKey == null || versionLabel == null ? null :
+      executor.submit(new Callable<TimedResult<Boolean>>() {
+        @Override
+        public TimedResult<Boolean> call() {
+          return versionExists(applicationName, versionLabel);
+        }
+      });
+
+    final List<String> operations = new ArrayList<>();
+    final List<Callable<TimedResult<String>>> checks = new ArrayList<>();
+    if (s3ObjectKey != null) {
+      operations.add("HeadObject");
+      checks.add(new Callable<TimedResult<String>>() {
+        @Override
+        public TimedResult<String> call() throws InterruptedException {
+          // the bundle of an existing version isn't read again
+          if (versionExists != null && isExisting(versionExists)) return null;
+          final long callStart = System.nanoTime();
+          return new TimedResult<String>(checkBundle(s3BucketName, s3ObjectKey), callStart);
+        }
+      });
+    }
+    operations.add("DescribeApplications");
+    checks.add(new Callable<TimedResult<String>>() {
+      @Override
+      public TimedResult<String> call() {
+        final long callStart = System.nanoTime();
+        return new TimedResult<String>(checkApplication(applicationName), callStart);
+      }
+    });
+    operations.add("DescribeEnvironments");
+    checks.add(new Callable<TimedResult<String>>() {
+      @Override
+      public TimedResult<String> call() {
+        final long callStart = System.nanoTime();
+        return new TimedResult<String>(checkEnvironment(applicationName, environmentName), callStart);
+      }
+    });
+
+    try {
+      final List<Future<TimedResult<String>>> results = executor.invokeAll(checks, timeoutSec, TimeUnit.SECONDS);
+      if (versionExists != null && versionExists.isDone() && !versionExists.isCancelled()) {
+        try {
+          myListener.apiCallFinished("DescribeApplicationVersions", versionExists.get().durationMillis);
+        } catch (ExecutionException ignored) {
+          // the bundle is checked then
+        }
+      }
+
+      final List<String> problems = new ArrayList<>();
+      for (int i = 0; i < results.size(); ++i) {
+        final Future<TimedResult<String>> result = results.get(i);
+        if (result.isCancelled()) {
+          myListener.deploymentUpdate("Pre-flight " + operations.get(i) + " check didn't finish in " + timeoutSec + " seconds and was skipped",
+            EventSeverity.WARN.toString());
+          continue;
+        }
+        try {
+          final TimedResult<String> r = result.get();
+          if (r == null) continue;
+          myListener.apiCallFinished(operations.get(i), r.durationMillis);
+          if (r.value != null) problems.add(r.value);
+        } catch (ExecutionException e) {
+          problems.add(AWSException.getMessage(e.getCause()));
+        }
+      }
+
+      if (problems.isEmpty()) return true;
+      myListener.exception(new AWSException("Pre-flight checks failed, nothing was changed", null, AWSException.CLIENT_PROBLEM_TYPE,
+        ElasticBeanstalkUtil.printStrings(problems)));
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Decides whether the version must be created and deployed, describing the version, the environment and,
+   * if option settings are configured, the environment configuration concurrently.
+   * Falls back to the full plan if the state can't be described.
+   *
+   * @param checkOptionSettings whether the option settings are applied to this environment
+   */
+  @NotNull
+  DeploymentPlan planDeployment(@NotNull final String applicationName, @NotNull final String environmentName, @NotNull final String versionLabel,
+                                boolean skipDuplicateVersions, boolean checkOptionSettings) {
+    final boolean describeSettings = checkOptionSettings && !myOptionSettings.isEmpty();
+    final ExecutorService executor = Executors.newFixedThreadPool(describeSettings ? 3 : 2);
+    try {
+      final Future<TimedResult<Boolean>> versionExists = executor.submit(new Callable<TimedResult<Boolean>>() {
+        @Override
+        public TimedResult<Boolean> call() {
+          return versionExists(applicationName, versionLabel);
+        }
+      });
+      final Future<TimedResult<EnvironmentDescription>> environment = executor.submit(new Callable<TimedResult<EnvironmentDescription>>() {
+        @Override
+        public TimedResult<EnvironmentDescription> call() {
+          final long callStart = System.nanoTime();
+          final List<EnvironmentDescription> environments = myElasticBeanstalkClient.describeEnvironments(new DescribeEnvironmentsRequest()
+            .withApplicationName(applicationName)
+            .withEnvironmentNames(environmentName)
+            .withIncludeDeleted(false))
+            .getEnvironments();
+          return new TimedResult<EnvironmentDescription>(environments.isEmpty() ? null : environments.get(0), callStart);
+        }
+      });
+      final Future<TimedResult<List<ConfigurationOptionSetting>>> settings = describeSettings ?
+        executor.submit(new Callable<TimedResult<List<ConfigurationOptionSetting>>>() {
+          @Override
+          public TimedResult<List<ConfigurationOptionSetting>> call() {
+            final long callStart = System.nanoTime();
+            return new TimedResult<List<ConfigurationOptionSetting>>(getDeployedSettings(myElasticBeanstalkClient.describeConfigurationSettings(
+              new DescribeConfigurationSettingsRequest()
+                .withApplicationName(applicationName)
+                .withEnvironmentName(environmentName))
+              .getConfigurationSettings()), callStart);
+          }
+        }) : null;
+
+      // listeners are notified from this thread only
+      final TimedResult<Boolean> versionResult = versionExists.get();
+      myListener.apiCallFinished("DescribeApplicationVersions", versionResult.durationMillis);
+      final TimedResult<EnvironmentDescription> environmentResult = environment.get();
+      myListener.apiCallFinished("DescribeEnvironments", environmentResult.durationMillis);
+
+      boolean optionSettingsChanged = false;
+      if (settings != null) {
+        final TimedResult<List<ConfigurationOptionSetting>> settingsResult = settings.get();
+        myListener.apiCallFinished("DescribeConfigurationSettings", settingsResult.durationMillis);
+        final List<ConfigurationOptionSetting> current = settingsResult.value;
+        if (current != null) myConfigurationSettings.put(environmentName, current);
+        optionSettingsChanged = current == null || !ElasticBeanstalkUtil.getChangedOptionSettings(myOptionSettings, current).isEmpty();
+      }
+
+      final DeploymentPlan plan = DeploymentPlan.create(versionLabel, versionResult.value, skipDuplicateVersions, environmentResult.value, optionSettingsChanged);
+      myListener.deploymentPlanned(environmentName, versionLabel, plan);
+      return plan;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return DeploymentPlan.full("planning interrupted");
+    } catch (ExecutionException e) {
+      myListener.deploymentUpdate("Failed to describe the current state of environment " + environmentName + ", deploying unconditionally: " +
+        AWSException.getMessage(e.getCause()), EventSeverity.WARN.toString());
+      return DeploymentPlan.full("current state unknown");
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   /**
    * Uploads application revision archive to S3 bucket named s3BucketName with the provided key and bundle type.
    * <p>
@@ -56,24 +453,30 @@ public class AWSClient {
    * @param skipDuplicateVersions if the application version already exists, do we error out?
    * @param s3BucketName          valid S3 bucket name
    * @param s3ObjectKey           valid S3 object key
+   * @return false if the version wasn't created, the failure is already reported to the listener
    */
-  void createApplicationVersion(@NotNull String applicationName, @NotNull String versionLabel, @NotNull Boolean skipDuplicateVersions,
+  boolean createApplicationVersion(@NotNull String applicationName, @NotNull String versionLabel, @NotNull Boolean skipDuplicateVersions,
                                 @NotNull String s3BucketName, @NotNull String s3ObjectKey) {
     try {
       myListener.createVersionStarted(applicationName, versionLabel, s3BucketName, s3ObjectKey);
       S3Location location = new S3Location().withS3Bucket(s3BucketName).withS3Key(s3ObjectKey);
       CreateApplicationVersionRequest request = new CreateApplicationVersionRequest(applicationName, versionLabel)
         .withSourceBundle(location);
+      if (myProcessVersion) request.setProcess(true);
 
       if (skipDuplicateVersions && doesApplicationVersionExist(applicationName, versionLabel)) {
         myListener.createVersionSkipped(applicationName, versionLabel);
       } else {
+        final long callStart = System.nanoTime();
         myElasticBeanstalkClient.createApplicationVersion(request);
+        apiCallFinished("CreateApplicationVersion", callStart);
         myListener.createVersionFinished(applicationName, versionLabel, s3BucketName, s3ObjectKey);
+        if (myProcessVersion) startVersionProcessingWait(applicationName, versionLabel);
       }
-
+      return true;
     } catch (Throwable t) {
       processFailure(t);
+      return false;
     }
   }
 
@@ -86,114 +489,848 @@ public class AWSClient {
    *
    * @param environmentName ElasticBeanstalk environment name
    * @param versionLabel    ElasticBeanstalk version label
-   * @param waitTimeoutSec  seconds to wait for the created deployment finish or fail
-   * @param waitIntervalSec seconds between polling ElasticBeanstalk for the created deployment status
+   * @param schedule        timeout and intervals for polling ElasticBeanstalk for the created deployment status
+   * @return false if the deployment didn't succeed, the failure is already reported to the listener
    */
-  void updateEnvironmentAndWait(@NotNull String environmentName, @NotNull String versionLabel,
-                                int waitTimeoutSec, int waitIntervalSec) {
-    doUpdateAndWait(environmentName, versionLabel, true, waitTimeoutSec, waitIntervalSec);
+  boolean updateEnvironmentAndWait(@NotNull String environmentName, @NotNull String versionLabel,
+                                   @NotNull DeploymentSchedule schedule) {
+    return doUpdateAndWait(environmentName, versionLabel, true, schedule);
   }
 
   /**
    * The same as {@link #updateEnvironmentAndWait} but without waiting
+   *
+   * @return false if the update wasn't started
    */
-  void updateEnvironment(@NotNull String environmentName, @NotNull String versionLabel) {
-    doUpdateAndWait(environmentName, versionLabel, false, null, null);
+  boolean updateEnvironment(@NotNull String environmentName, @NotNull String versionLabel) {
+    return doUpdateAndWait(environmentName, versionLabel, false, null);
   }
 
   @SuppressWarnings("ConstantConditions")
-  private void doUpdateAndWait(@NotNull String environmentName, @NotNull String versionLabel,
-                               boolean wait, @Nullable Integer waitTimeoutSec, @Nullable Integer waitIntervalSec) {
+  private boolean doUpdateAndWait(@NotNull String environmentName, @NotNull String versionLabel,
+                                  boolean wait, @Nullable DeploymentSchedule schedule) {
     try {
+      final EnvironmentDescription current = findEnvironment(environmentName);
+      if (current != null && !waitForUpdatable(current, versionLabel, schedule)) return false;
+      if (current != null && !awaitVersionProcessing(current.getApplicationName(), environmentName, versionLabel)) return false;
+
       UpdateEnvironmentRequest request = new UpdateEnvironmentRequest()
         .withEnvironmentName(environmentName)
-        .withVersionLabel(versionLabel);
+        .withVersionLabel(versionLabel)
+        .withOptionSettings(getOptionSettings(current == null ? null : current.getApplicationName(), environmentName, environmentName));
 
       long startTime = System.currentTimeMillis();
 
+      final long callStart = System.nanoTime();
       UpdateEnvironmentResult result = myElasticBeanstalkClient.updateEnvironment(request);
+      apiCallFinished("UpdateEnvironment", callStart);
 
       String environmentId = result.getEnvironmentId();
 
       myListener.deploymentStarted(environmentId, environmentName, versionLabel);
 
-      if (wait) {
-        waitForDeployment(environmentId, versionLabel, startTime, waitTimeoutSec, waitIntervalSec);
+      if (!wait) return true;
+      if (!waitForDeployment(environmentId, versionLabel, startTime, schedule, false)) return false;
+      myListener.deploymentSucceeded(versionLabel);
+      return true;
+    } catch (Throwable t) {
+      processFailure(t);
+      return false;
+    }
+  }
+
+  /**
+   * Deploys the version to the one of the two environments which doesn't serve the live CNAME, cloning the live environment
+   * if the other one doesn't exist, waits for it to become healthy and swaps the environments CNAMEs, so that it becomes live.
+   * <p>
+   * The previous version stays on the former live environment, which becomes the idle one,
+   * so a rollback is just another CNAME swap.
+   *
+   * @param environmentName     one of the environments
+   * @param twinEnvironmentName the other one
+   * @param liveCnamePrefix     prefix of the CNAME serving the traffic, the environment having it is live
+   * @return false if the version doesn't serve the live CNAME, the failure is already reported to the listener
+   */
+  boolean deployBlueGreen(@NotNull String applicationName, @NotNull String environmentName, @NotNull String twinEnvironmentName,
+                          @NotNull String liveCnamePrefix, @NotNull String versionLabel, @NotNull DeploymentSchedule schedule) {
+    try {
+      EnvironmentDescription live = null;
+      EnvironmentDescription idle = null;
+
+      for (EnvironmentDescription e : describeEnvironments(applicationName, environmentName, twinEnvironmentName)) {
+        if (ElasticBeanstalkUtil.hasCnamePrefix(e.getCNAME(), liveCnamePrefix)) {
+          live = e;
+        } else {
+          idle = e;
+        }
       }
+      if (live == null) {
+        throw new AWSException("Neither environment " + environmentName + " nor " + twinEnvironmentName + " of application " + applicationName +
+          " has CNAME prefix " + liveCnamePrefix, null, AWSException.CLIENT_PROBLEM_TYPE, null);
+      }
+      final String liveEnvironmentName = live.getEnvironmentName();
+      final String idleEnvironmentName = liveEnvironmentName.equals(environmentName) ? twinEnvironmentName : environmentName;
+
+      final long startTime = System.currentTimeMillis();
+      final String idleEnvironmentId;
+      if (idle == null) {
+        if (!awaitVersionProcessing(applicationName, idleEnvironmentName, versionLabel)) return false;
+        idleEnvironmentId = cloneEnvironment(applicationName, live, idleEnvironmentName, versionLabel);
+      } else {
+        if (!waitForUpdatable(idle, versionLabel, schedule) || !awaitVersionProcessing(applicationName, idleEnvironmentName, versionLabel)) return false;
+
+        final long callStart = System.nanoTime();
+        idleEnvironmentId = myElasticBeanstalkClient.updateEnvironment(new UpdateEnvironmentRequest()
+          .withEnvironmentId(idle.getEnvironmentId())
+          .withVersionLabel(versionLabel)
+          .withOptionSettings(getOptionSettings(applicationName, idleEnvironmentName, idleEnvironmentName)))
+          .getEnvironmentId();
+        apiCallFinished("UpdateEnvironment", callStart);
+      }
+
+      myListener.deploymentStarted(idleEnvironmentId, idleEnvironmentName, versionLabel);
+
+      if (!waitForDeployment(idleEnvironmentId, versionLabel, startTime, schedule, false)) return false;
+
+      myListener.cnameSwapStarted(idleEnvironmentName, liveEnvironmentName);
+
+      final long swapStart = System.nanoTime();
+      myElasticBeanstalkClient.swapEnvironmentCNAMEs(new SwapEnvironmentCNAMEsRequest()
+        .withSourceEnvironmentName(idleEnvironmentName)
+        .withDestinationEnvironmentName(liveEnvironmentName));
+      apiCallFinished("SwapEnvironmentCNAMEs", swapStart);
+
+      final int swapTimeoutSec = schedule.getTimeoutSec();
+      final int swapIntervalSec = schedule.getPollIntervalSec(0);
+      final boolean swapped = waitForReady(idleEnvironmentId, swapTimeoutSec, swapIntervalSec, false) &&
+        waitForReady(live.getEnvironmentId(), swapTimeoutSec, swapIntervalSec, false);
+
+      myListener.cnameSwapFinished(idleEnvironmentName, liveEnvironmentName, swapped);
+      if (swapped) {
+        myListener.deploymentSucceeded(versionLabel);
+      } else {
+        myListener.deploymentFailed(applicationName, liveEnvironmentName, versionLabel, true, null);
+      }
+      return swapped;
     } catch (Throwable t) {
       processFailure(t);
+      return false;
     }
   }
 
-  private void waitForDeployment(@NotNull String environmentId, String versionLabel, long startTime,
-                                 int waitTimeoutSec, int waitIntervalSec) {
+  /**
+   * @return name of the one of the two environments which has the live CNAME prefix, null if none has it or they can't be described
+   * @see #deployBlueGreen
+   */
+  @Nullable
+  String findLiveEnvironmentName(@NotNull String applicationName, @NotNull String environmentName, @NotNull String twinEnvironmentName,
+                                 @NotNull String liveCnamePrefix) {
+    try {
+      for (EnvironmentDescription e : describeEnvironments(applicationName, environmentName, twinEnvironmentName)) {
+        if (ElasticBeanstalkUtil.hasCnamePrefix(e.getCNAME(), liveCnamePrefix)) return e.getEnvironmentName();
+      }
+    } catch (Exception e) {
+      myListener.deploymentUpdate("Failed to describe environments " + environmentName + " and " + twinEnvironmentName + ": " +
+        AWSException.getMessage(e), EventSeverity.WARN.toString());
+    }
+    return null;
+  }
+
+  @NotNull
+  private List<EnvironmentDescription> describeEnvironments(@NotNull String applicationName, @NotNull String... environmentNames) {
+    final long callStart = System.nanoTime();
+    final List<EnvironmentDescription> environments = myElasticBeanstalkClient.describeEnvironments(new DescribeEnvironmentsRequest()
+      .withApplicationName(applicationName)
+      .withEnvironmentNames(environmentNames)
+      .withIncludeDeleted(false))
+      .getEnvironments();
+    apiCallFinished("DescribeEnvironments", callStart);
+    return environments;
+  }
+
+  /**
+   * Creates a new environment with the live environment configuration and the given version
+   *
+   * @return the new environment id
+   */
+  @NotNull
+  private String cloneEnvironment(@NotNull String applicationName, @NotNull EnvironmentDescription live,
+                                  @NotNull String environmentName, @NotNull String versionLabel) {
+    myListener.environmentCloneStarted(live.getEnvironmentName(), environmentName);
+
+    final String templateName = "teamcity-clone-" + environmentName + "-" + System.currentTimeMillis();
+
+    long callStart = System.nanoTime();
+    myElasticBeanstalkClient.createConfigurationTemplate(new CreateConfigurationTemplateRequest()
+      .withApplicationName(applicationName)
+      .withTemplateName(templateName)
+      .withEnvironmentId(live.getEnvironmentId()));
+    apiCallFinished("CreateConfigurationTemplate", callStart);
+
+    try {
+      callStart = System.nanoTime();
+      final String environmentId = myElasticBeanstalkClient.createEnvironment(new CreateEnvironmentRequest()
+        .withApplicationName(applicationName)
+        .withEnvironmentName(environmentName)
+        .withTemplateName(templateName)
+        .withVersionLabel(versionLabel)
+        .withOptionSettings(getOptionSettings(applicationName, live.getEnvironmentName(), environmentName)))
+        .getEnvironmentId();
+      apiCallFinished("CreateEnvironment", callStart);
+      return environmentId;
+    } finally {
+      // the created environment keeps its own copy of the configuration
+      try {
+        myElasticBeanstalkClient.deleteConfigurationTemplate(new DeleteConfigurationTemplateRequest()
+          .withApplicationName(applicationName)
+          .withTemplateName(templateName));
+      } catch (Exception e) {
+        myListener.deploymentUpdate("Failed to delete temporary configuration template " + templateName + ": " +
+          AWSException.getMessage(e), EventSeverity.WARN.toString());
+      }
+    }
+  }
+
+  /**
+   * Waits for the environment update or launch to finish, reports the failure if any
+   *
+   * @param rollback whether the rollback is awaited, its outcome is reported by the caller only
+   * @return true if the environment runs the version
+   */
+  private boolean waitForDeployment(@NotNull String environmentId, String versionLabel, long startTime,
+                                    @NotNull DeploymentSchedule schedule, boolean rollback) {
     myListener.deploymentWaitStarted(getEnvironment(environmentId).getEnvironmentName());
 
     EnvironmentDescription environment;
     String status;
     List<EventDescription> newEvents;
     List<EventDescription> errorEvents;
+    List<EventDescription> notifiedErrors = Collections.emptyList();
     boolean hasError;
 
     Date startDate = new Date(startTime);
+    DegradedHealthTracker healthTracker = myDegradedPercent == null ? null : new DegradedHealthTracker(myDegradedPercent, myDegradedDurationSec);
+    RolloutTracker rollout = new RolloutTracker(startTime);
 
     while (true) {
       environment = getEnvironment(environmentId);
+      myListener.environmentPolled(environment.getEnvironmentName(), environment.getStatus(),
+        environment.getHealth(), environment.getVersionLabel());
 
       status = getHumanReadableStatus(environment.getStatus());
-      newEvents = getNewEvents(environmentId, startDate);
+      if (myNotificationQueue == null) {
+        newEvents = getNewEvents(environmentId, startDate);
 
-      for (EventDescription event : newEvents) {
-        myListener.deploymentUpdate(event.getMessage());
+        for (EventDescription event : newEvents) {
+          myListener.deploymentUpdate(event.getMessage(), event.getSeverity());
+        }
       }
 
-      if (System.currentTimeMillis() - startTime > waitTimeoutSec * 1000) {
-        myListener.deploymentFailed(environment.getApplicationName(), environment.getEnvironmentName(), versionLabel, true, null);
-        return;
+      final long elapsedSec = (System.currentTimeMillis() - startTime) / 1000;
+      if (elapsedSec > schedule.getTimeoutSec()) {
+        if (!rollback) failDeployment(environment, versionLabel, true, null, schedule);
+        return false;
       }
 
-      errorEvents = getErrorEvents(environmentId, versionLabel);
+      errorEvents = myNotificationQueue == null ? getErrorEvents(environmentId, versionLabel) : notifiedErrors;
       hasError = errorEvents.size() > 0;
-      if (!status.equals("updating") || hasError) {
+      if (!(status.equals("updating") || status.equals("launching")) || hasError) {
         break;
       }
 
-      try {
-        Thread.sleep(waitIntervalSec * 1000);
-      } catch (InterruptedException e) {
-        processFailure(e);
-        return;
+      if (healthTracker != null) {
+        final EnvironmentHealthSample health = getEnvironmentHealth(environmentId);
+        if (health == null) {
+          myListener.deploymentUpdate("Enhanced health is not available for environment " + environment.getEnvironmentName()
+            + ", degraded instances check is disabled", EventSeverity.WARN.toString());
+          healthTracker = null;
+        } else {
+          myListener.healthPolled(environment.getEnvironmentName(), health.status, health.degraded, health.total);
+          if (healthTracker.update(health.degraded, health.total, System.currentTimeMillis())) {
+            final Listener.ErrorInfo errorInfo = new Listener.ErrorInfo();
+            errorInfo.severity = EventSeverity.ERROR.toString();
+            errorInfo.message = String.format("%d of %d instances were Degraded or Severe (over %d%%) for %d seconds",
+              health.degraded, health.total, healthTracker.getDegradedPercent(), healthTracker.getDegradedDurationSec());
+            if (!rollback) failDeployment(environment, versionLabel, false, errorInfo, schedule);
+            return false;
+          }
+        }
+      }
+
+      if (rollout != null && !updateRollout(rollout, environmentId, versionLabel)) rollout = null;
+      if (rollout != null && rollout.getTotal() > 0) {
+        final Long etaSec = rollout.getEtaSec();
+        myListener.rolloutProgress(environment.getEnvironmentName(), versionLabel, rollout.getDeployed(), rollout.getTotal(),
+          etaSec == null ? schedule.getEtaSec(elapsedSec) : etaSec);
+      } else {
+        myListener.deploymentInProgress(environment.getEnvironmentName(), schedule.getEtaSec(elapsedSec));
+      }
+
+      final boolean waited;
+      if (myNotificationQueue == null) {
+        waited = sleep(schedule.getPollIntervalSec(elapsedSec));
+      } else {
+        notifiedErrors = awaitNotification(myNotificationQueue, environment, versionLabel, startTime,
+          NOTIFICATION_FALLBACK_POLLS * schedule.getPollIntervalSec(elapsedSec));
+        waited = notifiedErrors != null;
+      }
+      if (!waited) {
+        if (myAbortOnFailure) abortUpdate(environmentId, schedule);
+        if (!rollback) myListener.deploymentCancelled(environment.getEnvironmentName(), versionLabel);
+        return false;
       }
     }
 
     if (isSuccess(environment, versionLabel)) {
-      myListener.deploymentSucceeded(versionLabel);
+      return true;
+    }
+
+    if (myNotificationQueue != null) {
+      errorEvents = getErrorEvents(environmentId, versionLabel);
+      hasError = errorEvents.size() > 0;
+    }
+
+    if (rollback) return false;
+
+    Listener.ErrorInfo errorEvent = hasError ? getErrorInfo(errorEvents.get(0)) : null;
+    failDeployment(environment, versionLabel, false, errorEvent, schedule);
+    return false;
+  }
+
+  private void failDeployment(@NotNull EnvironmentDescription environment, @NotNull String versionLabel,
+                              boolean hasTimeout, @Nullable Listener.ErrorInfo errorInfo, @NotNull DeploymentSchedule schedule) {
+    // before the abort replaces the failed instances
+    if (myInstanceLogsDirectory != null) retrieveInstanceLogs(environment, myInstanceLogsDirectory);
+    // the environment can't be updated back while the failed update is in progress
+    if (myAbortOnFailure || myRollbackVersionLabel != null) abortUpdate(environment.getEnvironmentId(), schedule);
+    myListener.deploymentFailed(environment.getApplicationName(), environment.getEnvironmentName(), versionLabel, hasTimeout, errorInfo);
+    rollBack(environment, versionLabel, schedule);
+  }
+
+  /**
+   * Updates the environment back to the rollback version, if any, and waits for it like for the deployment,
+   * but not longer than the credentials last. The outcome is reported by {@link Listener#rollbackFinished} only.
+   */
+  private void rollBack(@NotNull EnvironmentDescription environment, @NotNull String failedVersionLabel, @NotNull DeploymentSchedule schedule) {
+    final String versionLabel = myRollbackVersionLabel;
+    if (versionLabel == null || versionLabel.equals(failedVersionLabel) || isCancelled()) return;
+    // a failed rollback isn't rolled back
+    myRollbackVersionLabel = null;
+
+    final String environmentName = environment.getEnvironmentName();
+    myListener.rollbackStarted(environmentName, failedVersionLabel, versionLabel);
+    try {
+      final EnvironmentDescription current = getEnvironment(environment.getEnvironmentId());
+      // the aborted update usually leaves the environment on the version it ran before
+      if (EnvironmentStatus.Ready.toString().equals(current.getStatus()) && versionLabel.equals(current.getVersionLabel())) {
+        myListener.rollbackFinished(environmentName, versionLabel, true);
+        return;
+      }
+
+      // unlike waitForUpdatable, reports nothing but the rollback outcome
+      final String status = current.getStatus();
+      if ((EnvironmentStatus.Updating.toString().equals(status) || EnvironmentStatus.Launching.toString().equals(status)) &&
+          !waitForReady(current.getEnvironmentId(), getRemainingTimeoutSec(schedule.getTimeoutSec()), schedule.getPollIntervalSec(0), false)) {
+        myListener.rollbackFinished(environmentName, versionLabel, false);
+        return;
+      }
+
+      final long startTime = System.currentTimeMillis();
+      final long callStart = System.nanoTime();
+      myElasticBeanstalkClient.updateEnvironment(new UpdateEnvironmentRequest()
+        .withEnvironmentId(environment.getEnvironmentId())
+        .withVersionLabel(versionLabel));
+      apiCallFinished("UpdateEnvironment", callStart);
+
+      final DeploymentSchedule rollbackSchedule = schedule.withTimeoutSec(getRemainingTimeoutSec(schedule.getTimeoutSec()));
+      myListener.rollbackFinished(environmentName, versionLabel,
+        waitForDeployment(environment.getEnvironmentId(), versionLabel, startTime, rollbackSchedule, true));
+    } catch (Throwable t) {
+      processFailure(t);
+      myListener.rollbackFinished(environmentName, versionLabel, false);
+    }
+  }
+
+  /**
+   * Requests the tail of the instances logs and downloads them once every instance has published its logs
+   * or {@link #INSTANCE_LOGS_TIMEOUT_SEC} pass, failures are reported as warnings only
+   */
+  private void retrieveInstanceLogs(@NotNull EnvironmentDescription environment, @NotNull File directory) {
+    final String environmentId = environment.getEnvironmentId();
+    try {
+      long callStart = System.nanoTime();
+      final int instances = myElasticBeanstalkClient.describeEnvironmentResources(new DescribeEnvironmentResourcesRequest()
+        .withEnvironmentId(environmentId))
+        .getEnvironmentResources().getInstances().size();
+      apiCallFinished("DescribeEnvironmentResources", callStart);
+      if (instances == 0) return;
+
+      // ElasticBeanstalk keeps the logs of earlier requests for a while
+      final Date requested = new Date();
+      callStart = System.nanoTime();
+      myElasticBeanstalkClient.requestEnvironmentInfo(new RequestEnvironmentInfoRequest()
+        .withEnvironmentId(environmentId)
+        .withInfoType(EnvironmentInfoType.Tail));
+      apiCallFinished("RequestEnvironmentInfo", callStart);
+
+      final long deadline = System.currentTimeMillis() + INSTANCE_LOGS_TIMEOUT_SEC * 1000L;
+      Map<String, EnvironmentInfoDescription> infos;
+      do {
+        if (!sleep(INSTANCE_LOGS_POLL_INTERVAL_SEC)) return;
+
+        callStart = System.nanoTime();
+        final List<EnvironmentInfoDescription> all = myElasticBeanstalkClient.retrieveEnvironmentInfo(new RetrieveEnvironmentInfoRequest()
+          .withEnvironmentId(environmentId)
+          .withInfoType(EnvironmentInfoType.Tail))
+          .getEnvironmentInfo();
+        apiCallFinished("RetrieveEnvironmentInfo", callStart);
+
+        infos = new LinkedHashMap<>();
+        for (EnvironmentInfoDescription info : all) {
+          if (info.getSampleTimestamp() != null && !info.getSampleTimestamp().before(requested)) infos.put(info.getEc2InstanceId(), info);
+        }
+      } while (infos.size() < instances && System.currentTimeMillis() < deadline);
+
+      final List<InstanceLogsDownloader.InstanceLog> logs = new InstanceLogsDownloader(myInstanceLogsMaxBytes)
+        .download(new ArrayList<>(infos.values()), directory);
+      myListener.instanceLogsRetrieved(environment.getEnvironmentName(), instances, logs);
+    } catch (Exception e) {
+      myListener.deploymentUpdate("Failed to retrieve instance logs of environment " + environment.getEnvironmentName() + ": "
+        + AWSException.getMessage(e), EventSeverity.WARN.toString());
+    }
+  }
+
+  /**
+   * Aborts the in-progress environment update, if any, and waits for the environment to roll back to Ready
+   */
+  private void abortUpdate(@NotNull String environmentId, @NotNull DeploymentSchedule schedule) {
+    try {
+      final EnvironmentDescription environment = getEnvironment(environmentId);
+      if (!EnvironmentStatus.Updating.toString().equals(environment.getStatus())) return;
+
+      myListener.deploymentAbortStarted(environment.getEnvironmentName());
+
+      final long callStart = System.nanoTime();
+      myElasticBeanstalkClient.abortEnvironmentUpdate(new AbortEnvironmentUpdateRequest().withEnvironmentId(environmentId));
+      apiCallFinished("AbortEnvironmentUpdate", callStart);
+
+      final boolean ready = waitForReady(environmentId, getRemainingTimeoutSec(schedule.getTimeoutSec()), schedule.getPollIntervalSec(0), false);
+      myListener.deploymentAbortFinished(environment.getEnvironmentName(), ready);
+    } catch (Throwable t) {
+      processFailure(t);
+    }
+  }
+
+  /**
+   * Waits for the update or launch started by someone else to finish, as ElasticBeanstalk rejects updates of such environments
+   *
+   * @param schedule timeout and poll interval to use, defaults if null
+   * @return true if the environment can be updated, false if the wait timed out or was cancelled
+   */
+  private boolean waitForUpdatable(@NotNull EnvironmentDescription environment, @NotNull String versionLabel,
+                                   @Nullable DeploymentSchedule schedule) {
+    final String status = environment.getStatus();
+    if (!EnvironmentStatus.Updating.toString().equals(status) && !EnvironmentStatus.Launching.toString().equals(status)) return true;
+
+    myListener.environmentNotReady(environment.getEnvironmentName(), status);
+
+    final int timeoutSec = schedule == null ? ElasticBeanstalkConstants.WAIT_TIMEOUT_SEC_DEFAULT : schedule.getTimeoutSec();
+    final int intervalSec = schedule == null ? ElasticBeanstalkConstants.WAIT_POLL_INTERVAL_SEC_DEFAULT : schedule.getPollIntervalSec(0);
+    if (waitForReady(environment.getEnvironmentId(), timeoutSec, intervalSec, true)) return true;
+    // the version which failed processing is reported instead of the environment
+    if (isVersionProcessingFailed(versionLabel)) {
+      return awaitVersionProcessing(environment.getApplicationName(), environment.getEnvironmentName(), versionLabel);
+    }
+
+    if (!isCancelled()) {
+      myListener.deploymentFailed(environment.getApplicationName(), environment.getEnvironmentName(), versionLabel, true, null);
+    }
+    return false;
+  }
+
+  /**
+   * Polls the environment until it is Ready
+   *
+   * @param cancellable whether {@link #cancel()} or the finished processing of the created version stops waiting
+   * @return true if the environment became Ready within the timeout
+   */
+  private boolean waitForReady(@NotNull String environmentId, int timeoutSec, int intervalSec, boolean cancellable) {
+    final long deadline = System.currentTimeMillis() + timeoutSec * 1000L;
+    while (true) {
+      final EnvironmentDescription environment = getEnvironment(environmentId);
+      myListener.environmentPolled(environment.getEnvironmentName(), environment.getStatus(),
+        environment.getHealth(), environment.getVersionLabel());
+
+      if (EnvironmentStatus.Ready.toString().equals(environment.getStatus())) return true;
+
+      final long left = deadline - System.currentTimeMillis();
+      if (left <= 0) return false;
+
+      final long interval = Math.min(intervalSec * 1000L, left);
+      if (cancellable) {
+        if (isVersionProcessingFailed(null)) return false;
+        if (!sleep(interval, TimeUnit.MILLISECONDS)) return false;
+      } else {
+        try {
+          Thread.sleep(interval);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+    }
+  }
+
+  /**
+   * Starts polling the status of the version created with processing on a separate thread,
+   * see {@link #awaitVersionProcessing}
+   */
+  private void startVersionProcessingWait(@NotNull final String applicationName, @NotNull final String versionLabel) {
+    // a daemon thread doesn't keep the JVM alive if the client isn't closed
+    final ExecutorService executor = Executors.newSingleThreadExecutor(new NamedDaemonThreadFactory("ElasticBeanstalk version processing"));
+    try {
+      myProcessedVersionLabel = versionLabel;
+      myVersionProcessing = executor.submit(new Callable<TimedResult<String>>() {
+        @Override
+        public TimedResult<String> call() {
+          final long waitStart = System.nanoTime();
+          return new TimedResult<String>(pollVersionStatus(applicationName, versionLabel), waitStart);
+        }
+      });
+    } finally {
+      // the submitted wait still runs
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * @return Processed or Failed, null if the processing timed out or the wait was cancelled
+   */
+  @Nullable
+  private String pollVersionStatus(@NotNull String applicationName, @NotNull String versionLabel) {
+    final long deadline = System.currentTimeMillis() + VERSION_PROCESSING_TIMEOUT_SEC * 1000L;
+    do {
+      final long callStart = System.nanoTime();
+      final List<ApplicationVersionDescription> versions = myElasticBeanstalkClient.describeApplicationVersions(new DescribeApplicationVersionsRequest()
+        .withApplicationName(applicationName)
+        .withVersionLabels(versionLabel))
+        .getApplicationVersions();
+      myBackgroundCalls.add(new TimedResult<String>("DescribeApplicationVersions", callStart));
+      final String status = versions == null || versions.isEmpty() ? null : versions.get(0).getStatus();
+      if (ApplicationVersionStatus.Processed.toString().equals(status) || ApplicationVersionStatus.Failed.toString().equals(status)) {
+        return status;
+      }
+    } while (System.currentTimeMillis() < deadline && sleep(VERSION_PROCESSING_POLL_INTERVAL_SEC));
+    return null;
+  }
+
+  /**
+   * @param versionLabel null for any version
+   * @return true if the processing of the created version finished with a failure
+   */
+  private boolean isVersionProcessingFailed(@Nullable String versionLabel) {
+    final Future<TimedResult<String>> processing = myVersionProcessing;
+    if (processing == null || !processing.isDone()) return false;
+    if (versionLabel != null && !versionLabel.equals(myProcessedVersionLabel)) return false;
+    try {
+      return !ApplicationVersionStatus.Processed.toString().equals(processing.get().value);
+    } catch (ExecutionException e) {
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Waits for the processing of the version created by this client, if any, reports the failure
+   *
+   * @return true if the version may be deployed
+   */
+  private boolean awaitVersionProcessing(@NotNull String applicationName, @NotNull String environmentName, @NotNull String versionLabel) {
+    final Future<TimedResult<String>> processing = myVersionProcessing;
+    if (processing == null || !versionLabel.equals(myProcessedVersionLabel)) return true;
+
+    final TimedResult<String> result;
+    try {
+      result = processing.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      processFailure(e.getCause());
+      return false;
+    } finally {
+      myVersionProcessing = null;
+      reportBackgroundCalls();
+    }
+
+    if (ApplicationVersionStatus.Processed.toString().equals(result.value)) {
+      myListener.versionProcessed(applicationName, versionLabel, result.durationMillis);
+      return true;
+    }
+    if (isCancelled()) return false;
+
+    final boolean timedOut = result.value == null;
+    final Listener.ErrorInfo errorInfo;
+    if (timedOut) {
+      errorInfo = new Listener.ErrorInfo();
+      errorInfo.message = String.format("Application %s version %s wasn't processed in %d seconds", applicationName, versionLabel, VERSION_PROCESSING_TIMEOUT_SEC);
     } else {
-      Listener.ErrorInfo errorEvent = hasError ? getErrorInfo(errorEvents.get(0)) : null;
-      myListener.deploymentFailed(environment.getApplicationName(), environment.getEnvironmentName(), versionLabel, false, errorEvent);
+      errorInfo = getVersionProcessingError(applicationName, versionLabel);
+    }
+    myListener.deploymentFailed(applicationName, environmentName, versionLabel, timedOut, errorInfo);
+    return false;
+  }
+
+  @NotNull
+  private Listener.ErrorInfo getVersionProcessingError(@NotNull String applicationName, @NotNull String versionLabel) {
+    final long callStart = System.nanoTime();
+    final List<EventDescription> events = myElasticBeanstalkClient.describeEvents(new DescribeEventsRequest()
+      .withApplicationName(applicationName)
+      .withVersionLabel(versionLabel)
+      .withMaxRecords(10)
+      .withSeverity(EventSeverity.ERROR))
+      .getEvents();
+    apiCallFinished("DescribeEvents", callStart);
+
+    if (!events.isEmpty()) return getErrorInfo(events.get(0));
+
+    final Listener.ErrorInfo errorInfo = new Listener.ErrorInfo();
+    errorInfo.severity = EventSeverity.ERROR.toString();
+    errorInfo.message = String.format("Application %s version %s failed processing", applicationName, versionLabel);
+    return errorInfo;
+  }
+
+  /**
+   * Waits for the environment notifications, reports them as deployment updates with the severity of the matching
+   * environment events, as the notifications carry none
+   *
+   * @return the error events among the notified ones, null if cancelled
+   */
+  @Nullable
+  private List<EventDescription> awaitNotification(@NotNull EnvironmentNotificationQueue queue, @NotNull EnvironmentDescription environment,
+                                                   String versionLabel, long since, int timeoutSec) {
+    final String environmentName = environment.getEnvironmentName();
+    final long deadline = System.currentTimeMillis() + timeoutSec * 1000L;
+    while (!isCancelled()) {
+      final int waitSec = (int) Math.min(NOTIFICATION_WAIT_SEC, (deadline - System.currentTimeMillis() + 999) / 1000);
+      if (waitSec <= 0) return Collections.emptyList();
+
+      final List<EnvironmentNotification> notifications;
+      try {
+        final long callStart = System.nanoTime();
+        notifications = queue.receive(environmentName, since, waitSec);
+        apiCallFinished("ReceiveMessage", callStart);
+      } catch (Exception e) {
+        myListener.deploymentUpdate("Failed to receive environment notifications: " + AWSException.getMessage(e), EventSeverity.WARN.toString());
+        return sleep(waitSec) ? Collections.<EventDescription>emptyList() : null;
+      }
+      if (notifications.isEmpty()) continue;
+
+      final List<EventDescription> errorEvents = getErrorEvents(environment.getEnvironmentId(), versionLabel);
+      final List<EventDescription> notifiedErrors = new ArrayList<>();
+      for (EnvironmentNotification n : notifications) {
+        final EventDescription errorEvent = findEvent(errorEvents, n.getMessage());
+        if (errorEvent != null) notifiedErrors.add(errorEvent);
+        myListener.deploymentUpdate(n.getMessage(), errorEvent == null ? null : errorEvent.getSeverity());
+      }
+      return notifiedErrors;
     }
+    return null;
+  }
+
+  @Nullable
+  private static EventDescription findEvent(@NotNull List<EventDescription> events, @Nullable String message) {
+    for (EventDescription event : events) {
+      if (event.getMessage() != null && event.getMessage().equals(message)) return event;
+    }
+    return null;
+  }
+
+  /**
+   * @return the timeout cut to the time left before the credentials expire
+   */
+  private int getRemainingTimeoutSec(int timeoutSec) {
+    return (int) Math.max(0, Math.min(timeoutSec, (myCredentialsDeadline - System.currentTimeMillis()) / 1000));
+  }
+
+  /**
+   * @return false if the wait was cancelled
+   */
+  private boolean sleep(int seconds) {
+    return sleep(seconds, TimeUnit.SECONDS);
+  }
+
+  private boolean sleep(long duration, @NotNull TimeUnit unit) {
+    try {
+      return !myCancelled.await(duration, unit);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * @param configuredEnvironmentName environment whose configuration the updated environment has,
+   *                                  the updated environment itself unless it's being cloned
+   * @return option settings to send with the environment update, i.e. those differing from the current configuration
+   */
+  @NotNull
+  private List<ConfigurationOptionSetting> getOptionSettings(@Nullable String applicationName,
+                                                             @NotNull String configuredEnvironmentName,
+                                                             @NotNull String environmentName) {
+    if (myOptionSettings.isEmpty()) return myOptionSettings;
+
+    List<ConfigurationOptionSetting> changed = myOptionSettings;
+    if (applicationName != null) {
+      final List<ConfigurationOptionSetting> current = getConfigurationSettings(applicationName, configuredEnvironmentName);
+      if (current != null) changed = ElasticBeanstalkUtil.getChangedOptionSettings(myOptionSettings, current);
+    }
+
+    if (changed.isEmpty()) {
+      myListener.optionSettingsUpToDate(environmentName);
+    } else {
+      myListener.optionSettingsApplied(environmentName, changed);
+      myConfigurationSettings.remove(environmentName);
+    }
+    return changed;
+  }
+
+  /**
+   * @return the deployed environment configuration, described once per environment, null if it can't be described
+   */
+  @Nullable
+  private List<ConfigurationOptionSetting> getConfigurationSettings(@NotNull String applicationName, @NotNull String environmentName) {
+    List<ConfigurationOptionSetting> settings = myConfigurationSettings.get(environmentName);
+    if (settings != null) return settings;
+
+    try {
+      final long callStart = System.nanoTime();
+      final List<ConfigurationSettingsDescription> descriptions = myElasticBeanstalkClient.describeConfigurationSettings(new DescribeConfigurationSettingsRequest()
+        .withApplicationName(applicationName)
+        .withEnvironmentName(environmentName))
+        .getConfigurationSettings();
+      apiCallFinished("DescribeConfigurationSettings", callStart);
+
+      settings = getDeployedSettings(descriptions);
+    } catch (Exception e) {
+      myListener.deploymentUpdate("Failed to describe environment " + environmentName + " configuration, all option settings will be applied: " +
+        AWSException.getMessage(e), EventSeverity.WARN.toString());
+      return null;
+    }
+
+    if (settings != null) myConfigurationSettings.put(environmentName, settings);
+    return settings;
+  }
+
+  @Nullable
+  private EnvironmentDescription findEnvironment(@NotNull String environmentName) {
+    final long callStart = System.nanoTime();
+    final List<EnvironmentDescription> environments = myElasticBeanstalkClient.describeEnvironments(new DescribeEnvironmentsRequest()
+      .withEnvironmentNames(environmentName)
+      .withIncludeDeleted(false))
+      .getEnvironments();
+    apiCallFinished("DescribeEnvironments", callStart);
+    return environments.isEmpty() ? null : environments.get(0);
   }
 
   private EnvironmentDescription getEnvironment(@NotNull String environmentId) {
-    return myElasticBeanstalkClient.describeEnvironments(new DescribeEnvironmentsRequest().withEnvironmentIds(environmentId))
+    final long callStart = System.nanoTime();
+    final EnvironmentDescription environment = myElasticBeanstalkClient.describeEnvironments(new DescribeEnvironmentsRequest().withEnvironmentIds(environmentId))
       .getEnvironments().get(0);
+    apiCallFinished("DescribeEnvironments", callStart);
+    return environment;
+  }
+
+  /**
+   * @return instances health summary or null if enhanced health reporting isn't enabled for the environment
+   */
+  @Nullable
+  private EnvironmentHealthSample getEnvironmentHealth(@NotNull String environmentId) {
+    final DescribeEnvironmentHealthResult result;
+    try {
+      final long callStart = System.nanoTime();
+      result = myElasticBeanstalkClient.describeEnvironmentHealth(new DescribeEnvironmentHealthRequest()
+        .withEnvironmentId(environmentId)
+        .withAttributeNames(EnvironmentHealthAttribute.HealthStatus, EnvironmentHealthAttribute.InstancesHealth));
+      apiCallFinished("DescribeEnvironmentHealth", callStart);
+    } catch (InvalidRequestException e) {
+      return null;
+    }
+
+    final InstanceHealthSummary summary = result.getInstancesHealth();
+    if (summary == null) return null;
+
+    final EnvironmentHealthSample sample = new EnvironmentHealthSample();
+    sample.status = result.getHealthStatus();
+    sample.degraded = count(summary.getDegraded()) + count(summary.getSevere());
+    sample.total = sample.degraded + count(summary.getOk()) + count(summary.getInfo()) + count(summary.getWarning())
+      + count(summary.getPending()) + count(summary.getUnknown()) + count(summary.getNoData());
+    return sample;
+  }
+
+  /**
+   * Counts the environment instances which run the version
+   *
+   * @return false if the instances deployment state isn't available, e.g. enhanced health reporting is disabled
+   * or describing the instances health isn't permitted, the caller stops counting then
+   */
+  private boolean updateRollout(@NotNull RolloutTracker rollout, @NotNull String environmentId, @NotNull String versionLabel) {
+    int deployed = 0;
+    int total = 0;
+    String nextToken = null;
+    try {
+      do {
+        final long callStart = System.nanoTime();
+        final DescribeInstancesHealthResult result = myElasticBeanstalkClient.describeInstancesHealth(new DescribeInstancesHealthRequest()
+          .withEnvironmentId(environmentId)
+          .withAttributeNames(InstancesHealthAttribute.Deployment)
+          .withNextToken(nextToken));
+        apiCallFinished("DescribeInstancesHealth", callStart);
+
+        for (SingleInstanceHealth instance : result.getInstanceHealthList()) {
+          ++total;
+          final Deployment deployment = instance.getDeployment();
+          if (deployment != null && versionLabel.equals(deployment.getVersionLabel()) && "Deployed".equals(deployment.getStatus())) ++deployed;
+        }
+        nextToken = result.getNextToken();
+      } while (nextToken != null);
+    } catch (InvalidRequestException e) {
+      return false;
+    } catch (AmazonClientException e) {
+      myListener.deploymentUpdate("Failed to count the instances running version " + versionLabel + ", rollout progress is disabled: " +
+        AWSException.getMessage(e), EventSeverity.WARN.toString());
+      return false;
+    }
+    rollout.update(deployed, total, System.currentTimeMillis());
+    return true;
+  }
+
+  private static int count(@Nullable Integer i) {
+    return i == null ? 0 : i;
   }
 
   private List<EventDescription> getErrorEvents(@NotNull String environmentId, String versionLabel) {
-    return myElasticBeanstalkClient.describeEvents(new DescribeEventsRequest()
+    final long callStart = System.nanoTime();
+    final List<EventDescription> events = myElasticBeanstalkClient.describeEvents(new DescribeEventsRequest()
       .withEnvironmentId(environmentId)
       .withMaxRecords(10)
       .withVersionLabel(versionLabel)
       .withSeverity(EventSeverity.ERROR))
       .getEvents();
+    apiCallFinished("DescribeEvents", callStart);
+    return events;
   }
 
   private List<EventDescription> getNewEvents(@NotNull String environmentId, @NotNull Date startTime) {
+    final long callStart = System.nanoTime();
     List<EventDescription> events = myElasticBeanstalkClient.describeEvents(new DescribeEventsRequest()
       .withEnvironmentId(environmentId)
       .withStartTime(startTime)
       .withMaxRecords(20))
       .getEvents();
+    apiCallFinished("DescribeEvents", callStart);
 
     List<EventDescription> newEvents = new ArrayList<>();
     for (EventDescription event : events) {
@@ -210,6 +1347,18 @@ public class AWSClient {
     return environment.getVersionLabel().equals(versionLabel);
   }
 
+  private void apiCallFinished(@NotNull String operation, long startNanos) {
+    myListener.apiCallFinished(operation, (System.nanoTime() - startNanos) / 1000000);
+  }
+
+  private void reportBackgroundCalls() {
+    TimedResult<String> call;
+    while ((call = myBackgroundCalls.poll()) != null) {
+      //noinspection ConstantConditions
+      myListener.apiCallFinished(call.value, call.durationMillis);
+    }
+  }
+
   private void processFailure(@NotNull Throwable t) {
     myListener.exception(new AWSException(t));
   }
@@ -238,18 +1387,117 @@ public class AWSClient {
     return (msg != null && msg.endsWith(".")) ? msg.substring(0, msg.length() - 1) : msg;
   }
 
+  /**
+   * Doesn't notify the listeners, so that it can be called from any thread, the caller reports the returned call duration
+   */
+  @NotNull
+  private TimedResult<Boolean> versionExists(@NotNull String applicationName, @NotNull String versionLabel) {
+    final long callStart = System.nanoTime();
+    final List<ApplicationVersionDescription> versions = myElasticBeanstalkClient.describeApplicationVersions(new DescribeApplicationVersionsRequest()
+      .withApplicationName(applicationName)
+      .withVersionLabels(versionLabel))
+      .getApplicationVersions();
+    return new TimedResult<Boolean>(versions != null && !versions.isEmpty(), callStart);
+  }
+
   private boolean doesApplicationVersionExist(@NotNull String applicationName, @NotNull String versionLabel) {
-    DescribeApplicationVersionsRequest request =
-      new DescribeApplicationVersionsRequest()
+    final TimedResult<Boolean> result = versionExists(applicationName, versionLabel);
+    myListener.apiCallFinished("DescribeApplicationVersions", result.durationMillis);
+    return Boolean.TRUE.equals(result.value);
+  }
+
+  /**
+   * @return false if the version existence is unknown
+   */
+  private static boolean isExisting(@NotNull Future<TimedResult<Boolean>> versionExists) throws InterruptedException {
+    try {
+      return Boolean.TRUE.equals(versionExists.get().value);
+    } catch (ExecutionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return the problem or null if the bundle is accessible
+   */
+  @Nullable
+  private String checkBundle(@NotNull String s3BucketName, @NotNull String s3ObjectKey) {
+    try {
+      myS3Client.getObjectMetadata(s3BucketName, s3ObjectKey);
+      return null;
+    } catch (AmazonServiceException e) {
+      if (e.getStatusCode() == 404) return "S3 object s3://" + s3BucketName + "/" + s3ObjectKey + " doesn't exist";
+      if (e.getStatusCode() == 403) return "Access to S3 object s3://" + s3BucketName + "/" + s3ObjectKey + " is denied";
+      throw e;
+    }
+  }
+
+  /**
+   * @return the problem or null if the application exists
+   */
+  @Nullable
+  private String checkApplication(@NotNull String applicationName) {
+    try {
+      final List<ApplicationDescription> applications = myElasticBeanstalkClient.describeApplications(new DescribeApplicationsRequest()
+        .withApplicationNames(applicationName))
+        .getApplications();
+      return applications.isEmpty() ? "Application " + applicationName + " doesn't exist" : null;
+    } catch (AmazonServiceException e) {
+      if (e.getStatusCode() == 403) return "Not permitted to describe ElasticBeanstalk applications: " + e.getErrorMessage();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the problem or null if the environment exists and isn't terminated
+   */
+  @Nullable
+  private String checkEnvironment(@NotNull String applicationName, @NotNull String environmentName) {
+    try {
+      final List<EnvironmentDescription> environments = myElasticBeanstalkClient.describeEnvironments(new DescribeEnvironmentsRequest()
         .withApplicationName(applicationName)
-        .withVersionLabels(versionLabel);
+        .withEnvironmentNames(environmentName)
+        .withIncludeDeleted(false))
+        .getEnvironments();
+      if (environments.isEmpty()) return "Environment " + environmentName + " doesn't exist in application " + applicationName;
 
-    DescribeApplicationVersionsResult describeApplicationVersionsResult
-      = myElasticBeanstalkClient.describeApplicationVersions(request);
+      final String status = environments.get(0).getStatus();
+      if (EnvironmentStatus.Terminating.toString().equals(status) || EnvironmentStatus.Terminated.toString().equals(status)) {
+        return "Environment " + environmentName + " is " + status;
+      }
+      return null;
+    } catch (AmazonServiceException e) {
+      if (e.getStatusCode() == 403) return "Not permitted to describe ElasticBeanstalk environments: " + e.getErrorMessage();
+      throw e;
+    }
+  }
 
-    List<ApplicationVersionDescription> applicationVersions = describeApplicationVersionsResult.getApplicationVersions();
+  @Nullable
+  private static List<ConfigurationOptionSetting> getDeployedSettings(@NotNull List<ConfigurationSettingsDescription> descriptions) {
+    List<ConfigurationOptionSetting> settings = null;
+    // a draft configuration may be returned along with the deployed one
+    for (ConfigurationSettingsDescription d : descriptions) {
+      if (settings == null || "deployed".equals(d.getDeploymentStatus())) settings = d.getOptionSettings();
+    }
+    return settings;
+  }
+
+  private static class TimedResult<T> {
+    @Nullable
+    private final T value;
+    private final long durationMillis;
 
-    return applicationVersions != null && applicationVersions.size() > 0;
+    TimedResult(@Nullable T value, long startNanos) {
+      this.value = value;
+      this.durationMillis = (System.nanoTime() - startNanos) / 1000000;
+    }
+  }
+
+  private static class EnvironmentHealthSample {
+    @Nullable
+    String status;
+    int degraded;
+    int total;
   }
 
   static class Listener {
@@ -265,22 +1513,102 @@ public class AWSClient {
 
     }
 
+    /**
+     * @param durationMillis how long the version status was awaited
+     */
+    void versionProcessed(@NotNull String applicationName, @NotNull String versionLabel, long durationMillis) {
+    }
+
+    void bundleCopyStarted(@NotNull String sourceBucketName, @NotNull String targetBucketName, @NotNull String key, long size) {
+    }
+
+    void bundleCopySkipped(@NotNull String targetBucketName, @NotNull String key) {
+    }
+
+    void bundleCopyFinished(@NotNull String targetBucketName, @NotNull String key, int parts) {
+    }
+
+    void environmentNotReady(@NotNull String environmentName, @NotNull String status) {
+    }
+
+    void optionSettingsApplied(@NotNull String environmentName, @NotNull List<ConfigurationOptionSetting> optionSettings) {
+    }
+
+    void optionSettingsUpToDate(@NotNull String environmentName) {
+    }
+
+    void deploymentPlanned(@NotNull String environmentName, @NotNull String versionLabel, @NotNull DeploymentPlan plan) {
+    }
+
     void deploymentStarted(@NotNull String environmentId, @NotNull String environmentName, @NotNull String versionLabel) {
     }
 
     void deploymentWaitStarted(@NotNull String environmentName) {
     }
 
-    void deploymentInProgress(@NotNull String environmentName) {
+    void deploymentInProgress(@NotNull String environmentName, @Nullable Long etaSec) {
+    }
+
+    void deploymentUpdate(@NotNull String message, @Nullable String severity) {
+    }
+
+    void environmentPolled(@NotNull String environmentName, @NotNull String status,
+                           @Nullable String health, @Nullable String versionLabel) {
     }
 
-    void deploymentUpdate(@NotNull String message) {
+    void apiCallFinished(@NotNull String operation, long durationMillis) {
+    }
+
+    void healthPolled(@NotNull String environmentName, @Nullable String healthStatus, int degradedInstances, int totalInstances) {
+    }
+
+    /**
+     * Reported instead of {@link #deploymentInProgress(String, Long)} when the instances deployment state is available
+     */
+    void rolloutProgress(@NotNull String environmentName, @NotNull String versionLabel, int deployedInstances, int totalInstances,
+                         @Nullable Long etaSec) {
     }
 
     void deploymentFailed(@NotNull String applicationName, @NotNull String environmentName, @NotNull String versionLabel,
                           @NotNull Boolean hasTimeout, @Nullable ErrorInfo errorInfo) {
     }
 
+    /**
+     * Waiting for the deployment was cancelled, the environment update goes on unless it is aborted
+     */
+    void deploymentCancelled(@NotNull String environmentName, @NotNull String versionLabel) {
+    }
+
+    void deploymentAbortStarted(@NotNull String environmentName) {
+    }
+
+    void rollbackStarted(@NotNull String environmentName, @NotNull String failedVersionLabel, @NotNull String versionLabel) {
+    }
+
+    /**
+     * @param succeeded whether the environment runs the version again, the failure is reported with {@link #deploymentFailed} before
+     */
+    void rollbackFinished(@NotNull String environmentName, @NotNull String versionLabel, boolean succeeded) {
+    }
+
+    /**
+     * @param instances number of the environment instances, logs of some may be missing
+     */
+    void instanceLogsRetrieved(@NotNull String environmentName, int instances, @NotNull List<InstanceLogsDownloader.InstanceLog> logs) {
+    }
+
+    void environmentCloneStarted(@NotNull String sourceEnvironmentName, @NotNull String environmentName) {
+    }
+
+    void cnameSwapStarted(@NotNull String sourceEnvironmentName, @NotNull String destinationEnvironmentName) {
+    }
+
+    void cnameSwapFinished(@NotNull String sourceEnvironmentName, @NotNull String destinationEnvironmentName, boolean environmentsReady) {
+    }
+
+    void deploymentAbortFinished(@NotNull String environmentName, boolean environmentReady) {
+    }
+
     void deploymentSucceeded(@NotNull String versionLabel) {
     }
 
@@ -0,0 +1,464 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.amazonaws.services.elasticbeanstalk.model.ConfigurationOptionSetting;
+import com.amazonaws.services.elasticbeanstalk.model.EventSeverity;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.log.Loggers;
+import jetbrains.buildServer.util.amazon.AWSException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers {@link AWSClient.Listener} callbacks to the delegate on its own thread through a queue,
+ * so that a slow listener doesn't delay polling.
+ * <p>
+ * When the queue holds {@code capacity} callbacks, progress callbacks and INFO and WARN environment events are dropped and counted.
+ * Other callbacks are always queued, they are few and the caller must never wait for the delegate.
+ */
+class AsyncListener extends AWSClient.Listener {
+  @NotNull
+  private static final Logger LOG = Logger.getInstance(Loggers.VCS_CATEGORY + AsyncListener.class);
+
+  static final int QUEUE_CAPACITY = 1000;
+
+  @NotNull
+  private final AWSClient.Listener myDelegate;
+  @NotNull
+  private final BlockingQueue<Runnable> myQueue = new LinkedBlockingQueue<Runnable>();
+  private final int myCapacity;
+  @NotNull
+  private final Thread myThread;
+  @NotNull
+  private final AtomicInteger myDropped = new AtomicInteger();
+  @NotNull
+  private final AtomicInteger myDroppedUpdates = new AtomicInteger();
+  private volatile boolean myClosed;
+
+  AsyncListener(@NotNull AWSClient.Listener delegate, int capacity) {
+    myDelegate = delegate;
+    myCapacity = capacity;
+    myThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        deliverLoop();
+      }
+    }, "ElasticBeanstalk " + delegate.getClass().getSimpleName());
+    myThread.setDaemon(true);
+    myThread.start();
+  }
+
+  /**
+   * Delivers the queued callbacks and stops the delivery thread
+   *
+   * @return false if the callbacks weren't delivered in time
+   */
+  boolean close(long timeoutMillis) {
+    final int dropped = myDropped.getAndSet(0);
+    if (dropped > 0) {
+      dispatch(new Runnable() {
+        @Override
+        public void run() {
+          myDelegate.deploymentUpdate(dropped + " progress notifications were skipped to keep up with the deployment", EventSeverity.WARN.toString());
+        }
+      });
+    }
+    final int droppedUpdates = myDroppedUpdates.getAndSet(0);
+    if (droppedUpdates > 0) {
+      dispatch(new Runnable() {
+        @Override
+        public void run() {
+          myDelegate.deploymentUpdate(droppedUpdates + " environment events were skipped to keep up with the deployment, see the environment events in the AWS console",
+            EventSeverity.WARN.toString());
+        }
+      });
+    }
+    myClosed = true;
+    try {
+      myThread.join(timeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return !myThread.isAlive();
+  }
+
+  private void deliverLoop() {
+    while (true) {
+      final Runnable callback;
+      try {
+        callback = myQueue.poll(100, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (callback == null) {
+        if (myClosed && myQueue.isEmpty()) return;
+        continue;
+      }
+      try {
+        callback.run();
+      } catch (RuntimeException e) {
+        LOG.warnAndDebugDetails("Failed to notify " + myDelegate.getClass().getSimpleName(), e);
+      }
+    }
+  }
+
+  private void dispatch(@NotNull Runnable callback) {
+    myQueue.add(callback);
+  }
+
+  private void dispatchProgress(@NotNull Runnable callback) {
+    if (myQueue.size() < myCapacity) {
+      myQueue.add(callback);
+    } else {
+      myDropped.incrementAndGet();
+    }
+  }
+
+  private void dispatchUpdate(@NotNull Runnable callback, @Nullable String severity) {
+    if (isError(severity) || myQueue.size() < myCapacity) {
+      myQueue.add(callback);
+    } else {
+      myDroppedUpdates.incrementAndGet();
+    }
+  }
+
+  private static boolean isError(@Nullable String severity) {
+    return EventSeverity.ERROR.toString().equals(severity) || EventSeverity.FATAL.toString().equals(severity);
+  }
+
+  @Override
+  void createVersionStarted(@NotNull final String applicationName, @NotNull final String versionLabel,
+                            @NotNull final String s3BucketName, @NotNull final String s3ObjectKey) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.createVersionStarted(applicationName, versionLabel, s3BucketName, s3ObjectKey);
+      }
+    });
+  }
+
+  @Override
+  void createVersionFinished(@NotNull final String applicationName, @NotNull final String versionLabel,
+                             @NotNull final String s3BucketName, @NotNull final String s3ObjectKey) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.createVersionFinished(applicationName, versionLabel, s3BucketName, s3ObjectKey);
+      }
+    });
+  }
+
+  @Override
+  void createVersionSkipped(@NotNull final String applicationName, @NotNull final String versionLabel) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.createVersionSkipped(applicationName, versionLabel);
+      }
+    });
+  }
+
+  @Override
+  void versionProcessed(@NotNull final String applicationName, @NotNull final String versionLabel, final long durationMillis) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.versionProcessed(applicationName, versionLabel, durationMillis);
+      }
+    });
+  }
+
+  @Override
+  void rollbackStarted(@NotNull final String environmentName, @NotNull final String failedVersionLabel, @NotNull final String versionLabel) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.rollbackStarted(environmentName, failedVersionLabel, versionLabel);
+      }
+    });
+  }
+
+  @Override
+  void rollbackFinished(@NotNull final String environmentName, @NotNull final String versionLabel, final boolean succeeded) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.rollbackFinished(environmentName, versionLabel, succeeded);
+      }
+    });
+  }
+
+  @Override
+  void bundleCopyStarted(@NotNull final String sourceBucketName, @NotNull final String targetBucketName, @NotNull final String key, final long size) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.bundleCopyStarted(sourceBucketName, targetBucketName, key, size);
+      }
+    });
+  }
+
+  @Override
+  void bundleCopySkipped(@NotNull final String targetBucketName, @NotNull final String key) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.bundleCopySkipped(targetBucketName, key);
+      }
+    });
+  }
+
+  @Override
+  void bundleCopyFinished(@NotNull final String targetBucketName, @NotNull final String key, final int parts) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.bundleCopyFinished(targetBucketName, key, parts);
+      }
+    });
+  }
+
+  @Override
+  void environmentNotReady(@NotNull final String environmentName, @NotNull final String status) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.environmentNotReady(environmentName, status);
+      }
+    });
+  }
+
+  @Override
+  void optionSettingsApplied(@NotNull final String environmentName, @NotNull final List<ConfigurationOptionSetting> optionSettings) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.optionSettingsApplied(environmentName, optionSettings);
+      }
+    });
+  }
+
+  @Override
+  void deploymentPlanned(@NotNull final String environmentName, @NotNull final String versionLabel, @NotNull final DeploymentPlan plan) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.deploymentPlanned(environmentName, versionLabel, plan);
+      }
+    });
+  }
+
+  @Override
+  void optionSettingsUpToDate(@NotNull final String environmentName) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.optionSettingsUpToDate(environmentName);
+      }
+    });
+  }
+
+  @Override
+  void deploymentStarted(@NotNull final String environmentId, @NotNull final String environmentName, @NotNull final String versionLabel) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.deploymentStarted(environmentId, environmentName, versionLabel);
+      }
+    });
+  }
+
+  @Override
+  void deploymentWaitStarted(@NotNull final String environmentName) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.deploymentWaitStarted(environmentName);
+      }
+    });
+  }
+
+  @Override
+  void deploymentInProgress(@NotNull final String environmentName, @Nullable final Long etaSec) {
+    dispatchProgress(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.deploymentInProgress(environmentName, etaSec);
+      }
+    });
+  }
+
+  @Override
+  void deploymentUpdate(@NotNull final String message, @Nullable final String severity) {
+    dispatchUpdate(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.deploymentUpdate(message, severity);
+      }
+    }, severity);
+  }
+
+  @Override
+  void environmentPolled(@NotNull final String environmentName, @NotNull final String status,
+                         @Nullable final String health, @Nullable final String versionLabel) {
+    dispatchProgress(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.environmentPolled(environmentName, status, health, versionLabel);
+      }
+    });
+  }
+
+  @Override
+  void apiCallFinished(@NotNull final String operation, final long durationMillis) {
+    dispatchProgress(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.apiCallFinished(operation, durationMillis);
+      }
+    });
+  }
+
+  @Override
+  void healthPolled(@NotNull final String environmentName, @Nullable final String healthStatus, final int degradedInstances, final int totalInstances) {
+    dispatchProgress(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.healthPolled(environmentName, healthStatus, degradedInstances, totalInstances);
+      }
+    });
+  }
+
+  @Override
+  void rolloutProgress(@NotNull final String environmentName, @NotNull final String versionLabel, final int deployedInstances,
+                       final int totalInstances, @Nullable final Long etaSec) {
+    dispatchProgress(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.rolloutProgress(environmentName, versionLabel, deployedInstances, totalInstances, etaSec);
+      }
+    });
+  }
+
+  @Override
+  void deploymentFailed(@NotNull final String applicationName, @NotNull final String environmentName, @NotNull final String versionLabel,
+                        @NotNull final Boolean hasTimeout, @Nullable final ErrorInfo errorInfo) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.deploymentFailed(applicationName, environmentName, versionLabel, hasTimeout, errorInfo);
+      }
+    });
+  }
+
+  @Override
+  void deploymentCancelled(@NotNull final String environmentName, @NotNull final String versionLabel) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.deploymentCancelled(environmentName, versionLabel);
+      }
+    });
+  }
+
+  @Override
+  void deploymentAbortStarted(@NotNull final String environmentName) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.deploymentAbortStarted(environmentName);
+      }
+    });
+  }
+
+  @Override
+  void instanceLogsRetrieved(@NotNull final String environmentName, final int instances, @NotNull final List<InstanceLogsDownloader.InstanceLog> logs) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.instanceLogsRetrieved(environmentName, instances, logs);
+      }
+    });
+  }
+
+  @Override
+  void deploymentAbortFinished(@NotNull final String environmentName, final boolean environmentReady) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.deploymentAbortFinished(environmentName, environmentReady);
+      }
+    });
+  }
+
+  @Override
+  void environmentCloneStarted(@NotNull final String sourceEnvironmentName, @NotNull final String environmentName) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.environmentCloneStarted(sourceEnvironmentName, environmentName);
+      }
+    });
+  }
+
+  @Override
+  void cnameSwapStarted(@NotNull final String sourceEnvironmentName, @NotNull final String destinationEnvironmentName) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.cnameSwapStarted(sourceEnvironmentName, destinationEnvironmentName);
+      }
+    });
+  }
+
+  @Override
+  void cnameSwapFinished(@NotNull final String sourceEnvironmentName, @NotNull final String destinationEnvironmentName, final boolean environmentsReady) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.cnameSwapFinished(sourceEnvironmentName, destinationEnvironmentName, environmentsReady);
+      }
+    });
+  }
+
+  @Override
+  void deploymentSucceeded(@NotNull final String versionLabel) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.deploymentSucceeded(versionLabel);
+      }
+    });
+  }
+
+  @Override
+  void exception(@NotNull final AWSException exception) {
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        myDelegate.exception(exception);
+      }
+    });
+  }
+}
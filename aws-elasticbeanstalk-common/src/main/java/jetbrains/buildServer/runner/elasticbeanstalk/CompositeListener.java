@@ -0,0 +1,197 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.amazonaws.services.elasticbeanstalk.model.ConfigurationOptionSetting;
+import jetbrains.buildServer.util.amazon.AWSException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Forwards every {@link AWSClient.Listener} callback to all added listeners in the order they were added
+ */
+class CompositeListener extends AWSClient.Listener {
+  @NotNull
+  private final List<AWSClient.Listener> myListeners = new CopyOnWriteArrayList<AWSClient.Listener>();
+
+  void add(@NotNull AWSClient.Listener listener) {
+    myListeners.add(listener);
+  }
+
+  @Override
+  void createVersionStarted(@NotNull String applicationName, @NotNull String versionLabel,
+                            @NotNull String s3BucketName, @NotNull String s3ObjectKey) {
+    for (AWSClient.Listener l : myListeners) l.createVersionStarted(applicationName, versionLabel, s3BucketName, s3ObjectKey);
+  }
+
+  @Override
+  void createVersionFinished(@NotNull String applicationName, @NotNull String versionLabel,
+                             @NotNull String s3BucketName, @NotNull String s3ObjectKey) {
+    for (AWSClient.Listener l : myListeners) l.createVersionFinished(applicationName, versionLabel, s3BucketName, s3ObjectKey);
+  }
+
+  @Override
+  void createVersionSkipped(@NotNull String applicationName, @NotNull String versionLabel) {
+    for (AWSClient.Listener l : myListeners) l.createVersionSkipped(applicationName, versionLabel);
+  }
+
+  @Override
+  void versionProcessed(@NotNull String applicationName, @NotNull String versionLabel, long durationMillis) {
+    for (AWSClient.Listener l : myListeners) l.versionProcessed(applicationName, versionLabel, durationMillis);
+  }
+
+  @Override
+  void rollbackStarted(@NotNull String environmentName, @NotNull String failedVersionLabel, @NotNull String versionLabel) {
+    for (AWSClient.Listener l : myListeners) l.rollbackStarted(environmentName, failedVersionLabel, versionLabel);
+  }
+
+  @Override
+  void rollbackFinished(@NotNull String environmentName, @NotNull String versionLabel, boolean succeeded) {
+    for (AWSClient.Listener l : myListeners) l.rollbackFinished(environmentName, versionLabel, succeeded);
+  }
+
+  @Override
+  void bundleCopyStarted(@NotNull String sourceBucketName, @NotNull String targetBucketName, @NotNull String key, long size) {
+    for (AWSClient.Listener l : myListeners) l.bundleCopyStarted(sourceBucketName, targetBucketName, key, size);
+  }
+
+  @Override
+  void bundleCopySkipped(@NotNull String targetBucketName, @NotNull String key) {
+    for (AWSClient.Listener l : myListeners) l.bundleCopySkipped(targetBucketName, key);
+  }
+
+  @Override
+  void bundleCopyFinished(@NotNull String targetBucketName, @NotNull String key, int parts) {
+    for (AWSClient.Listener l : myListeners) l.bundleCopyFinished(targetBucketName, key, parts);
+  }
+
+  @Override
+  void environmentNotReady(@NotNull String environmentName, @NotNull String status) {
+    for (AWSClient.Listener l : myListeners) l.environmentNotReady(environmentName, status);
+  }
+
+  @Override
+  void optionSettingsApplied(@NotNull String environmentName, @NotNull List<ConfigurationOptionSetting> optionSettings) {
+    for (AWSClient.Listener l : myListeners) l.optionSettingsApplied(environmentName, optionSettings);
+  }
+
+  @Override
+  void deploymentPlanned(@NotNull String environmentName, @NotNull String versionLabel, @NotNull DeploymentPlan plan) {
+    for (AWSClient.Listener l : myListeners) l.deploymentPlanned(environmentName, versionLabel, plan);
+  }
+
+  @Override
+  void optionSettingsUpToDate(@NotNull String environmentName) {
+    for (AWSClient.Listener l : myListeners) l.optionSettingsUpToDate(environmentName);
+  }
+
+  @Override
+  void deploymentStarted(@NotNull String environmentId, @NotNull String environmentName, @NotNull String versionLabel) {
+    for (AWSClient.Listener l : myListeners) l.deploymentStarted(environmentId, environmentName, versionLabel);
+  }
+
+  @Override
+  void deploymentWaitStarted(@NotNull String environmentName) {
+    for (AWSClient.Listener l : myListeners) l.deploymentWaitStarted(environmentName);
+  }
+
+  @Override
+  void deploymentInProgress(@NotNull String environmentName, @Nullable Long etaSec) {
+    for (AWSClient.Listener l : myListeners) l.deploymentInProgress(environmentName, etaSec);
+  }
+
+  @Override
+  void deploymentUpdate(@NotNull String message, @Nullable String severity) {
+    for (AWSClient.Listener l : myListeners) l.deploymentUpdate(message, severity);
+  }
+
+  @Override
+  void environmentPolled(@NotNull String environmentName, @NotNull String status,
+                         @Nullable String health, @Nullable String versionLabel) {
+    for (AWSClient.Listener l : myListeners) l.environmentPolled(environmentName, status, health, versionLabel);
+  }
+
+  @Override
+  void apiCallFinished(@NotNull String operation, long durationMillis) {
+    for (AWSClient.Listener l : myListeners) l.apiCallFinished(operation, durationMillis);
+  }
+
+  @Override
+  void healthPolled(@NotNull String environmentName, @Nullable String healthStatus, int degradedInstances, int totalInstances) {
+    for (AWSClient.Listener l : myListeners) l.healthPolled(environmentName, healthStatus, degradedInstances, totalInstances);
+  }
+
+  @Override
+  void rolloutProgress(@NotNull String environmentName, @NotNull String versionLabel, int deployedInstances, int totalInstances,
+                       @Nullable Long etaSec) {
+    for (AWSClient.Listener l : myListeners) l.rolloutProgress(environmentName, versionLabel, deployedInstances, totalInstances, etaSec);
+  }
+
+  @Override
+  void deploymentFailed(@NotNull String applicationName, @NotNull String environmentName, @NotNull String versionLabel,
+                        @NotNull Boolean hasTimeout, @Nullable ErrorInfo errorInfo) {
+    for (AWSClient.Listener l : myListeners) l.deploymentFailed(applicationName, environmentName, versionLabel, hasTimeout, errorInfo);
+  }
+
+  @Override
+  void deploymentCancelled(@NotNull String environmentName, @NotNull String versionLabel) {
+    for (AWSClient.Listener l : myListeners) l.deploymentCancelled(environmentName, versionLabel);
+  }
+
+  @Override
+  void deploymentAbortStarted(@NotNull String environmentName) {
+    for (AWSClient.Listener l : myListeners) l.deploymentAbortStarted(environmentName);
+  }
+
+  @Override
+  void instanceLogsRetrieved(@NotNull String environmentName, int instances, @NotNull List<InstanceLogsDownloader.InstanceLog> logs) {
+    for (AWSClient.Listener l : myListeners) l.instanceLogsRetrieved(environmentName, instances, logs);
+  }
+
+  @Override
+  void deploymentAbortFinished(@NotNull String environmentName, boolean environmentReady) {
+    for (AWSClient.Listener l : myListeners) l.deploymentAbortFinished(environmentName, environmentReady);
+  }
+
+  @Override
+  void environmentCloneStarted(@NotNull String sourceEnvironmentName, @NotNull String environmentName) {
+    for (AWSClient.Listener l : myListeners) l.environmentCloneStarted(sourceEnvironmentName, environmentName);
+  }
+
+  @Override
+  void cnameSwapStarted(@NotNull String sourceEnvironmentName, @NotNull String destinationEnvironmentName) {
+    for (AWSClient.Listener l : myListeners) l.cnameSwapStarted(sourceEnvironmentName, destinationEnvironmentName);
+  }
+
+  @Override
+  void cnameSwapFinished(@NotNull String sourceEnvironmentName, @NotNull String destinationEnvironmentName, boolean environmentsReady) {
+    for (AWSClient.Listener l : myListeners) l.cnameSwapFinished(sourceEnvironmentName, destinationEnvironmentName, environmentsReady);
+  }
+
+  @Override
+  void deploymentSucceeded(@NotNull String versionLabel) {
+    for (AWSClient.Listener l : myListeners) l.deploymentSucceeded(versionLabel);
+  }
+
+  @Override
+  void exception(@NotNull AWSException exception) {
+    for (AWSClient.Listener l : myListeners) l.exception(exception);
+  }
+}
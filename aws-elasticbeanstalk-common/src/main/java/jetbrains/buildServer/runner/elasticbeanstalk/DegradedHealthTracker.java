@@ -0,0 +1,52 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+/**
+ * Detects that more than degradedPercent of the environment instances
+ * stay Degraded or Severe for at least degradedDurationSec seconds
+ */
+class DegradedHealthTracker {
+  private final int myDegradedPercent;
+  private final long myDegradedDurationMillis;
+  private long myDegradedSince = -1;
+
+  DegradedHealthTracker(int degradedPercent, int degradedDurationSec) {
+    myDegradedPercent = degradedPercent;
+    myDegradedDurationMillis = degradedDurationSec * 1000L;
+  }
+
+  /**
+   * @return true if the threshold has been exceeded for long enough
+   */
+  boolean update(int degradedInstances, int totalInstances, long timeMillis) {
+    if (totalInstances <= 0 || degradedInstances * 100L <= myDegradedPercent * (long) totalInstances) {
+      myDegradedSince = -1;
+      return false;
+    }
+    if (myDegradedSince < 0) myDegradedSince = timeMillis;
+    return timeMillis - myDegradedSince >= myDegradedDurationMillis;
+  }
+
+  int getDegradedPercent() {
+    return myDegradedPercent;
+  }
+
+  long getDegradedDurationSec() {
+    return myDegradedDurationMillis / 1000;
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentHealth;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Steps needed for the environment to run the version, decided from the current application and environment state
+ */
+class DeploymentPlan {
+  private final boolean myCreateVersion;
+  private final boolean myDeploy;
+  private final boolean myVersionChecked;
+  @NotNull
+  private final String myReason;
+
+  private DeploymentPlan(boolean createVersion, boolean deploy, boolean versionChecked, @NotNull String reason) {
+    myCreateVersion = createVersion;
+    myDeploy = deploy;
+    myVersionChecked = versionChecked;
+    myReason = reason;
+  }
+
+  /**
+   * @return plan creating and deploying the version without any knowledge of the current state
+   */
+  @NotNull
+  static DeploymentPlan full(@NotNull String reason) {
+    return new DeploymentPlan(true, true, false, reason);
+  }
+
+  /**
+   * @param environment           the environment to deploy to, null if it doesn't exist
+   * @param optionSettingsChanged whether the configured option settings differ from the environment configuration
+   */
+  @NotNull
+  static DeploymentPlan create(@NotNull String versionLabel, boolean versionExists, boolean skipDuplicateVersions,
+                               @Nullable EnvironmentDescription environment, boolean optionSettingsChanged) {
+    // an existing version is reused only if allowed, otherwise creating it again reports the duplicate as before
+    final boolean createVersion = !versionExists || !skipDuplicateVersions;
+
+    if (environment == null) {
+      return new DeploymentPlan(createVersion, true, true, "environment doesn't exist");
+    }
+    if (!versionLabel.equals(environment.getVersionLabel())) {
+      return new DeploymentPlan(createVersion, true, true, "environment runs version " + environment.getVersionLabel());
+    }
+    if (!versionExists) {
+      return new DeploymentPlan(true, true, true, "version doesn't exist");
+    }
+    if (!EnvironmentStatus.Ready.toString().equals(environment.getStatus())) {
+      return new DeploymentPlan(createVersion, true, true, "environment is " + environment.getStatus());
+    }
+    if (EnvironmentHealth.Red.toString().equals(environment.getHealth())) {
+      return new DeploymentPlan(createVersion, true, true, "environment health is Red");
+    }
+    if (optionSettingsChanged) {
+      return new DeploymentPlan(createVersion, true, true, "option settings changed");
+    }
+    if (createVersion) {
+      return new DeploymentPlan(true, true, true, "version exists and duplicate versions aren't skipped");
+    }
+    return new DeploymentPlan(false, false, true, "environment is Ready on version " + versionLabel);
+  }
+
+  boolean isCreateVersion() {
+    return myCreateVersion;
+  }
+
+  boolean isDeploy() {
+    return myDeploy;
+  }
+
+  boolean isNothingToDo() {
+    return !myCreateVersion && !myDeploy;
+  }
+
+  /**
+   * @return true if the version existence is already known, so it needn't be checked again before creation
+   */
+  boolean isVersionChecked() {
+    return myVersionChecked;
+  }
+
+  @NotNull
+  String getReason() {
+    return myReason;
+  }
+
+  @NotNull
+  String describe() {
+    if (isNothingToDo()) return "nothing to do, " + myReason;
+    return (myCreateVersion ? "create version and deploy it" : "deploy existing version") + ", " + myReason;
+  }
+}
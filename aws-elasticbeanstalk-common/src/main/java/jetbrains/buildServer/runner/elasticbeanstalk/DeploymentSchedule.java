@@ -0,0 +1,120 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Wait timeout, poll intervals and ETA for a deployment.
+ * <p>
+ * When the environment deployment history is known (p50 and p95 of the previous successful deployment durations),
+ * the timeout defaults to p95 plus a safety margin, polling is sparse before the expected finish time
+ * and dense around it.
+ */
+final class DeploymentSchedule {
+  static final int MIN_POLL_INTERVAL_SEC = 5;
+  static final int MIN_TIMEOUT_MARGIN_SEC = 300;
+
+  private final int myTimeoutSec;
+  private final int myPollIntervalSec;
+  @Nullable
+  private final Integer myP50Sec;
+  @Nullable
+  private final Integer myP95Sec;
+
+  private DeploymentSchedule(int timeoutSec, int pollIntervalSec, @Nullable Integer p50Sec, @Nullable Integer p95Sec) {
+    myTimeoutSec = timeoutSec;
+    myPollIntervalSec = pollIntervalSec;
+    myP50Sec = p50Sec;
+    myP95Sec = p95Sec;
+  }
+
+  /**
+   * @param timeoutSec      explicit timeout, if null the timeout is derived from the history
+   * @param pollIntervalSec base poll interval
+   * @param p50Sec          median of the previous deployment durations, if known
+   * @param p95Sec          95th percentile of the previous deployment durations, if known
+   */
+  @NotNull
+  static DeploymentSchedule create(@Nullable Integer timeoutSec, int pollIntervalSec, @Nullable Integer p50Sec, @Nullable Integer p95Sec) {
+    if (p50Sec != null && p95Sec != null && p95Sec < p50Sec) p95Sec = p50Sec;
+    return new DeploymentSchedule(timeoutSec != null ? timeoutSec : getDefaultTimeoutSec(p95Sec), pollIntervalSec, p50Sec, p95Sec);
+  }
+
+  /**
+   * The same as {@link #create} but without history
+   */
+  @NotNull
+  static DeploymentSchedule fixed(int timeoutSec, int pollIntervalSec) {
+    return create(timeoutSec, pollIntervalSec, null, null);
+  }
+
+  /**
+   * @return the same schedule with another timeout, e.g. the time left for a follow-up wait
+   */
+  @NotNull
+  DeploymentSchedule withTimeoutSec(int timeoutSec) {
+    return new DeploymentSchedule(timeoutSec, myPollIntervalSec, myP50Sec, myP95Sec);
+  }
+
+  private static int getDefaultTimeoutSec(@Nullable Integer p95Sec) {
+    if (p95Sec == null) return ElasticBeanstalkConstants.WAIT_TIMEOUT_SEC_DEFAULT;
+    return p95Sec + Math.max(p95Sec / 2, MIN_TIMEOUT_MARGIN_SEC);
+  }
+
+  int getTimeoutSec() {
+    return myTimeoutSec;
+  }
+
+  boolean isAdaptive() {
+    return myP50Sec != null;
+  }
+
+  /**
+   * @return seconds to wait before the next poll of a deployment running for elapsedSec seconds
+   */
+  int getPollIntervalSec(long elapsedSec) {
+    int interval = myPollIntervalSec;
+
+    if (myP50Sec != null) {
+      final long denseStart = myP50Sec * 3L / 4;
+      final long denseEnd = myP95Sec != null ? myP95Sec : myP50Sec * 3L / 2;
+
+      if (elapsedSec < denseStart) {
+        interval = (int) Math.min(myPollIntervalSec * 3L, denseStart - elapsedSec);
+      } else if (elapsedSec <= denseEnd) {
+        interval = myPollIntervalSec / 2;
+      }
+    }
+
+    final long untilTimeout = myTimeoutSec - elapsedSec;
+    if (untilTimeout > 0 && untilTimeout < interval) interval = (int) untilTimeout;
+
+    return Math.max(interval, Math.min(MIN_POLL_INTERVAL_SEC, myPollIntervalSec));
+  }
+
+  /**
+   * @return estimated seconds left for a deployment running for elapsedSec seconds, null if unknown
+   */
+  @Nullable
+  Long getEtaSec(long elapsedSec) {
+    if (myP50Sec != null && elapsedSec < myP50Sec) return myP50Sec - elapsedSec;
+    if (myP95Sec != null && elapsedSec < myP95Sec) return myP95Sec - elapsedSec;
+    return null;
+  }
+}
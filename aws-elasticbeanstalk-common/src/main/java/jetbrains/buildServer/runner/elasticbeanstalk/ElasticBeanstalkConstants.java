@@ -38,6 +38,16 @@ public interface ElasticBeanstalkConstants {
   String S3_OBJECT_KEY_PARAM = "elasticbeanstalk_s3_object_key";
   String S3_OBJECT_KEY_LABEL = "S3 object key";
 
+  String ADDITIONAL_REGIONS_PARAM = "elasticbeanstalk_additional_regions";
+  String ADDITIONAL_REGIONS_LABEL = "Additional regions";
+
+  String REGIONAL_S3_BUCKET_NAME_PARAM = "elasticbeanstalk_regional_s3_bucket_name";
+  String REGIONAL_S3_BUCKET_NAME_LABEL = "S3 bucket in additional regions";
+  String REGION_PLACEHOLDER = "{region}";
+
+  String REPLICATE_BUNDLE_PARAM = "elasticbeanstalk_replicate_bundle";
+  String REPLICATE_BUNDLE_LABEL = "Copy version to regional buckets";
+
   String ENV_NAME_PARAM = "elasticbeanstalk_environment_name";
   String ENV_NAME_LABEL = "Environment Name";
 
@@ -50,14 +60,121 @@ public interface ElasticBeanstalkConstants {
   String APP_VERSION_SKIP_DUPE_PARAM = "elasticbeanstalk_version_skip_dupe_label";
   String APP_VERSION_SKIP_DUPE_LABEL = "Skip Upload If Application Version Already Exists?";
 
+  String DEPLOYMENT_MODE_PARAM = "elasticbeanstalk_deployment_mode";
+  String DEPLOYMENT_MODE_LABEL = "Deployment mode";
+  String DEPLOYMENT_MODE_IN_PLACE = "in_place";
+  String DEPLOYMENT_MODE_BLUE_GREEN = "blue_green";
+
+  String IDLE_ENV_NAME_PARAM = "elasticbeanstalk_idle_environment_name";
+  String IDLE_ENV_NAME_LABEL = "Twin Environment Name";
+
+  String LIVE_CNAME_PREFIX_PARAM = "elasticbeanstalk_live_cname_prefix";
+  String LIVE_CNAME_PREFIX_LABEL = "Live CNAME Prefix";
+
+  String SKIP_SUPERSEDED_PARAM = "elasticbeanstalk_skip_superseded";
+  String SKIP_SUPERSEDED_LABEL = "Skip superseded deployments";
+
+  String PROCESS_VERSION_PARAM = "elasticbeanstalk_process_version";
+  String PROCESS_VERSION_LABEL = "Validate version before deployment";
+
+  // aws:elasticbeanstalk:command options passed with the environment update
+  String COMMAND_NAMESPACE = "aws:elasticbeanstalk:command";
+
+  String DEPLOYMENT_POLICY_PARAM = "elasticbeanstalk_deployment_policy";
+  String DEPLOYMENT_POLICY_LABEL = "Deployment policy";
+
+  String BATCH_SIZE_TYPE_PARAM = "elasticbeanstalk_batch_size_type";
+  String BATCH_SIZE_TYPE_LABEL = "Batch size type";
+  String BATCH_SIZE_TYPE_PERCENTAGE = "Percentage";
+  String BATCH_SIZE_TYPE_FIXED = "Fixed";
+
+  String BATCH_SIZE_PARAM = "elasticbeanstalk_batch_size";
+  String BATCH_SIZE_LABEL = "Batch size";
+
+  String IGNORE_HEALTH_CHECK_PARAM = "elasticbeanstalk_ignore_health_check";
+  String IGNORE_HEALTH_CHECK_LABEL = "Ignore health check";
+
+  String COMMAND_TIMEOUT_SEC_PARAM = "elasticbeanstalk_command_timeout_sec";
+  String COMMAND_TIMEOUT_SEC_LABEL = "Command timeout (seconds)";
+
+  String OPTION_SETTINGS_PARAM = "elasticbeanstalk_option_settings";
+  String OPTION_SETTINGS_LABEL = "Option settings";
+
   String WAIT_FLAG_PARAM = "elasticbeanstalk_wait";
   String WAIT_FLAG_LABEL = "Wait for deployment finish";
 
   String WAIT_TIMEOUT_SEC_PARAM = "elasticbeanstalk_wait_timeout_sec";
   String WAIT_TIMEOUT_SEC_LABEL = "Timeout (seconds)";
+  int WAIT_TIMEOUT_SEC_DEFAULT = 1800;
+
+  String SERVER_WAIT_PARAM = "elasticbeanstalk_server_wait";
+  String SERVER_WAIT_LABEL = "Wait on server";
+
+  String NOTIFICATION_QUEUE_URL_PARAM = "elasticbeanstalk_notification_queue_url";
+  String NOTIFICATION_QUEUE_URL_LABEL = "Notifications SQS queue URL";
+
+  String ABORT_ON_FAILURE_PARAM = "elasticbeanstalk_abort_on_failure";
+  String ABORT_ON_FAILURE_LABEL = "Abort update on failure";
+
+  String ROLLBACK_ON_FAILURE_PARAM = "elasticbeanstalk_rollback_on_failure";
+  String ROLLBACK_ON_FAILURE_LABEL = "Roll back on failure";
+
+  String HEALTH_DEGRADED_PERCENT_PARAM = "elasticbeanstalk_health_degraded_percent";
+  String HEALTH_DEGRADED_PERCENT_LABEL = "Fail on degraded instances (%)";
+
+  String HEALTH_DEGRADED_DURATION_SEC_PARAM = "elasticbeanstalk_health_degraded_duration_sec";
+  String HEALTH_DEGRADED_DURATION_SEC_LABEL = "Degraded for (seconds)";
+  int HEALTH_DEGRADED_DURATION_SEC_DEFAULT = 120;
 
   String WAIT_POLL_INTERVAL_SEC_CONFIG_PARAM = "elasticbeanstalk.wait.poll.interval.sec";
   int WAIT_POLL_INTERVAL_SEC_DEFAULT = 20;
 
+  String LOG_MAX_MESSAGES_PER_MIN_CONFIG_PARAM = "elasticbeanstalk.log.max.messages.per.min";
+  int LOG_MAX_MESSAGES_PER_MIN_DEFAULT = 6;
+
+  // set to false to skip retrieving the instance logs tail on deployment failure
+  String INSTANCE_LOGS_CONFIG_PARAM = "elasticbeanstalk.instance.logs";
+  String INSTANCE_LOGS_MAX_KB_CONFIG_PARAM = "elasticbeanstalk.instance.logs.max.kb";
+  int INSTANCE_LOGS_MAX_KB_DEFAULT = 1024;
+
+  String PREFLIGHT_TIMEOUT_SEC_CONFIG_PARAM = "elasticbeanstalk.preflight.timeout.sec";
+  int PREFLIGHT_TIMEOUT_SEC_DEFAULT = 5;
+
+  // set to false to redeploy even if the environment is already Ready on the version
+  String SKIP_UNCHANGED_CONFIG_PARAM = "elasticbeanstalk.skip.unchanged";
+
+  // runner parameters added by the server from the environment deployment history
+  String HISTORY_P50_SEC_PARAM = "elasticbeanstalk_history_p50_sec";
+  String HISTORY_P95_SEC_PARAM = "elasticbeanstalk_history_p95_sec";
+  int HISTORY_MIN_SAMPLES = 3;
+  // the version of the last successful deployment to the environment, added if rollback on failure is enabled
+  String LAST_GOOD_VERSION_PARAM = "elasticbeanstalk_last_good_version";
+
+  // runner parameter added by the server when a newer build deploying to the same environment is queued
+  String SUPERSEDED_BY_PARAM = "elasticbeanstalk_superseded_by";
+
+  String DEPLOYMENT_SERVICE_MESSAGE = "elasticBeanstalkDeployment";
+  String DEPLOYMENT_REGION_ATTR = "region";
+  String DEPLOYMENT_APPLICATION_ATTR = "application";
+  String DEPLOYMENT_ENVIRONMENT_ATTR = "environment";
+  String DEPLOYMENT_VERSION_ATTR = "version";
+  String DEPLOYMENT_STATUS_ATTR = "status";
+  String DEPLOYMENT_DURATION_SEC_ATTR = "durationSec";
+  String DEPLOYMENT_STATUS_SUCCESS = "success";
+  String DEPLOYMENT_STATUS_FAILURE = "failure";
+  String DEPLOYMENT_STATUS_TIMEOUT = "timeout";
+
+  // sent by the agent to hand waiting for the started environment update over to the server
+  String WATCH_SERVICE_MESSAGE = "elasticBeanstalkWatch";
+  String WATCH_ENVIRONMENT_ID_ATTR = "environmentId";
+  String WATCH_STEP_ID_ATTR = "stepId";
+  String WATCH_TIMEOUT_SEC_ATTR = "timeoutSec";
+
+  // build statistics of the instances rollout, the keys are suffixed with the region name so that regions don't overwrite each other
+  String INSTANCES_DEPLOYED_STATISTIC = "elasticbeanstalk.instances.deployed";
+  String INSTANCES_TOTAL_STATISTIC = "elasticbeanstalk.instances.total";
+
+  String ARTIFACTS_PATH = ".teamcity/elasticbeanstalk";
+
   String STATUS_IS_UNKNOWN = "status is unknown";
 }
@@ -16,21 +16,209 @@
 
 package jetbrains.buildServer.runner.elasticbeanstalk;
 
+import com.amazonaws.services.elasticbeanstalk.model.ConfigurationOptionSetting;
 import jetbrains.buildServer.util.FileUtil;
 import jetbrains.buildServer.util.StringUtil;
+import jetbrains.buildServer.util.amazon.AWSCommonParams;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Collection;
-import java.util.Map;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import static jetbrains.buildServer.runner.elasticbeanstalk.ElasticBeanstalkConstants.WAIT_FLAG_PARAM;
+import static jetbrains.buildServer.runner.elasticbeanstalk.ElasticBeanstalkConstants.*;
 
 final class ElasticBeanstalkUtil {
+  // namespace may contain colons, the option name may not
+  private static final Pattern OPTION_SETTING_PATTERN = Pattern.compile("([^=]+):([^:=]+)=(.*)");
 
   static boolean isDeploymentWaitEnabled(@NotNull Map<String, String> params) {
-    return Boolean.parseBoolean(params.get(WAIT_FLAG_PARAM));
+    // CNAMEs can be swapped only after the idle environment is updated
+    return Boolean.parseBoolean(params.get(WAIT_FLAG_PARAM)) || isBlueGreenDeployment(params);
+  }
+
+  /**
+   * @return true if the agent only starts the environment update and the server waits for it to finish
+   */
+  static boolean isServerWaitEnabled(@NotNull Map<String, String> params) {
+    // the CNAME swap must follow the idle environment update on the agent
+    return isDeploymentWaitEnabled(params) && Boolean.parseBoolean(params.get(SERVER_WAIT_PARAM)) && !isBlueGreenDeployment(params);
+  }
+
+  static boolean isBlueGreenDeployment(@NotNull Map<String, String> params) {
+    return DEPLOYMENT_MODE_BLUE_GREEN.equals(params.get(DEPLOYMENT_MODE_PARAM));
+  }
+
+  /**
+   * @param cname environment CNAME, e.g. myapp.us-east-1.elasticbeanstalk.com
+   * @return true if the CNAME has the prefix, e.g. myapp
+   */
+  @Contract("null, _ -> false")
+  static boolean hasCnamePrefix(@Nullable String cname, @NotNull String cnamePrefix) {
+    return cname != null && cname.toLowerCase().startsWith(cnamePrefix.trim().toLowerCase() + ".");
+  }
+
+  /**
+   * @return the main region followed by the additional regions the version is deployed to
+   */
+  @NotNull
+  static List<String> getRegionNames(@NotNull Map<String, String> params) {
+    final Set<String> regionNames = new LinkedHashSet<String>();
+    final String regionName = AWSCommonParams.getRegionName(params);
+    if (StringUtil.isNotEmpty(regionName)) regionNames.add(regionName.trim());
+    regionNames.addAll(getAdditionalRegionNames(params));
+    return new ArrayList<String>(regionNames);
+  }
+
+  @NotNull
+  static List<String> getAdditionalRegionNames(@NotNull Map<String, String> params) {
+    final List<String> regionNames = new ArrayList<String>();
+    final String additionalRegions = params.get(ADDITIONAL_REGIONS_PARAM);
+    if (StringUtil.isEmptyOrSpaces(additionalRegions)) return regionNames;
+
+    for (String regionName : additionalRegions.trim().split("[,\\s]+")) {
+      if (!regionNames.contains(regionName)) regionNames.add(regionName);
+    }
+    return regionNames;
+  }
+
+  /**
+   * @return runner parameters for deploying to the region, with the region bucket instead of the main one,
+   * the notification queue is kept only if its URL depends on the region, the last good version is known for the main region only
+   */
+  @NotNull
+  static Map<String, String> getRegionParameters(@NotNull Map<String, String> params, @NotNull String regionName) {
+    if (regionName.equals(AWSCommonParams.getRegionName(params))) return params;
+
+    final Map<String, String> regionParams = new HashMap<String, String>(params);
+    regionParams.put(AWSCommonParams.REGION_NAME_PARAM, regionName);
+    regionParams.put(S3_BUCKET_NAME_PARAM, getRegionalBucketName(params, regionName));
+    final String queueUrl = params.get(NOTIFICATION_QUEUE_URL_PARAM);
+    if (queueUrl != null && !queueUrl.contains(REGION_PLACEHOLDER)) regionParams.remove(NOTIFICATION_QUEUE_URL_PARAM);
+    regionParams.remove(LAST_GOOD_VERSION_PARAM);
+    return regionParams;
+  }
+
+  /**
+   * @return the notification queue URL in the parameters region, null if no queue is configured
+   */
+  @Nullable
+  static String getNotificationQueueUrl(@NotNull Map<String, String> params) {
+    final String queueUrl = StringUtil.nullIfEmpty(params.get(NOTIFICATION_QUEUE_URL_PARAM));
+    if (queueUrl == null) return null;
+    final String regionName = AWSCommonParams.getRegionName(params);
+    return regionName == null ? queueUrl.trim() : queueUrl.trim().replace(REGION_PLACEHOLDER, regionName);
+  }
+
+  @NotNull
+  static String getRegionalBucketName(@NotNull Map<String, String> params, @NotNull String regionName) {
+    return params.get(REGIONAL_S3_BUCKET_NAME_PARAM).trim().replace(REGION_PLACEHOLDER, regionName);
+  }
+
+  /**
+   * @return option settings to pass with the environment update: the deployment policy fields
+   * followed by the free-form namespace:OptionName=value lines, later settings of the same option win
+   */
+  @NotNull
+  static List<ConfigurationOptionSetting> getOptionSettings(@NotNull Map<String, String> params) {
+    final Map<String, ConfigurationOptionSetting> settings = new LinkedHashMap<String, ConfigurationOptionSetting>();
+    addOptionSetting(settings, COMMAND_NAMESPACE, "DeploymentPolicy", params.get(DEPLOYMENT_POLICY_PARAM));
+    addOptionSetting(settings, COMMAND_NAMESPACE, "BatchSizeType", params.get(BATCH_SIZE_TYPE_PARAM));
+    addOptionSetting(settings, COMMAND_NAMESPACE, "BatchSize", params.get(BATCH_SIZE_PARAM));
+    if (Boolean.parseBoolean(params.get(IGNORE_HEALTH_CHECK_PARAM))) {
+      addOptionSetting(settings, COMMAND_NAMESPACE, "IgnoreHealthCheck", "true");
+    }
+    addOptionSetting(settings, COMMAND_NAMESPACE, "Timeout", params.get(COMMAND_TIMEOUT_SEC_PARAM));
+
+    for (String line : getOptionSettingLines(params)) {
+      final Matcher m = OPTION_SETTING_PATTERN.matcher(line);
+      if (m.matches()) addOptionSetting(settings, m.group(1).trim(), m.group(2).trim(), m.group(3).trim());
+    }
+    return new ArrayList<ConfigurationOptionSetting>(settings.values());
+  }
+
+  @NotNull
+  static String describe(@NotNull Collection<ConfigurationOptionSetting> optionSettings) {
+    final StringBuilder sb = new StringBuilder();
+    for (ConfigurationOptionSetting setting : optionSettings) {
+      if (sb.length() > 0) sb.append(", ");
+      sb.append(setting.getNamespace()).append(':').append(setting.getOptionName()).append('=').append(setting.getValue());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @param current the environment configuration as returned by DescribeConfigurationSettings
+   * @return desired settings which are absent from the environment configuration or have another value there
+   */
+  @NotNull
+  static List<ConfigurationOptionSetting> getChangedOptionSettings(@NotNull List<ConfigurationOptionSetting> desired,
+                                                                   @NotNull Collection<ConfigurationOptionSetting> current) {
+    final Map<String, String> currentValues = new HashMap<String, String>();
+    for (ConfigurationOptionSetting setting : current) {
+      currentValues.put(setting.getNamespace() + ":" + setting.getOptionName(), StringUtil.emptyIfNull(setting.getValue()));
+    }
+
+    final List<ConfigurationOptionSetting> changed = new ArrayList<ConfigurationOptionSetting>();
+    for (ConfigurationOptionSetting setting : desired) {
+      final String currentValue = currentValues.get(setting.getNamespace() + ":" + setting.getOptionName());
+      if (!StringUtil.emptyIfNull(setting.getValue()).equals(currentValue)) changed.add(setting);
+    }
+    return changed;
+  }
+
+  /**
+   * @return free-form option setting lines which don't match namespace:OptionName=value
+   */
+  @NotNull
+  static List<String> getInvalidOptionSettings(@NotNull Map<String, String> params) {
+    final List<String> invalids = new ArrayList<String>();
+    for (String line : getOptionSettingLines(params)) {
+      if (!OPTION_SETTING_PATTERN.matcher(line).matches()) invalids.add(line);
+    }
+    return invalids;
+  }
+
+  @NotNull
+  private static List<String> getOptionSettingLines(@NotNull Map<String, String> params) {
+    final List<String> lines = new ArrayList<String>();
+    final String optionSettings = params.get(OPTION_SETTINGS_PARAM);
+    if (StringUtil.isEmptyOrSpaces(optionSettings)) return lines;
+
+    for (String line : optionSettings.split("[\\r\\n]+")) {
+      line = line.trim();
+      if (line.length() > 0 && !line.startsWith("#")) lines.add(line);
+    }
+    return lines;
+  }
+
+  private static void addOptionSetting(@NotNull Map<String, ConfigurationOptionSetting> settings,
+                                       @NotNull String namespace, @NotNull String optionName, @Nullable String value) {
+    if (StringUtil.isEmptyOrSpaces(value)) return;
+    settings.put(namespace + ":" + optionName, new ConfigurationOptionSetting(namespace, optionName, value.trim()));
+  }
+
+  @Nullable
+  static Integer getIntegerOrNull(@Nullable String val) {
+    try {
+      if (StringUtil.isNotEmpty(val)) return Integer.parseInt(val.trim());
+    } catch (NumberFormatException e) { /* see below */ }
+    return null;
+  }
+
+  /**
+   * Identifies an environment across builds and build configurations
+   */
+  @NotNull
+  static String getEnvironmentKey(@NotNull String regionName, @NotNull String applicationName, @NotNull String environmentName) {
+    return regionName + "/" + applicationName + "/" + environmentName;
+  }
+
+  @NotNull
+  static String formatDuration(long seconds) {
+    return String.format("%02d:%02d", seconds / 60, seconds % 60);
   }
 
   @NotNull
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.amazonaws.util.json.Jackson;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ElasticBeanstalk environment event published to the environment SNS topic, e.g.
+ * <pre>
+ * Timestamp: Wed Mar 08 10:15:42 UTC 2017
+ * Message: Environment update completed successfully.
+ *
+ * Environment: my-env
+ * Application: my-app
+ * </pre>
+ */
+class EnvironmentNotification {
+  @NotNull
+  private final String myEnvironmentName;
+  @NotNull
+  private final String myMessage;
+
+  EnvironmentNotification(@NotNull String environmentName, @NotNull String message) {
+    myEnvironmentName = environmentName;
+    myMessage = message;
+  }
+
+  /**
+   * @param body SQS message body, either the SNS notification JSON or the raw notification message
+   * @return null if the body isn't an ElasticBeanstalk environment notification
+   */
+  @Nullable
+  static EnvironmentNotification parse(@NotNull String body) {
+    String text = body;
+    if (body.trim().startsWith("{")) {
+      try {
+        final JsonNode message = Jackson.jsonNodeOf(body).get("Message");
+        if (message == null) return null;
+        text = message.asText();
+      } catch (RuntimeException e) {
+        return null;
+      }
+    }
+
+    final Map<String, String> fields = new HashMap<String, String>();
+    for (String line : text.split("\\r?\\n")) {
+      final int colon = line.indexOf(':');
+      if (colon > 0) fields.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+    }
+
+    final String environmentName = fields.get("Environment");
+    final String message = fields.get("Message");
+    if (environmentName == null || message == null) return null;
+    return new EnvironmentNotification(environmentName, message);
+  }
+
+  @NotNull
+  String getEnvironmentName() {
+    return myEnvironmentName;
+  }
+
+  @NotNull
+  String getMessage() {
+    return myMessage;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQS queue subscribed to the SNS topic the ElasticBeanstalk environments publish their events to.
+ * <p>
+ * Notifications of the other environments are left in the queue, so the queue may be shared,
+ * but a queue per environment avoids receiving them over and over.
+ */
+class EnvironmentNotificationQueue {
+  // SQS long polling limit
+  static final int MAX_WAIT_SEC = 20;
+  private static final String SENT_TIMESTAMP = "SentTimestamp";
+
+  @NotNull
+  private final AmazonSQS mySQSClient;
+  @NotNull
+  private final String myQueueUrl;
+
+  EnvironmentNotificationQueue(@NotNull AmazonSQS sqsClient, @NotNull String queueUrl) {
+    mySQSClient = sqsClient;
+    myQueueUrl = queueUrl;
+  }
+
+  /**
+   * Long-polls the queue for the environment notifications and deletes the received ones
+   *
+   * @param since   notifications sent earlier are deleted without being returned
+   * @param waitSec up to {@link #MAX_WAIT_SEC}
+   * @return notifications in the order they were received, empty if none arrived in time
+   */
+  @NotNull
+  List<EnvironmentNotification> receive(@NotNull String environmentName, long since, int waitSec) {
+    final List<Message> messages = mySQSClient.receiveMessage(new ReceiveMessageRequest(myQueueUrl)
+      .withWaitTimeSeconds(Math.max(0, Math.min(waitSec, MAX_WAIT_SEC)))
+      .withMaxNumberOfMessages(10)
+      .withAttributeNames(SENT_TIMESTAMP))
+      .getMessages();
+
+    final List<EnvironmentNotification> notifications = new ArrayList<EnvironmentNotification>();
+    final List<DeleteMessageBatchRequestEntry> received = new ArrayList<DeleteMessageBatchRequestEntry>();
+    for (Message message : messages) {
+      final EnvironmentNotification notification = EnvironmentNotification.parse(message.getBody());
+      if (notification == null || !environmentName.equals(notification.getEnvironmentName())) continue;
+
+      received.add(new DeleteMessageBatchRequestEntry(String.valueOf(received.size()), message.getReceiptHandle()));
+      if (getSentTimestamp(message) >= since) notifications.add(notification);
+    }
+
+    if (!received.isEmpty()) mySQSClient.deleteMessageBatch(new DeleteMessageBatchRequest(myQueueUrl, received));
+    return notifications;
+  }
+
+  private static long getSentTimestamp(@NotNull Message message) {
+    final String sent = message.getAttributes() == null ? null : message.getAttributes().get(SENT_TIMESTAMP);
+    try {
+      return sent == null ? Long.MAX_VALUE : Long.parseLong(sent);
+    } catch (NumberFormatException e) {
+      return Long.MAX_VALUE;
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentInfoDescription;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.util.amazon.AWSException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Downloads the instance logs ElasticBeanstalk published by presigned URLs.
+ * <p>
+ * Instances are downloaded in parallel, each log is written to its own file. Failures are at the end of a log,
+ * so only its tail up to the size limit is kept.
+ */
+class InstanceLogsDownloader {
+  static final int MAX_PARALLEL_DOWNLOADS = 4;
+  static final int LAST_LINES = 5;
+  // the rest of a longer line is skipped, e.g. of a dumped binary
+  static final int MAX_LINE_CHARS = 8192;
+  private static final int TIMEOUT_MS = 30000;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final long myMaxBytes;
+
+  /**
+   * @param maxBytes the beginning of a longer log is skipped
+   */
+  InstanceLogsDownloader(long maxBytes) {
+    myMaxBytes = maxBytes;
+  }
+
+  /**
+   * @return results in the order of the infos, a failed download doesn't stop the others
+   */
+  @NotNull
+  List<InstanceLog> download(@NotNull List<EnvironmentInfoDescription> infos, @NotNull final File directory) {
+    final List<InstanceLog> logs = new ArrayList<InstanceLog>(infos.size());
+    if (infos.isEmpty()) return logs;
+
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_PARALLEL_DOWNLOADS, infos.size()));
+    try {
+      final List<Future<InstanceLog>> results = new ArrayList<Future<InstanceLog>>(infos.size());
+      for (final EnvironmentInfoDescription info : infos) {
+        results.add(executor.submit(new Callable<InstanceLog>() {
+          @Override
+          public InstanceLog call() {
+            return download(info.getEc2InstanceId(), info.getMessage(), new File(directory, info.getEc2InstanceId() + ".log"));
+          }
+        }));
+      }
+
+      for (int i = 0; i < results.size(); ++i) {
+        try {
+          logs.add(results.get(i).get());
+        } catch (ExecutionException e) {
+          logs.add(new InstanceLog(infos.get(i).getEc2InstanceId(), null, AWSException.getMessage(e.getCause())));
+        }
+      }
+      return logs;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return logs;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @NotNull
+  InstanceLog download(@NotNull String instanceId, @NotNull String url, @NotNull File file) {
+    InputStream in = null;
+    Writer out = null;
+    try {
+      final URLConnection connection = new URL(url).openConnection();
+      connection.setConnectTimeout(TIMEOUT_MS);
+      connection.setReadTimeout(TIMEOUT_MS);
+      in = connection.getInputStream();
+
+      //noinspection ResultOfMethodCallIgnored
+      file.getParentFile().mkdirs();
+      out = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+      return copy(instanceId, new BufferedReader(new InputStreamReader(in, UTF_8)), out, file);
+    } catch (IOException e) {
+      return new InstanceLog(instanceId, null, e.getMessage());
+    } finally {
+      FileUtil.close(in);
+      FileUtil.close(out);
+    }
+  }
+
+  @NotNull
+  InstanceLog copy(@NotNull String instanceId, @NotNull Reader in, @NotNull Writer out, @Nullable File file) throws IOException {
+    final InstanceLog log = new InstanceLog(instanceId, file, null);
+    final Deque<String> tail = new ArrayDeque<String>();
+    final StringBuilder sb = new StringBuilder();
+    while (readLine(in, sb)) {
+      final String line = sb.toString();
+      tail.addLast(line);
+      log.bytes += line.getBytes(UTF_8).length + 1;
+      while (log.bytes > myMaxBytes) {
+        log.bytes -= tail.removeFirst().getBytes(UTF_8).length + 1;
+        log.truncated = true;
+      }
+
+      log.lastLines.add(line);
+      if (log.lastLines.size() > LAST_LINES) log.lastLines.remove(0);
+    }
+
+    for (String line : tail) {
+      out.write(line);
+      out.write('\n');
+    }
+    return log;
+  }
+
+  /**
+   * Reads the next line without the line terminator into the cleared builder, up to {@link #MAX_LINE_CHARS}
+   *
+   * @return false at the end of the stream
+   */
+  private static boolean readLine(@NotNull Reader in, @NotNull StringBuilder sb) throws IOException {
+    sb.setLength(0);
+    int c = in.read();
+    if (c < 0) return false;
+    for (; c >= 0 && c != '\n'; c = in.read()) {
+      if (sb.length() < MAX_LINE_CHARS) sb.append((char) c);
+    }
+    if (sb.length() > 0 && sb.charAt(sb.length() - 1) == '\r') sb.setLength(sb.length() - 1);
+    return true;
+  }
+
+  static class InstanceLog {
+    @NotNull
+    final String instanceId;
+    @Nullable
+    final File file;
+    @Nullable
+    final String error;
+    long bytes;
+    boolean truncated;
+    @NotNull
+    final List<String> lastLines = new LinkedList<String>();
+
+    InstanceLog(@NotNull String instanceId, @Nullable File file, @Nullable String error) {
+      this.instanceId = instanceId;
+      this.file = file;
+      this.error = error;
+    }
+  }
+}
@@ -19,17 +19,37 @@ package jetbrains.buildServer.runner.elasticbeanstalk;
 import jetbrains.buildServer.parameters.ReferencesResolverUtil;
 import jetbrains.buildServer.util.StringUtil;
 import jetbrains.buildServer.util.amazon.AWSCommonParams;
+import jetbrains.buildServer.util.amazon.AWSRegions;
+import jetbrains.buildServer.util.amazon.AWSTransport;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Pattern;
 
 import static jetbrains.buildServer.runner.elasticbeanstalk.ElasticBeanstalkConstants.*;
 import static jetbrains.buildServer.runner.elasticbeanstalk.ElasticBeanstalkUtil.isDeploymentWaitEnabled;
 
 final class ParametersValidator {
+  private static final List<String> DEPLOYMENT_POLICIES = Arrays.asList("AllAtOnce", "Rolling", "RollingWithAdditionalBatch", "Immutable");
+  private static final Pattern S3_KEY_PATTERN = Pattern.compile("[a-zA-Z_0-9!\\-\\.*'()/,:-]*");
+
+  private static final int SETTINGS_CACHE_SIZE = 500;
+
+  // settings are validated whenever a build step is rendered, project pages render hundreds of them,
+  // keyed by the parameters digest so that the cache doesn't keep the secret values
+  private static final Map<String, Map<String, String>> SETTINGS_CACHE =
+    new LinkedHashMap<String, Map<String, String>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Map<String, String>> eldest) {
+        return size() > SETTINGS_CACHE_SIZE;
+      }
+    };
+
   /**
    * Must be used for parameters validation during the build
    * Returns map from parameter name to invalidity reason
@@ -45,15 +65,58 @@ final class ParametersValidator {
       }
     }
 
+    invalids.putAll(AWSTransport.validate(configParams));
+
+    final String instanceLogsMaxKb = configParams.get(INSTANCE_LOGS_MAX_KB_CONFIG_PARAM);
+    if (StringUtil.isNotEmpty(instanceLogsMaxKb)) {
+      validatePositiveInteger(invalids, instanceLogsMaxKb, INSTANCE_LOGS_MAX_KB_CONFIG_PARAM, INSTANCE_LOGS_MAX_KB_CONFIG_PARAM, true);
+    }
+
+    final String preflightTimeoutSec = configParams.get(PREFLIGHT_TIMEOUT_SEC_CONFIG_PARAM);
+    if (StringUtil.isNotEmpty(preflightTimeoutSec)) {
+      validatePositiveInteger(invalids, preflightTimeoutSec, PREFLIGHT_TIMEOUT_SEC_CONFIG_PARAM, PREFLIGHT_TIMEOUT_SEC_CONFIG_PARAM, true);
+    }
+
+    final String logMaxMessagesPerMin = configParams.get(LOG_MAX_MESSAGES_PER_MIN_CONFIG_PARAM);
+    if (StringUtil.isNotEmpty(logMaxMessagesPerMin)) {
+      validatePositiveInteger(invalids, logMaxMessagesPerMin, LOG_MAX_MESSAGES_PER_MIN_CONFIG_PARAM, LOG_MAX_MESSAGES_PER_MIN_CONFIG_PARAM, true);
+    }
+
     return Collections.unmodifiableMap(invalids);
   }
 
   /**
-   * Returns map from parameter name to invalidity reason
+   * Returns map from parameter name to invalidity reason, results are cached by the parameters content
    */
   @NotNull
   static Map<String, String> validateSettings(@NotNull Map<String, String> params) {
-    return validate(params, false);
+    final String key = getDigest(params);
+    synchronized (SETTINGS_CACHE) {
+      final Map<String, String> cached = SETTINGS_CACHE.get(key);
+      if (cached != null) return cached;
+    }
+
+    final Map<String, String> invalids = Collections.unmodifiableMap(validate(params, false));
+    synchronized (SETTINGS_CACHE) {
+      SETTINGS_CACHE.put(key, invalids);
+    }
+    return invalids;
+  }
+
+  @NotNull
+  private static String getDigest(@NotNull Map<String, String> params) {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    // length-prefixed so that different entries never produce the same input
+    for (Map.Entry<String, String> e : new TreeMap<String, String>(params).entrySet()) {
+      final String value = e.getValue();
+      digest.update((e.getKey().length() + ":" + e.getKey() + (value == null ? "-" : value.length() + ":" + value)).getBytes(StandardCharsets.UTF_8));
+    }
+    return new BigInteger(1, digest.digest()).toString(16);
   }
 
   private static Map<String, String> validate(@NotNull Map<String, String> runnerParams, boolean runtime) {
@@ -61,6 +124,20 @@ final class ParametersValidator {
 
     invalids.putAll(AWSCommonParams.validate(runnerParams, !runtime));
 
+    final String additionalRegions = runnerParams.get(ADDITIONAL_REGIONS_PARAM);
+    if (!StringUtil.isEmptyOrSpaces(additionalRegions)) {
+      if (!isReference(additionalRegions, runtime)) {
+        for (String regionName : ElasticBeanstalkUtil.getAdditionalRegionNames(runnerParams)) {
+          if (AWSRegions.findRegion(regionName) == null) {
+            invalids.put(ADDITIONAL_REGIONS_PARAM, AWSRegions.getUnsupportedRegionMessage(regionName));
+          }
+        }
+      }
+      if (StringUtil.isEmptyOrSpaces(runnerParams.get(REGIONAL_S3_BUCKET_NAME_PARAM))) {
+        invalids.put(REGIONAL_S3_BUCKET_NAME_PARAM, REGIONAL_S3_BUCKET_NAME_LABEL + " mustn't be empty when " + ADDITIONAL_REGIONS_LABEL + " are specified");
+      }
+    }
+
     final String s3BucketName = runnerParams.get(S3_BUCKET_NAME_PARAM);
     if (StringUtil.isEmptyOrSpaces(s3BucketName)) {
       invalids.put(S3_BUCKET_NAME_PARAM, S3_BUCKET_NAME_LABEL + " mustn't be empty");
@@ -75,10 +152,26 @@ final class ParametersValidator {
       validateS3Key(invalids, s3ObjectKey, S3_OBJECT_KEY_PARAM, S3_OBJECT_KEY_LABEL, runtime);
     }
 
-    if (StringUtil.isEmptyOrSpaces(runnerParams.get(ENV_NAME_PARAM))) {
+    final String environmentName = runnerParams.get(ENV_NAME_PARAM);
+    if (StringUtil.isEmptyOrSpaces(environmentName)) {
       invalids.put(ENV_NAME_PARAM, ENV_NAME_LABEL + " mustn't be empty");
     }
 
+    if (ElasticBeanstalkUtil.isBlueGreenDeployment(runnerParams)) {
+      final String idleEnvironmentName = runnerParams.get(IDLE_ENV_NAME_PARAM);
+      if (StringUtil.isEmptyOrSpaces(idleEnvironmentName)) {
+        invalids.put(IDLE_ENV_NAME_PARAM, IDLE_ENV_NAME_LABEL + " mustn't be empty");
+      } else if (idleEnvironmentName.trim().equals(environmentName == null ? null : environmentName.trim())) {
+        invalids.put(IDLE_ENV_NAME_PARAM, IDLE_ENV_NAME_LABEL + " must differ from " + ENV_NAME_LABEL);
+      }
+      if (StringUtil.isEmptyOrSpaces(runnerParams.get(LIVE_CNAME_PREFIX_PARAM))) {
+        invalids.put(LIVE_CNAME_PREFIX_PARAM, LIVE_CNAME_PREFIX_LABEL + " mustn't be empty");
+      }
+      if (Boolean.parseBoolean(runnerParams.get(SERVER_WAIT_PARAM))) {
+        invalids.put(SERVER_WAIT_PARAM, SERVER_WAIT_LABEL + " isn't supported by blue/green deployments, the CNAMEs swap runs on the agent");
+      }
+    }
+
     if (StringUtil.isEmptyOrSpaces(runnerParams.get(APP_NAME_PARAM))) {
       invalids.put(APP_NAME_PARAM, APP_NAME_LABEL + " mustn't be empty");
     }
@@ -87,18 +180,64 @@ final class ParametersValidator {
       invalids.put(APP_VERSION_PARAM, APP_VERSION_LABEL + " mustn't be empty");
     }
 
+    validateOptionSettings(invalids, runnerParams, runtime);
+
     if (isDeploymentWaitEnabled(runnerParams)) {
+      // empty timeout is derived from the environment deployment history
       final String waitTimeoutSec = runnerParams.get(WAIT_TIMEOUT_SEC_PARAM);
-      if (StringUtil.isEmptyOrSpaces(waitTimeoutSec)) {
-        invalids.put(WAIT_TIMEOUT_SEC_PARAM, WAIT_TIMEOUT_SEC_LABEL + " mustn't be empty");
-      } else {
+      if (StringUtil.isNotEmpty(waitTimeoutSec)) {
         validatePositiveInteger(invalids, waitTimeoutSec, WAIT_TIMEOUT_SEC_PARAM, WAIT_TIMEOUT_SEC_LABEL, runtime);
       }
+
+      final String degradedPercent = runnerParams.get(HEALTH_DEGRADED_PERCENT_PARAM);
+      if (StringUtil.isNotEmpty(degradedPercent)) {
+        validatePercent(invalids, degradedPercent, HEALTH_DEGRADED_PERCENT_PARAM, HEALTH_DEGRADED_PERCENT_LABEL, runtime);
+      }
+
+      final String degradedDurationSec = runnerParams.get(HEALTH_DEGRADED_DURATION_SEC_PARAM);
+      if (StringUtil.isNotEmpty(degradedDurationSec)) {
+        validatePositiveInteger(invalids, degradedDurationSec, HEALTH_DEGRADED_DURATION_SEC_PARAM, HEALTH_DEGRADED_DURATION_SEC_LABEL, runtime);
+      }
     }
 
     return invalids;
   }
 
+  private static void validateOptionSettings(@NotNull Map<String, String> invalids, @NotNull Map<String, String> runnerParams, boolean runtime) {
+    final String deploymentPolicy = runnerParams.get(DEPLOYMENT_POLICY_PARAM);
+    if (StringUtil.isNotEmpty(deploymentPolicy) && !isReference(deploymentPolicy, runtime) && !DEPLOYMENT_POLICIES.contains(deploymentPolicy)) {
+      invalids.put(DEPLOYMENT_POLICY_PARAM, DEPLOYMENT_POLICY_LABEL + " must be one of " + DEPLOYMENT_POLICIES);
+    }
+
+    final String batchSizeType = runnerParams.get(BATCH_SIZE_TYPE_PARAM);
+    if (StringUtil.isNotEmpty(batchSizeType) && !isReference(batchSizeType, runtime)
+      && !BATCH_SIZE_TYPE_PERCENTAGE.equals(batchSizeType) && !BATCH_SIZE_TYPE_FIXED.equals(batchSizeType)) {
+      invalids.put(BATCH_SIZE_TYPE_PARAM, BATCH_SIZE_TYPE_LABEL + " must be " + BATCH_SIZE_TYPE_PERCENTAGE + " or " + BATCH_SIZE_TYPE_FIXED);
+    }
+
+    final String batchSize = runnerParams.get(BATCH_SIZE_PARAM);
+    if (StringUtil.isNotEmpty(batchSize)) {
+      validatePositiveInteger(invalids, batchSize, BATCH_SIZE_PARAM, BATCH_SIZE_LABEL, runtime);
+      if (!invalids.containsKey(BATCH_SIZE_PARAM) && !BATCH_SIZE_TYPE_FIXED.equals(batchSizeType) && !isReference(batchSize, runtime)
+        && Integer.parseInt(batchSize) > 100) {
+        invalids.put(BATCH_SIZE_PARAM, BATCH_SIZE_LABEL + " must not exceed 100 percent");
+      }
+    }
+
+    final String commandTimeoutSec = runnerParams.get(COMMAND_TIMEOUT_SEC_PARAM);
+    if (StringUtil.isNotEmpty(commandTimeoutSec)) {
+      validatePositiveInteger(invalids, commandTimeoutSec, COMMAND_TIMEOUT_SEC_PARAM, COMMAND_TIMEOUT_SEC_LABEL, runtime);
+    }
+
+    final String optionSettings = runnerParams.get(OPTION_SETTINGS_PARAM);
+    if (StringUtil.isNotEmpty(optionSettings) && !isReference(optionSettings, runtime)) {
+      final List<String> invalidLines = ElasticBeanstalkUtil.getInvalidOptionSettings(runnerParams);
+      if (!invalidLines.isEmpty()) {
+        invalids.put(OPTION_SETTINGS_PARAM, OPTION_SETTINGS_LABEL + " must be namespace:OptionName=value lines, unexpected line: " + invalidLines.get(0));
+      }
+    }
+  }
+
   private static void validatePositiveInteger(@NotNull Map<String, String> invalids, @NotNull String param, @NotNull String key, @NotNull String name, boolean runtime) {
     if (!isReference(param, runtime)) {
       try {
@@ -112,9 +251,22 @@ final class ParametersValidator {
     }
   }
 
+  private static void validatePercent(@NotNull Map<String, String> invalids, @NotNull String param, @NotNull String key, @NotNull String name, boolean runtime) {
+    if (!isReference(param, runtime)) {
+      try {
+        final int i = Integer.parseInt(param);
+        if (i < 0 || i >= 100) {
+          invalids.put(key, name + " must be an integer value from 0 to 99");
+        }
+      } catch (NumberFormatException e) {
+        invalids.put(key, name + " must be an integer value from 0 to 99");
+      }
+    }
+  }
+
   private static void validateS3Key(@NotNull Map<String, String> invalids, @NotNull String param, @NotNull String key, @NotNull String name, boolean runtime) {
     if (!isReference(param, runtime)) {
-      if (!param.matches("[a-zA-Z_0-9!\\-\\.*'()/,:-]*")) {
+      if (!S3_KEY_PATTERN.matcher(param).matches()) {
         invalids.put(key, name + " must contain only safe characters");
       }
     }
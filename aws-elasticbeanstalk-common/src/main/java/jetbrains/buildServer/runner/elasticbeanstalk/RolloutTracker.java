@@ -0,0 +1,63 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Tracks how many environment instances already run the deployed version
+ * and estimates the rest of the rollout from the rate observed so far.
+ */
+class RolloutTracker {
+  private final long myStartTime;
+  private int myDeployed;
+  private int myTotal;
+  private long myUpdateTime;
+
+  /**
+   * @param startTime when the environment update started
+   */
+  RolloutTracker(long startTime) {
+    myStartTime = startTime;
+    myUpdateTime = startTime;
+  }
+
+  void update(int deployed, int total, long now) {
+    myDeployed = deployed;
+    myTotal = total;
+    myUpdateTime = now;
+  }
+
+  int getDeployed() {
+    return myDeployed;
+  }
+
+  int getTotal() {
+    return myTotal;
+  }
+
+  /**
+   * @return seconds left, null until the first instance is deployed
+   */
+  @Nullable
+  Long getEtaSec() {
+    if (myDeployed <= 0 || myTotal <= 0) return null;
+    if (myDeployed >= myTotal) return 0L;
+    final long elapsedMillis = myUpdateTime - myStartTime;
+    return elapsedMillis * (myTotal - myDeployed) / myDeployed / 1000;
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Copies an S3 object between buckets, possibly located in different regions, without downloading it.
+ * <p>
+ * Large objects are copied with multipart upload, parts are copied in parallel.
+ * The source ETag is stored in the target object metadata, so that up-to-date copies are detected and skipped.
+ */
+class S3BundleCopier {
+  static final String SOURCE_ETAG_METADATA = "teamcity-source-etag";
+  static final long PART_SIZE = 64 * 1024 * 1024;
+  static final int MAX_PARALLEL_PARTS = 4;
+
+  @NotNull
+  private final AmazonS3 mySourceS3;
+  @NotNull
+  private final AmazonS3 myTargetS3;
+
+  /**
+   * @param sourceS3 client of the source bucket region
+   * @param targetS3 client of the target bucket region
+   */
+  S3BundleCopier(@NotNull AmazonS3 sourceS3, @NotNull AmazonS3 targetS3) {
+    mySourceS3 = sourceS3;
+    myTargetS3 = targetS3;
+  }
+
+  @NotNull
+  ObjectMetadata getSourceMetadata(@NotNull String bucketName, @NotNull String key) {
+    return mySourceS3.getObjectMetadata(bucketName, key);
+  }
+
+  /**
+   * @return true if the target already holds a copy of the source object version with the given ETag
+   */
+  boolean isUpToDate(@NotNull String sourceETag, @NotNull String targetBucketName, @NotNull String targetKey) {
+    final ObjectMetadata target = getTargetMetadata(targetBucketName, targetKey);
+    return target != null && (sourceETag.equals(target.getETag()) || sourceETag.equals(target.getUserMetaDataOf(SOURCE_ETAG_METADATA)));
+  }
+
+  /**
+   * @return number of copied parts
+   */
+  int copy(@NotNull final String sourceBucketName, @NotNull final String sourceKey, @NotNull ObjectMetadata source,
+           @NotNull String targetBucketName, @NotNull String targetKey) {
+    final ObjectMetadata metadata = new ObjectMetadata();
+    if (source.getContentType() != null) metadata.setContentType(source.getContentType());
+    metadata.addUserMetadata(SOURCE_ETAG_METADATA, source.getETag());
+
+    final long size = source.getContentLength();
+    if (size <= PART_SIZE) {
+      final CopyObjectResult result = myTargetS3.copyObject(new CopyObjectRequest(sourceBucketName, sourceKey, targetBucketName, targetKey)
+        .withMatchingETagConstraint(source.getETag())
+        .withNewObjectMetadata(metadata));
+      if (result == null) throw sourceChanged(sourceBucketName, sourceKey);
+      return 1;
+    }
+
+    final String uploadId = myTargetS3.initiateMultipartUpload(new InitiateMultipartUploadRequest(targetBucketName, targetKey, metadata)).getUploadId();
+    final int partsCount = (int) ((size + PART_SIZE - 1) / PART_SIZE);
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_PARALLEL_PARTS, partsCount));
+    try {
+      final List<Future<PartETag>> parts = new ArrayList<Future<PartETag>>(partsCount);
+      for (int i = 0; i < partsCount; ++i) {
+        final long firstByte = i * PART_SIZE;
+        final CopyPartRequest request = new CopyPartRequest()
+          .withSourceBucketName(sourceBucketName)
+          .withSourceKey(sourceKey)
+          .withMatchingETagConstraint(source.getETag())
+          .withDestinationBucketName(targetBucketName)
+          .withDestinationKey(targetKey)
+          .withUploadId(uploadId)
+          .withPartNumber(i + 1)
+          .withFirstByte(firstByte)
+          .withLastByte(Math.min(firstByte + PART_SIZE, size) - 1);
+        parts.add(executor.submit(new Callable<PartETag>() {
+          @Override
+          public PartETag call() {
+            final CopyPartResult result = myTargetS3.copyPart(request);
+            if (result == null) throw sourceChanged(sourceBucketName, sourceKey);
+            return result.getPartETag();
+          }
+        }));
+      }
+
+      final List<PartETag> partETags = new ArrayList<PartETag>(partsCount);
+      for (Future<PartETag> part : parts) partETags.add(get(part));
+
+      myTargetS3.completeMultipartUpload(new CompleteMultipartUploadRequest(targetBucketName, targetKey, uploadId, partETags));
+      return partsCount;
+    } catch (RuntimeException e) {
+      abort(targetBucketName, targetKey, uploadId);
+      throw e;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Nullable
+  private ObjectMetadata getTargetMetadata(@NotNull String bucketName, @NotNull String key) {
+    try {
+      return myTargetS3.getObjectMetadata(bucketName, key);
+    } catch (AmazonS3Exception e) {
+      if (e.getStatusCode() == 404) return null;
+      throw e;
+    }
+  }
+
+  private void abort(@NotNull String bucketName, @NotNull String key, @NotNull String uploadId) {
+    try {
+      myTargetS3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+    } catch (RuntimeException ignored) {
+      // the original failure is more important, lifecycle rules clean up the rest
+    }
+  }
+
+  @NotNull
+  private static AmazonClientException sourceChanged(@NotNull String bucketName, @NotNull String key) {
+    return new AmazonClientException("Object s3://" + bucketName + "/" + key + " changed while being copied");
+  }
+
+  @NotNull
+  private static <T> T get(@NotNull Future<T> future) {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      throw new AmazonClientException(cause.getMessage(), cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AmazonClientException("Interrupted while copying object parts", e);
+    }
+  }
+}
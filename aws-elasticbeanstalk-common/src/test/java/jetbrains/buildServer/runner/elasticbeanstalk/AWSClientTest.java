@@ -0,0 +1,341 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalkClient;
+import com.amazonaws.services.elasticbeanstalk.model.*;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.util.amazon.AWSException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class AWSClientTest extends BaseTestCase {
+  private static final String APP = "app";
+  private static final String ENV = "prod";
+  private static final String BUCKET = "bucket";
+  private static final String KEY = "app-v1.zip";
+
+  @Test
+  public void preflight_passes_when_everything_exists() {
+    final FakeElasticBeanstalk eb = new FakeElasticBeanstalk();
+    final FakeS3 s3 = new FakeS3();
+    final RecordingListener listener = new RecordingListener();
+
+    then(preflight(eb, s3, listener, null, 5)).isTrue();
+    then(listener.exceptions).isEmpty();
+    then(listener.operations).containsOnly("HeadObject", "DescribeApplications", "DescribeEnvironments");
+  }
+
+  @Test
+  public void preflight_reports_all_problems_at_once() {
+    final FakeElasticBeanstalk eb = new FakeElasticBeanstalk();
+    eb.applicationExists = false;
+    eb.environmentStatus = null;
+    final FakeS3 s3 = new FakeS3();
+    s3.statusCode = 404;
+    final RecordingListener listener = new RecordingListener();
+
+    then(preflight(eb, s3, listener, null, 5)).isFalse();
+    then(listener.exceptions).hasSize(1);
+    then(listener.exceptions.get(0).getDetails())
+      .contains("S3 object s3://" + BUCKET + "/" + KEY + " doesn't exist")
+      .contains("Application " + APP + " doesn't exist")
+      .contains("Environment " + ENV + " doesn't exist in application " + APP);
+  }
+
+  @Test
+  public void preflight_checks_bundle_of_version_to_be_created() {
+    final FakeElasticBeanstalk eb = new FakeElasticBeanstalk();
+    eb.versionExists = false;
+    final FakeS3 s3 = new FakeS3();
+    s3.statusCode = 403;
+    final RecordingListener listener = new RecordingListener();
+
+    then(preflight(eb, s3, listener, "v1", 5)).isFalse();
+    then(listener.exceptions).hasSize(1);
+    then(listener.exceptions.get(0).getDetails()).contains("Access to S3 object s3://" + BUCKET + "/" + KEY + " is denied");
+  }
+
+  @Test
+  public void preflight_skips_bundle_of_reused_version() {
+    final FakeElasticBeanstalk eb = new FakeElasticBeanstalk();
+    final FakeS3 s3 = new FakeS3();
+    s3.statusCode = 404;
+    final RecordingListener listener = new RecordingListener();
+
+    then(preflight(eb, s3, listener, "v1", 5)).isTrue();
+    then(listener.exceptions).isEmpty();
+    then(s3.headRequests).isZero();
+    then(listener.operations).contains("DescribeApplicationVersions").doesNotContain("HeadObject");
+  }
+
+  @Test
+  public void preflight_skips_checks_not_finished_in_time() {
+    final FakeElasticBeanstalk eb = new FakeElasticBeanstalk();
+    final FakeS3 s3 = new FakeS3();
+    s3.hang = true;
+    final RecordingListener listener = new RecordingListener();
+
+    then(preflight(eb, s3, listener, null, 1)).isTrue();
+    then(listener.exceptions).isEmpty();
+    then(listener.updates).containsExactly("Pre-flight HeadObject check didn't finish in 1 seconds and was skipped");
+  }
+
+  @Test
+  public void update_waits_for_version_processing() {
+    final FakeElasticBeanstalk eb = new FakeElasticBeanstalk();
+    eb.versionStatuses.add("Processing");
+    eb.versionStatuses.add("Processed");
+    final RecordingListener listener = new RecordingListener();
+
+    final AWSClient client = new AWSClient(eb, new FakeS3()).withListener(listener).withVersionProcessing(true);
+    then(client.createApplicationVersion(APP, "v1", false, BUCKET, KEY)).isTrue();
+    then(client.updateEnvironment(ENV, "v1")).isTrue();
+    client.closeListeners(5000);
+
+    then(eb.calls).containsExactly("CreateApplicationVersion", "DescribeApplicationVersions Processing", "DescribeApplicationVersions Processed",
+      "UpdateEnvironment v1");
+    then(listener.failures).isEmpty();
+    then(listener.processed).containsExactly("v1");
+    then(listener.operations).contains("DescribeApplicationVersions");
+  }
+
+  @Test
+  public void failed_version_isnt_deployed() {
+    final FakeElasticBeanstalk eb = new FakeElasticBeanstalk();
+    eb.versionStatuses.add("Failed");
+    final RecordingListener listener = new RecordingListener();
+
+    final AWSClient client = new AWSClient(eb, new FakeS3()).withListener(listener).withVersionProcessing(true);
+    client.createApplicationVersion(APP, "v1", false, BUCKET, KEY);
+    then(client.updateEnvironment(ENV, "v1")).isFalse();
+    client.closeListeners(5000);
+
+    then(eb.calls).doesNotContain("UpdateEnvironment v1");
+    then(listener.failures).containsExactly("Application " + APP + " version v1 failed processing");
+  }
+
+  @Test
+  public void failed_processing_stops_waiting_for_busy_environment() {
+    final FakeElasticBeanstalk eb = new FakeElasticBeanstalk();
+    eb.environmentStatus = "Updating";
+    eb.versionStatuses.add("Failed");
+    final RecordingListener listener = new RecordingListener();
+
+    final AWSClient client = new AWSClient(eb, new FakeS3()).withListener(listener).withVersionProcessing(true);
+    client.createApplicationVersion(APP, "v1", false, BUCKET, KEY);
+    final long start = System.currentTimeMillis();
+    then(client.updateEnvironmentAndWait(ENV, "v1", DeploymentSchedule.fixed(60, 1))).isFalse();
+    client.closeListeners(5000);
+
+    then(System.currentTimeMillis() - start).isLessThan(30000);
+    then(eb.calls).doesNotContain("UpdateEnvironment v1");
+    then(listener.failures).containsExactly("Application " + APP + " version v1 failed processing");
+  }
+
+  @Test
+  public void aborted_update_back_on_rollback_version_isnt_updated_again() {
+    final FakeElasticBeanstalk eb = new FakeElasticBeanstalk();
+    final RecordingListener listener = new RecordingListener();
+
+    final AWSClient client = new AWSClient(eb, new FakeS3()).withListener(listener).withRollback("v0");
+    then(client.updateEnvironmentAndWait(ENV, "v1", DeploymentSchedule.fixed(60, 1))).isFalse();
+    client.closeListeners(5000);
+
+    then(eb.calls).containsExactly("UpdateEnvironment v1", "AbortEnvironmentUpdate");
+    then(listener.failures).containsExactly("Deployment failed");
+    then(listener.rollbacks).containsExactly("v0 true");
+  }
+
+  @Test
+  public void failed_rollback_is_reported_once() {
+    final FakeElasticBeanstalk eb = new FakeElasticBeanstalk();
+    eb.abortedVersionLabel = "v1";
+    final RecordingListener listener = new RecordingListener();
+
+    final AWSClient client = new AWSClient(eb, new FakeS3()).withListener(listener).withRollback("v0");
+    then(client.updateEnvironmentAndWait(ENV, "v1", DeploymentSchedule.fixed(60, 1))).isFalse();
+    client.closeListeners(5000);
+
+    then(eb.calls).containsExactly("UpdateEnvironment v1", "AbortEnvironmentUpdate", "UpdateEnvironment v0");
+    then(listener.failures).containsExactly("Deployment failed");
+    then(listener.rollbacks).containsExactly("v0 false");
+  }
+
+  private static boolean preflight(@NotNull FakeElasticBeanstalk eb, @NotNull FakeS3 s3, @NotNull RecordingListener listener,
+                                   @Nullable String versionLabel, int timeoutSec) {
+    final AWSClient client = new AWSClient(eb, s3).withListener(listener);
+    try {
+      return client.preflight(APP, ENV, BUCKET, KEY, versionLabel, timeoutSec);
+    } finally {
+      client.closeListeners(5000);
+    }
+  }
+
+  private static class FakeElasticBeanstalk extends AWSElasticBeanstalkClient {
+    private boolean applicationExists = true;
+    private boolean versionExists = true;
+    @Nullable
+    private String environmentStatus = "Ready";
+    private String environmentVersionLabel = "v0";
+    // the version the environment runs after an aborted update
+    private String abortedVersionLabel = "v0";
+    // the statuses the created version goes through, the last one stays
+    private final List<String> versionStatuses = new CopyOnWriteArrayList<String>();
+    private final List<String> calls = new CopyOnWriteArrayList<String>();
+
+    FakeElasticBeanstalk() {
+      super(new BasicAWSCredentials("key", "secret"));
+    }
+
+    @Override
+    public DescribeApplicationsResult describeApplications(DescribeApplicationsRequest request) {
+      final DescribeApplicationsResult result = new DescribeApplicationsResult();
+      if (applicationExists) result.withApplications(new ApplicationDescription().withApplicationName(APP));
+      return result;
+    }
+
+    @Override
+    public DescribeApplicationVersionsResult describeApplicationVersions(DescribeApplicationVersionsRequest request) {
+      final DescribeApplicationVersionsResult result = new DescribeApplicationVersionsResult();
+      if (!versionExists) return result;
+
+      final String status = versionStatuses.size() > 1 ? versionStatuses.remove(0) : versionStatuses.isEmpty() ? null : versionStatuses.get(0);
+      if (status != null) calls.add("DescribeApplicationVersions " + status);
+      return result.withApplicationVersions(new ApplicationVersionDescription().withVersionLabel(request.getVersionLabels().get(0)).withStatus(status));
+    }
+
+    @Override
+    public CreateApplicationVersionResult createApplicationVersion(CreateApplicationVersionRequest request) {
+      calls.add("CreateApplicationVersion");
+      return new CreateApplicationVersionResult();
+    }
+
+    // every update fails, the environment reports the new version once the update is finished
+    @Override
+    public UpdateEnvironmentResult updateEnvironment(UpdateEnvironmentRequest request) {
+      calls.add("UpdateEnvironment " + request.getVersionLabel());
+      environmentStatus = "Updating";
+      return new UpdateEnvironmentResult().withEnvironmentId("e-1").withEnvironmentName(ENV);
+    }
+
+    @Override
+    public AbortEnvironmentUpdateResult abortEnvironmentUpdate(AbortEnvironmentUpdateRequest request) {
+      calls.add("AbortEnvironmentUpdate");
+      environmentStatus = "Ready";
+      environmentVersionLabel = abortedVersionLabel;
+      return new AbortEnvironmentUpdateResult();
+    }
+
+    @Override
+    public DescribeEventsResult describeEvents(DescribeEventsRequest request) {
+      final DescribeEventsResult result = new DescribeEventsResult();
+      if ("Updating".equals(environmentStatus) && request.getEnvironmentId() != null && EventSeverity.ERROR.toString().equals(request.getSeverity())) {
+        result.withEvents(new EventDescription().withMessage("Deployment failed.").withSeverity(EventSeverity.ERROR.toString()));
+      }
+      return result;
+    }
+
+    @Override
+    public DescribeInstancesHealthResult describeInstancesHealth(DescribeInstancesHealthRequest request) {
+      throw new InvalidRequestException("Enhanced health reporting is disabled");
+    }
+
+    @Override
+    public DescribeEnvironmentsResult describeEnvironments(DescribeEnvironmentsRequest request) {
+      final DescribeEnvironmentsResult result = new DescribeEnvironmentsResult();
+      if (environmentStatus != null) {
+        result.withEnvironments(new EnvironmentDescription().withApplicationName(APP).withEnvironmentName(ENV).withEnvironmentId("e-1")
+          .withStatus(environmentStatus).withVersionLabel(environmentVersionLabel));
+      }
+      return result;
+    }
+  }
+
+  private static class FakeS3 extends AbstractAmazonS3 {
+    private int statusCode = 200;
+    private boolean hang;
+    private volatile int headRequests;
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+      ++headRequests;
+      if (hang) {
+        try {
+          new CountDownLatch(1).await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+        }
+      }
+      if (statusCode == 200) return new ObjectMetadata();
+      final AmazonServiceException e = new AmazonServiceException("Status " + statusCode);
+      e.setStatusCode(statusCode);
+      throw e;
+    }
+  }
+
+  private static class RecordingListener extends AWSClient.Listener {
+    private final List<String> operations = new CopyOnWriteArrayList<String>();
+    private final List<String> updates = new CopyOnWriteArrayList<String>();
+    private final List<AWSException> exceptions = new CopyOnWriteArrayList<AWSException>();
+    private final List<String> processed = new CopyOnWriteArrayList<String>();
+    private final List<String> failures = new CopyOnWriteArrayList<String>();
+    private final List<String> rollbacks = new CopyOnWriteArrayList<String>();
+
+    @Override
+    void apiCallFinished(@NotNull String operation, long durationMillis) {
+      operations.add(operation);
+    }
+
+    @Override
+    void deploymentUpdate(@NotNull String message, @Nullable String severity) {
+      updates.add(message);
+    }
+
+    @Override
+    void exception(@NotNull AWSException exception) {
+      exceptions.add(exception);
+    }
+
+    @Override
+    void versionProcessed(@NotNull String applicationName, @NotNull String versionLabel, long durationMillis) {
+      processed.add(versionLabel);
+    }
+
+    @Override
+    void deploymentFailed(@NotNull String applicationName, @NotNull String environmentName, @NotNull String versionLabel,
+                          @NotNull Boolean hasTimeout, @Nullable ErrorInfo errorInfo) {
+      failures.add(errorInfo == null ? "timeout" : errorInfo.message);
+    }
+
+    @Override
+    void rollbackFinished(@NotNull String environmentName, @NotNull String versionLabel, boolean succeeded) {
+      rollbacks.add(versionLabel + " " + succeeded);
+    }
+  }
+}
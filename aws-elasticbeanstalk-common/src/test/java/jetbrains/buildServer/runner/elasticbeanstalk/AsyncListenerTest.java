@@ -0,0 +1,146 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import jetbrains.buildServer.BaseTestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class AsyncListenerTest extends BaseTestCase {
+  @Test
+  public void delivers_in_order_on_close() {
+    final RecordingListener delegate = new RecordingListener();
+    delegate.release.countDown();
+    final AsyncListener listener = new AsyncListener(delegate, 10);
+
+    listener.deploymentStarted("e-1", "prod", "v1");
+    listener.deploymentUpdate("Deploying", "INFO");
+    listener.deploymentSucceeded("v1");
+
+    then(listener.close(5000)).isTrue();
+    then(delegate.events).containsExactly("started prod", "update Deploying", "succeeded v1");
+  }
+
+  @Test
+  public void drops_progress_when_listener_is_slow() throws Exception {
+    final RecordingListener delegate = new RecordingListener();
+    final AsyncListener listener = new AsyncListener(delegate, 2);
+
+    listener.deploymentStarted("e-1", "prod", "v1");
+    then(delegate.blocked.await(5, TimeUnit.SECONDS)).isTrue();
+
+    // the delegate hangs in the first callback, so the queue fills up without blocking the caller
+    for (int i = 0; i < 10; ++i) listener.environmentPolled("prod", "Updating", "Grey", "v0");
+    delegate.release.countDown();
+    listener.deploymentSucceeded("v1");
+
+    then(listener.close(5000)).isTrue();
+    then(delegate.events).containsExactly("started prod", "polled prod", "polled prod", "succeeded v1",
+      "update 8 progress notifications were skipped to keep up with the deployment");
+  }
+
+  @Test
+  public void drops_environment_events_when_listener_is_slow() throws Exception {
+    final RecordingListener delegate = new RecordingListener();
+    final AsyncListener listener = new AsyncListener(delegate, 2);
+
+    listener.deploymentStarted("e-1", "prod", "v1");
+    then(delegate.blocked.await(5, TimeUnit.SECONDS)).isTrue();
+
+    for (int i = 0; i < 5; ++i) listener.deploymentUpdate("Event " + i, "INFO");
+    delegate.release.countDown();
+
+    then(listener.close(5000)).isTrue();
+    then(delegate.events).containsExactly("started prod", "update Event 0", "update Event 1",
+      "update 3 environment events were skipped to keep up with the deployment, see the environment events in the AWS console");
+  }
+
+  @Test
+  public void keeps_error_environment_events_when_listener_is_slow() throws Exception {
+    final RecordingListener delegate = new RecordingListener();
+    final AsyncListener listener = new AsyncListener(delegate, 2);
+
+    listener.deploymentStarted("e-1", "prod", "v1");
+    then(delegate.blocked.await(5, TimeUnit.SECONDS)).isTrue();
+
+    for (int i = 0; i < 3; ++i) listener.deploymentUpdate("Event " + i, "INFO");
+    listener.deploymentUpdate("Failed", "ERROR");
+    listener.deploymentUpdate("Terminated", "FATAL");
+    delegate.release.countDown();
+
+    then(listener.close(5000)).isTrue();
+    then(delegate.events).containsExactly("started prod", "update Event 0", "update Event 1", "update Failed", "update Terminated",
+      "update 1 environment events were skipped to keep up with the deployment, see the environment events in the AWS console");
+  }
+
+  @Test(timeOut = 10000)
+  public void outcome_callbacks_dont_wait_for_slow_listener() throws Exception {
+    final RecordingListener delegate = new RecordingListener();
+    final AsyncListener listener = new AsyncListener(delegate, 2);
+
+    listener.deploymentStarted("e-1", "prod", "v1");
+    then(delegate.blocked.await(5, TimeUnit.SECONDS)).isTrue();
+
+    // more than the capacity while the delegate hangs, the caller returns without waiting for it
+    final long start = System.currentTimeMillis();
+    for (int i = 0; i < 5; ++i) listener.deploymentSucceeded("v" + i);
+    then(System.currentTimeMillis() - start).isLessThan(1000);
+    delegate.release.countDown();
+
+    then(listener.close(5000)).isTrue();
+    then(delegate.events).containsExactly("started prod", "succeeded v0", "succeeded v1", "succeeded v2", "succeeded v3", "succeeded v4");
+  }
+
+  private static class RecordingListener extends AWSClient.Listener {
+    private final List<String> events = new CopyOnWriteArrayList<String>();
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    void deploymentStarted(@NotNull String environmentId, @NotNull String environmentName, @NotNull String versionLabel) {
+      events.add("started " + environmentName);
+      blocked.countDown();
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException ignored) {
+      }
+    }
+
+    @Override
+    void deploymentUpdate(@NotNull String message, @Nullable String severity) {
+      events.add("update " + message);
+    }
+
+    @Override
+    void environmentPolled(@NotNull String environmentName, @NotNull String status, @Nullable String health, @Nullable String versionLabel) {
+      events.add("polled " + environmentName);
+    }
+
+    @Override
+    void deploymentSucceeded(@NotNull String versionLabel) {
+      events.add("succeeded " + versionLabel);
+    }
+  }
+}
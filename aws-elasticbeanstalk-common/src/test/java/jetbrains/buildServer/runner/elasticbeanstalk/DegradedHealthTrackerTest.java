@@ -0,0 +1,48 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import jetbrains.buildServer.BaseTestCase;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class DegradedHealthTrackerTest extends BaseTestCase {
+  @Test
+  public void fails_after_degraded_duration() {
+    final DegradedHealthTracker tracker = new DegradedHealthTracker(30, 120);
+    then(tracker.update(4, 10, 0)).isFalse();
+    then(tracker.update(4, 10, 119 * 1000)).isFalse();
+    then(tracker.update(5, 10, 120 * 1000)).isTrue();
+  }
+
+  @Test
+  public void recovery_resets_duration() {
+    final DegradedHealthTracker tracker = new DegradedHealthTracker(30, 120);
+    then(tracker.update(4, 10, 0)).isFalse();
+    then(tracker.update(3, 10, 60 * 1000)).as("Exactly the threshold is not over it").isFalse();
+    then(tracker.update(4, 10, 130 * 1000)).isFalse();
+    then(tracker.update(4, 10, 250 * 1000)).isTrue();
+  }
+
+  @Test
+  public void no_instances() {
+    final DegradedHealthTracker tracker = new DegradedHealthTracker(0, 0);
+    then(tracker.update(0, 0, 0)).isFalse();
+    then(tracker.update(1, 1, 0)).isTrue();
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import jetbrains.buildServer.BaseTestCase;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class DeploymentPlanTest extends BaseTestCase {
+  @Test
+  public void nothing_to_do_when_ready_on_version() {
+    final DeploymentPlan plan = DeploymentPlan.create("v2", true, true, environment("v2", "Ready", "Green"), false);
+    then(plan.isNothingToDo()).isTrue();
+  }
+
+  @Test
+  public void deploy_existing_version() {
+    final DeploymentPlan plan = DeploymentPlan.create("v2", true, true, environment("v1", "Ready", "Green"), false);
+    then(plan.isCreateVersion()).isFalse();
+    then(plan.isDeploy()).isTrue();
+    then(plan.isVersionChecked()).isTrue();
+  }
+
+  @Test
+  public void create_and_deploy_new_version() {
+    final DeploymentPlan plan = DeploymentPlan.create("v2", false, true, environment("v1", "Ready", "Green"), false);
+    then(plan.isCreateVersion()).isTrue();
+    then(plan.isDeploy()).isTrue();
+  }
+
+  @Test
+  public void duplicate_version_is_created_unless_skipped() {
+    final DeploymentPlan plan = DeploymentPlan.create("v2", true, false, environment("v1", "Ready", "Green"), false);
+    then(plan.isCreateVersion()).isTrue();
+  }
+
+  @Test
+  public void duplicate_version_is_created_even_if_deployed() {
+    final DeploymentPlan plan = DeploymentPlan.create("v2", true, false, environment("v2", "Ready", "Green"), false);
+    then(plan.isNothingToDo()).isFalse();
+    then(plan.isCreateVersion()).isTrue();
+  }
+
+  @Test
+  public void redeploy_when_not_healthy_or_settings_changed() {
+    then(DeploymentPlan.create("v2", true, true, environment("v2", "Updating", "Grey"), false).isDeploy()).isTrue();
+    then(DeploymentPlan.create("v2", true, true, environment("v2", "Ready", "Red"), false).isDeploy()).isTrue();
+    then(DeploymentPlan.create("v2", true, true, environment("v2", "Ready", "Green"), true).isDeploy()).isTrue();
+    then(DeploymentPlan.create("v2", true, true, null, false).isDeploy()).isTrue();
+  }
+
+  @Test
+  public void full_plan() {
+    final DeploymentPlan plan = DeploymentPlan.full("state unknown");
+    then(plan.isCreateVersion()).isTrue();
+    then(plan.isDeploy()).isTrue();
+    then(plan.isVersionChecked()).isFalse();
+  }
+
+  private static EnvironmentDescription environment(String versionLabel, String status, String health) {
+    return new EnvironmentDescription().withVersionLabel(versionLabel).withStatus(status).withHealth(health);
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import jetbrains.buildServer.BaseTestCase;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class DeploymentScheduleTest extends BaseTestCase {
+  @Test
+  public void fixed_schedule() {
+    final DeploymentSchedule schedule = DeploymentSchedule.fixed(600, 20);
+    then(schedule.getTimeoutSec()).isEqualTo(600);
+    then(schedule.getPollIntervalSec(0)).isEqualTo(20);
+    then(schedule.getPollIntervalSec(590)).isEqualTo(10);
+    then(schedule.getEtaSec(100)).isNull();
+  }
+
+  @Test
+  public void default_timeout_without_history() {
+    then(DeploymentSchedule.create(null, 20, null, null).getTimeoutSec()).isEqualTo(ElasticBeanstalkConstants.WAIT_TIMEOUT_SEC_DEFAULT);
+  }
+
+  @Test
+  public void explicit_timeout_wins_over_history() {
+    then(DeploymentSchedule.create(900, 20, 300, 400).getTimeoutSec()).isEqualTo(900);
+  }
+
+  @Test
+  public void timeout_from_history() {
+    then(DeploymentSchedule.create(null, 20, 300, 400).getTimeoutSec()).isEqualTo(700);
+    then(DeploymentSchedule.create(null, 20, 1200, 2000).getTimeoutSec()).isEqualTo(3000);
+  }
+
+  @Test
+  public void poll_intervals_concentrate_around_expected_finish() {
+    final DeploymentSchedule schedule = DeploymentSchedule.create(null, 20, 300, 400);
+    then(schedule.getPollIntervalSec(0)).as("Sparse polling long before the expected finish").isEqualTo(60);
+    then(schedule.getPollIntervalSec(200)).as("Must not overshoot the dense window").isEqualTo(25);
+    then(schedule.getPollIntervalSec(250)).as("Dense polling around the expected finish").isEqualTo(10);
+    then(schedule.getPollIntervalSec(500)).as("Base polling after p95").isEqualTo(20);
+  }
+
+  @Test
+  public void eta() {
+    final DeploymentSchedule schedule = DeploymentSchedule.create(null, 20, 300, 400);
+    then(schedule.getEtaSec(100)).isEqualTo(200L);
+    then(schedule.getEtaSec(350)).isEqualTo(50L);
+    then(schedule.getEtaSec(500)).isNull();
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.amazonaws.services.elasticbeanstalk.model.ConfigurationOptionSetting;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.util.CollectionsUtil;
+import jetbrains.buildServer.util.amazon.AWSCommonParams;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static jetbrains.buildServer.runner.elasticbeanstalk.ElasticBeanstalkConstants.*;
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class ElasticBeanstalkUtilTest extends BaseTestCase {
+  @Test
+  public void region_names() {
+    then(ElasticBeanstalkUtil.getRegionNames(CollectionsUtil.asMap(
+      AWSCommonParams.REGION_NAME_PARAM, "us-east-1",
+      ADDITIONAL_REGIONS_PARAM, " eu-west-1,ap-southeast-2 us-east-1\neu-west-1 "))).
+      containsExactly("us-east-1", "eu-west-1", "ap-southeast-2");
+  }
+
+  @Test
+  public void cname_prefix() {
+    then(ElasticBeanstalkUtil.hasCnamePrefix("MyApp.us-east-1.elasticbeanstalk.com", "myapp")).isTrue();
+    then(ElasticBeanstalkUtil.hasCnamePrefix("myapp-idle.us-east-1.elasticbeanstalk.com", "myapp")).isFalse();
+    then(ElasticBeanstalkUtil.hasCnamePrefix(null, "myapp")).isFalse();
+  }
+
+  @Test
+  public void region_parameters() {
+    final Map<String, String> params = CollectionsUtil.asMap(
+      AWSCommonParams.REGION_NAME_PARAM, "us-east-1",
+      S3_BUCKET_NAME_PARAM, "bundles",
+      ADDITIONAL_REGIONS_PARAM, "eu-west-1",
+      REGIONAL_S3_BUCKET_NAME_PARAM, "bundles-{region}",
+      LAST_GOOD_VERSION_PARAM, "v1");
+
+    then(ElasticBeanstalkUtil.getRegionParameters(params, "us-east-1")).isSameAs(params);
+    then(ElasticBeanstalkUtil.getRegionParameters(params, "eu-west-1")).
+      containsEntry(AWSCommonParams.REGION_NAME_PARAM, "eu-west-1").
+      containsEntry(S3_BUCKET_NAME_PARAM, "bundles-eu-west-1").
+      doesNotContainKey(LAST_GOOD_VERSION_PARAM);
+  }
+
+  @Test
+  public void option_settings() {
+    final List<ConfigurationOptionSetting> settings = ElasticBeanstalkUtil.getOptionSettings(CollectionsUtil.asMap(
+      DEPLOYMENT_POLICY_PARAM, "RollingWithAdditionalBatch",
+      BATCH_SIZE_PARAM, "30",
+      OPTION_SETTINGS_PARAM, "# capacity\naws:autoscaling:asg:MinSize = 2\n\naws:elasticbeanstalk:command:BatchSize=50\n"));
+
+    then(settings).containsExactly(
+      new ConfigurationOptionSetting(COMMAND_NAMESPACE, "DeploymentPolicy", "RollingWithAdditionalBatch"),
+      new ConfigurationOptionSetting(COMMAND_NAMESPACE, "BatchSize", "50"),
+      new ConfigurationOptionSetting("aws:autoscaling:asg", "MinSize", "2"));
+  }
+
+  @Test
+  public void changed_option_settings() {
+    final List<ConfigurationOptionSetting> changed = ElasticBeanstalkUtil.getChangedOptionSettings(
+      Arrays.asList(
+        new ConfigurationOptionSetting(COMMAND_NAMESPACE, "DeploymentPolicy", "Rolling"),
+        new ConfigurationOptionSetting(COMMAND_NAMESPACE, "BatchSize", "50"),
+        new ConfigurationOptionSetting("aws:autoscaling:asg", "MinSize", "2")),
+      Arrays.asList(
+        new ConfigurationOptionSetting(COMMAND_NAMESPACE, "DeploymentPolicy", "Rolling"),
+        new ConfigurationOptionSetting(COMMAND_NAMESPACE, "BatchSize", "30"),
+        new ConfigurationOptionSetting("aws:autoscaling:asg", "MaxSize", "4")));
+
+    then(changed).containsExactly(
+      new ConfigurationOptionSetting(COMMAND_NAMESPACE, "BatchSize", "50"),
+      new ConfigurationOptionSetting("aws:autoscaling:asg", "MinSize", "2"));
+  }
+}
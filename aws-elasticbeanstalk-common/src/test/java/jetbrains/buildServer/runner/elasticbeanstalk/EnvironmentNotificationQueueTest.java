@@ -0,0 +1,105 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.*;
+import jetbrains.buildServer.BaseTestCase;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class EnvironmentNotificationQueueTest extends BaseTestCase {
+  private static final String NOTIFICATION =
+    "Timestamp: Wed Mar 08 10:15:42 UTC 2017\n" +
+    "Message: Environment update completed successfully.\n" +
+    "\n" +
+    "Environment: prod\n" +
+    "Application: app\n" +
+    "\n" +
+    "Environment URL: http://prod.elasticbeanstalk.com\n" +
+    "NotificationProcessId: 0d1b2c3d";
+
+  @Test
+  public void parses_sns_notification() {
+    final EnvironmentNotification notification = EnvironmentNotification.parse(
+      "{\"Type\":\"Notification\",\"Subject\":\"AWS Elastic Beanstalk Notification\",\"Message\":\"" + NOTIFICATION.replace("\n", "\\n") + "\"}");
+
+    then(notification).isNotNull();
+    then(notification.getEnvironmentName()).isEqualTo("prod");
+    then(notification.getMessage()).isEqualTo("Environment update completed successfully.");
+  }
+
+  @Test
+  public void parses_raw_notification() {
+    final EnvironmentNotification notification = EnvironmentNotification.parse(NOTIFICATION);
+    then(notification).isNotNull();
+    then(notification.getEnvironmentName()).isEqualTo("prod");
+  }
+
+  @Test
+  public void ignores_other_messages() {
+    then(EnvironmentNotification.parse("{\"Type\":\"SubscriptionConfirmation\"}")).isNull();
+    then(EnvironmentNotification.parse("hello")).isNull();
+    then(EnvironmentNotification.parse("{ not json")).isNull();
+  }
+
+  @Test
+  public void receives_environment_notifications_only() {
+    final FakeSQS sqs = new FakeSQS();
+    sqs.messages.add(message("1", NOTIFICATION, 2000));
+    sqs.messages.add(message("2", NOTIFICATION.replace("Environment: prod", "Environment: staging"), 2000));
+    sqs.messages.add(message("3", NOTIFICATION.replace("completed successfully", "is starting"), 500));
+
+    final List<EnvironmentNotification> notifications = new EnvironmentNotificationQueue(sqs, "queue").receive("prod", 1000, 30);
+
+    then(notifications).hasSize(1);
+    then(notifications.get(0).getMessage()).isEqualTo("Environment update completed successfully.");
+    then(sqs.waitTimeSeconds).as("Must respect the long polling limit").isEqualTo(EnvironmentNotificationQueue.MAX_WAIT_SEC);
+    then(sqs.deleted).as("Must delete the environment notifications including the stale ones").containsOnly("1", "3");
+  }
+
+  private static Message message(String receiptHandle, String body, long sentTimestamp) {
+    return new Message().withReceiptHandle(receiptHandle).withBody(body)
+      .withAttributes(Collections.singletonMap("SentTimestamp", String.valueOf(sentTimestamp)));
+  }
+
+  /**
+   * In-memory SQS stand-in
+   */
+  private static class FakeSQS extends AbstractAmazonSQS {
+    private final List<Message> messages = new ArrayList<Message>();
+    private final List<String> deleted = new ArrayList<String>();
+    private Integer waitTimeSeconds;
+
+    @Override
+    public ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+      waitTimeSeconds = request.getWaitTimeSeconds();
+      return new ReceiveMessageResult().withMessages(messages);
+    }
+
+    @Override
+    public DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest request) {
+      for (DeleteMessageBatchRequestEntry entry : request.getEntries()) deleted.add(entry.getReceiptHandle());
+      return new DeleteMessageBatchResult();
+    }
+  }
+}
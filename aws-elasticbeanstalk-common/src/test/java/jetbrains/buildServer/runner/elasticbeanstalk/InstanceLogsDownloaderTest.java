@@ -0,0 +1,87 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentInfoDescription;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.util.FileUtil;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class InstanceLogsDownloaderTest extends BaseTestCase {
+  @Test
+  public void keeps_last_lines() throws Exception {
+    final StringWriter out = new StringWriter();
+    final InstanceLogsDownloader.InstanceLog log = new InstanceLogsDownloader(1024)
+      .copy("i-1", new BufferedReader(new StringReader("1\n2\n3\n4\n5\n6\n7\n")), out, null);
+
+    then(out.toString()).isEqualTo("1\n2\n3\n4\n5\n6\n7\n");
+    then(log.bytes).isEqualTo(14);
+    then(log.truncated).isFalse();
+    then(log.lastLines).containsExactly("3", "4", "5", "6", "7");
+  }
+
+  @Test
+  public void keeps_tail_within_limit() throws Exception {
+    final StringWriter out = new StringWriter();
+    final InstanceLogsDownloader.InstanceLog log = new InstanceLogsDownloader(14)
+      .copy("i-1", new BufferedReader(new StringReader("first\nsecond\nthird\n")), out, null);
+
+    then(out.toString()).isEqualTo("second\nthird\n");
+    then(log.bytes).isEqualTo(13);
+    then(log.truncated).isTrue();
+    then(log.lastLines).containsExactly("first", "second", "third");
+  }
+
+  @Test
+  public void cuts_long_lines() throws Exception {
+    final char[] chars = new char[InstanceLogsDownloader.MAX_LINE_CHARS + 100];
+    Arrays.fill(chars, 'x');
+    final String longLine = new String(chars);
+    final StringWriter out = new StringWriter();
+    final InstanceLogsDownloader.InstanceLog log = new InstanceLogsDownloader(1024 * 1024)
+      .copy("i-1", new StringReader(longLine + "\r\nlast"), out, null);
+
+    then(out.toString()).isEqualTo(longLine.substring(0, InstanceLogsDownloader.MAX_LINE_CHARS) + "\nlast\n");
+    then(log.truncated).isFalse();
+    then(log.lastLines).hasSize(2).endsWith("last");
+  }
+
+  @Test
+  public void downloads_each_instance() throws Exception {
+    final File source = createTempFile("error: no space left on device\n");
+    final File target = createTempDir();
+
+    final List<InstanceLogsDownloader.InstanceLog> logs = new InstanceLogsDownloader(1024).download(Arrays.asList(
+      new EnvironmentInfoDescription().withEc2InstanceId("i-1").withMessage(source.toURI().toString()),
+      new EnvironmentInfoDescription().withEc2InstanceId("i-2").withMessage(new File(target, "missing").toURI().toString())), target);
+
+    then(logs).hasSize(2);
+    then(logs.get(0).error).isNull();
+    then(FileUtil.readText(new File(target, "i-1.log"))).isEqualTo("error: no space left on device\n");
+    then(logs.get(1).instanceId).isEqualTo("i-2");
+    then(logs.get(1).error).isNotNull();
+  }
+}
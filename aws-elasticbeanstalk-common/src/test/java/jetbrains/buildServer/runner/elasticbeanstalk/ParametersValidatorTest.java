@@ -22,6 +22,7 @@ import org.jetbrains.annotations.NotNull;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 
 import static jetbrains.buildServer.runner.elasticbeanstalk.ElasticBeanstalkConstants.*;
@@ -55,12 +56,53 @@ public class ParametersValidatorTest extends BaseTestCase {
         containsEntry(S3_OBJECT_KEY_PARAM, "S3 object key must contain only safe characters");
   }
 
+  @Test
+  public void settings_validation_is_cached_by_content() {
+    final Map<String, String> params = new HashMap<String, String>(params(S3_BUCKET_NAME_PARAM, "bucket"));
+    final Map<String, String> invalids = ParametersValidator.validateSettings(params);
+    then(ParametersValidator.validateSettings(params(S3_BUCKET_NAME_PARAM, "bucket"))).isSameAs(invalids);
+
+    params.put(S3_BUCKET_NAME_PARAM, "abra/kadabra");
+    then(ParametersValidator.validateSettings(params)).isNotSameAs(invalids).containsKey(S3_BUCKET_NAME_PARAM);
+  }
+
   @Test
   public void unexpected_wait_timeout() {
     then(validate(WAIT_FLAG_PARAM, "true", WAIT_TIMEOUT_SEC_PARAM, "10min")).as("Must detect unexpected wait timeout").
         containsEntry(WAIT_TIMEOUT_SEC_PARAM, "Timeout (seconds) must be a positive integer value");
   }
 
+  @Test
+  public void unexpected_health_degraded_percent() {
+    then(validate(WAIT_FLAG_PARAM, "true", HEALTH_DEGRADED_PERCENT_PARAM, "130")).as("Must detect unexpected degraded instances percent").
+        containsEntry(HEALTH_DEGRADED_PERCENT_PARAM, "Fail on degraded instances (%) must be an integer value from 0 to 99");
+  }
+
+  @Test
+  public void blue_green_idle_environment() {
+    then(validate(DEPLOYMENT_MODE_PARAM, DEPLOYMENT_MODE_BLUE_GREEN)).as("Must detect empty twin environment and live CNAME").
+        containsEntry(IDLE_ENV_NAME_PARAM, "Twin Environment Name mustn't be empty").
+        containsEntry(LIVE_CNAME_PREFIX_PARAM, "Live CNAME Prefix mustn't be empty");
+    then(validate(DEPLOYMENT_MODE_PARAM, DEPLOYMENT_MODE_BLUE_GREEN, ENV_NAME_PARAM, "prod", IDLE_ENV_NAME_PARAM, "prod")).as("Must detect twin environment same as environment").
+        containsEntry(IDLE_ENV_NAME_PARAM, "Twin Environment Name must differ from Environment Name");
+    then(validate(DEPLOYMENT_MODE_PARAM, DEPLOYMENT_MODE_BLUE_GREEN, SERVER_WAIT_PARAM, "true")).as("Must detect server wait with blue/green").
+        containsKey(SERVER_WAIT_PARAM);
+  }
+
+  @Test
+  public void additional_regions() {
+    then(validate(ADDITIONAL_REGIONS_PARAM, "eu-west-1, mars-1")).as("Must detect unsupported additional region").
+        containsEntry(ADDITIONAL_REGIONS_PARAM, "Unsupported region name mars-1").
+        containsEntry(REGIONAL_S3_BUCKET_NAME_PARAM, "S3 bucket in additional regions mustn't be empty when Additional regions are specified");
+  }
+
+  @Test
+  public void unexpected_option_settings() {
+    then(validate(BATCH_SIZE_PARAM, "150", OPTION_SETTINGS_PARAM, "aws:autoscaling:asg:MinSize=2\nMaxSize=4")).as("Must detect unexpected option settings").
+        containsEntry(BATCH_SIZE_PARAM, "Batch size must not exceed 100 percent").
+        containsEntry(OPTION_SETTINGS_PARAM, "Option settings must be namespace:OptionName=value lines, unexpected line: MaxSize=4");
+  }
+
   @Test
   public void unexpected_wait_poll_interval() throws Exception {
     then(validateRuntime(
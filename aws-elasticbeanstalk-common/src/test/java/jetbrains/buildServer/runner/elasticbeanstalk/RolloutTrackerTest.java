@@ -0,0 +1,41 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import jetbrains.buildServer.BaseTestCase;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+public class RolloutTrackerTest extends BaseTestCase {
+  @Test
+  public void no_eta_before_first_instance() {
+    final RolloutTracker rollout = new RolloutTracker(0);
+    rollout.update(0, 50, 60000);
+    then(rollout.getEtaSec()).isNull();
+  }
+
+  @Test
+  public void eta_follows_rate() {
+    final RolloutTracker rollout = new RolloutTracker(0);
+    rollout.update(10, 50, 120000);
+    then(rollout.getEtaSec()).isEqualTo(480L);
+
+    rollout.update(50, 50, 600000);
+    then(rollout.getEtaSec()).isEqualTo(0L);
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.*;
+import jetbrains.buildServer.BaseTestCase;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+import static jetbrains.buildServer.runner.elasticbeanstalk.S3BundleCopier.PART_SIZE;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.testng.Assert.fail;
+
+public class S3BundleCopierTest extends BaseTestCase {
+  private static final String SOURCE_ETAG = "source-etag";
+
+  @Test
+  public void single_part_object_copied_at_once() {
+    final FakeS3 s3 = new FakeS3();
+
+    then(copy(s3, PART_SIZE)).isEqualTo(1);
+    then(s3.copiedObjects).hasSize(1);
+    then(s3.copiedObjects.get(0).getMatchingETagConstraints()).containsExactly(SOURCE_ETAG);
+    then(s3.copiedObjects.get(0).getNewObjectMetadata().getUserMetaDataOf(S3BundleCopier.SOURCE_ETAG_METADATA)).isEqualTo(SOURCE_ETAG);
+    then(s3.copiedParts).isEmpty();
+  }
+
+  @Test
+  public void parts_cover_object_with_last_partial_part() {
+    final FakeS3 s3 = new FakeS3();
+
+    then(copy(s3, 2 * PART_SIZE + 10)).isEqualTo(3);
+    then(s3.copiedObjects).isEmpty();
+    then(s3.getPartRanges()).containsExactly(
+      "1:0-" + (PART_SIZE - 1),
+      "2:" + PART_SIZE + "-" + (2 * PART_SIZE - 1),
+      "3:" + 2 * PART_SIZE + "-" + (2 * PART_SIZE + 9));
+    then(s3.completedParts).containsExactly(1, 2, 3);
+  }
+
+  @Test
+  public void parts_cover_object_of_whole_parts() {
+    final FakeS3 s3 = new FakeS3();
+
+    then(copy(s3, 2 * PART_SIZE)).isEqualTo(2);
+    then(s3.getPartRanges()).containsExactly(
+      "1:0-" + (PART_SIZE - 1),
+      "2:" + PART_SIZE + "-" + (2 * PART_SIZE - 1));
+  }
+
+  @Test
+  public void changed_source_aborts_upload() {
+    final FakeS3 s3 = new FakeS3();
+    s3.sourceChanged = true;
+
+    try {
+      copy(s3, 2 * PART_SIZE + 10);
+      fail("Must detect the changed source");
+    } catch (AmazonClientException e) {
+      then(e.getMessage()).contains("changed while being copied");
+    }
+    then(s3.aborted).isTrue();
+    then(s3.completedParts).isEmpty();
+  }
+
+  @Test
+  public void up_to_date_detection() {
+    final FakeS3 s3 = new FakeS3();
+    final S3BundleCopier copier = new S3BundleCopier(s3, s3);
+    then(copier.isUpToDate(SOURCE_ETAG, "target", "key")).as("Missing target").isFalse();
+
+    s3.target = new ObjectMetadata();
+    s3.target.setHeader("ETag", SOURCE_ETAG);
+    then(copier.isUpToDate(SOURCE_ETAG, "target", "key")).as("Target copied at once").isTrue();
+
+    s3.target = new ObjectMetadata();
+    s3.target.setHeader("ETag", "multipart-etag-3");
+    s3.target.addUserMetadata(S3BundleCopier.SOURCE_ETAG_METADATA, SOURCE_ETAG);
+    then(copier.isUpToDate(SOURCE_ETAG, "target", "key")).as("Target copied in parts").isTrue();
+    then(copier.isUpToDate("other-etag", "target", "key")).as("Source changed since").isFalse();
+  }
+
+  private static int copy(FakeS3 s3, long size) {
+    final ObjectMetadata source = new ObjectMetadata();
+    source.setContentLength(size);
+    source.setHeader("ETag", SOURCE_ETAG);
+    return new S3BundleCopier(s3, s3).copy("source", "key", source, "target", "key");
+  }
+
+  /**
+   * In-memory S3 stand-in recording the copy requests
+   */
+  private static class FakeS3 extends AbstractAmazonS3 {
+    private final List<CopyObjectRequest> copiedObjects = new ArrayList<CopyObjectRequest>();
+    private final List<CopyPartRequest> copiedParts = Collections.synchronizedList(new ArrayList<CopyPartRequest>());
+    private final List<Integer> completedParts = new ArrayList<Integer>();
+    private ObjectMetadata target;
+    private boolean sourceChanged;
+    private boolean aborted;
+
+    private List<String> getPartRanges() {
+      final List<CopyPartRequest> parts = new ArrayList<CopyPartRequest>(copiedParts);
+      Collections.sort(parts, new Comparator<CopyPartRequest>() {
+        @Override
+        public int compare(CopyPartRequest o1, CopyPartRequest o2) {
+          return o1.getPartNumber() - o2.getPartNumber();
+        }
+      });
+      final List<String> ranges = new ArrayList<String>();
+      for (CopyPartRequest part : parts) ranges.add(part.getPartNumber() + ":" + part.getFirstByte() + "-" + part.getLastByte());
+      return ranges;
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+      if (target != null) return target;
+      final AmazonS3Exception e = new AmazonS3Exception("Not Found");
+      e.setStatusCode(404);
+      throw e;
+    }
+
+    @Override
+    public CopyObjectResult copyObject(CopyObjectRequest request) {
+      copiedObjects.add(request);
+      return sourceChanged ? null : new CopyObjectResult();
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+      final InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+      result.setUploadId("upload");
+      return result;
+    }
+
+    @Override
+    public CopyPartResult copyPart(CopyPartRequest request) {
+      copiedParts.add(request);
+      if (sourceChanged) return null;
+      final CopyPartResult result = new CopyPartResult();
+      result.setPartNumber(request.getPartNumber());
+      result.setETag("part-etag-" + request.getPartNumber());
+      return result;
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+      for (PartETag part : request.getPartETags()) completedParts.add(part.getPartNumber());
+      return new CompleteMultipartUploadResult();
+    }
+
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+      aborted = true;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.log.Loggers;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Keeps durations and the version of the last successful deployments per environment in the plugin data directory
+ */
+public class DeploymentHistory {
+  @NotNull
+  private static final Logger LOG = Logger.getInstance(Loggers.SERVER_CATEGORY + DeploymentHistory.class);
+
+  static final int MAX_SAMPLES = 20;
+
+  @NotNull
+  private final File myFile;
+  @NotNull
+  private final File myVersionsFile;
+  @Nullable
+  private Map<String, LinkedList<Integer>> myDurations = null;
+  @Nullable
+  private Properties myVersions = null;
+
+  public DeploymentHistory(@NotNull ServerPaths serverPaths) {
+    myFile = new File(serverPaths.getPluginDataDirectory(), "elasticbeanstalk/deployment-history.properties");
+    myVersionsFile = new File(serverPaths.getPluginDataDirectory(), "elasticbeanstalk/last-good-versions.properties");
+  }
+
+  /**
+   * @param versionLabel the deployed version, null if unknown
+   */
+  public synchronized void recordSuccess(@NotNull String environmentKey, int durationSec, @Nullable String versionLabel) {
+    if (versionLabel != null && !versionLabel.equals(getVersions().getProperty(environmentKey))) {
+      getVersions().setProperty(environmentKey, versionLabel);
+      store(getVersions(), myVersionsFile, "ElasticBeanstalk versions of the last successful deployments");
+    }
+
+    final Map<String, LinkedList<Integer>> durations = getDurations();
+
+    LinkedList<Integer> samples = durations.get(environmentKey);
+    if (samples == null) {
+      samples = new LinkedList<Integer>();
+      durations.put(environmentKey, samples);
+    }
+    samples.addLast(durationSec);
+    while (samples.size() > MAX_SAMPLES) samples.removeFirst();
+
+    save(durations);
+  }
+
+  /**
+   * @return the percentile of the environment deployment durations in seconds,
+   * null if there are less than {@link ElasticBeanstalkConstants#HISTORY_MIN_SAMPLES} known deployments
+   */
+  @Nullable
+  public synchronized Integer getPercentile(@NotNull String environmentKey, int percent) {
+    final LinkedList<Integer> samples = getDurations().get(environmentKey);
+    if (samples == null || samples.size() < ElasticBeanstalkConstants.HISTORY_MIN_SAMPLES) return null;
+
+    final List<Integer> sorted = new ArrayList<Integer>(samples);
+    Collections.sort(sorted);
+    final int rank = (int) Math.ceil(percent / 100.0 * sorted.size());
+    return sorted.get(Math.min(sorted.size() - 1, Math.max(0, rank - 1)));
+  }
+
+  /**
+   * @return the version of the last successful deployment to the environment, null if unknown
+   */
+  @Nullable
+  public synchronized String getLastVersion(@NotNull String environmentKey) {
+    return getVersions().getProperty(environmentKey);
+  }
+
+  @NotNull
+  private Properties getVersions() {
+    if (myVersions == null) myVersions = read(myVersionsFile);
+    return myVersions;
+  }
+
+  @NotNull
+  private Map<String, LinkedList<Integer>> getDurations() {
+    if (myDurations == null) myDurations = load();
+    return myDurations;
+  }
+
+  @NotNull
+  private Map<String, LinkedList<Integer>> load() {
+    final Map<String, LinkedList<Integer>> durations = new HashMap<String, LinkedList<Integer>>();
+    final Properties properties = read(myFile);
+    for (String key : properties.stringPropertyNames()) {
+      final LinkedList<Integer> samples = new LinkedList<Integer>();
+      for (String s : properties.getProperty(key).split(",")) {
+        final Integer duration = ElasticBeanstalkUtil.getIntegerOrNull(s);
+        if (duration != null) samples.add(duration);
+      }
+      durations.put(key, samples);
+    }
+    return durations;
+  }
+
+  private void save(@NotNull Map<String, LinkedList<Integer>> durations) {
+    final Properties properties = new Properties();
+    for (Map.Entry<String, LinkedList<Integer>> e : durations.entrySet()) {
+      final StringBuilder sb = new StringBuilder();
+      for (Integer d : e.getValue()) {
+        if (sb.length() > 0) sb.append(',');
+        sb.append(d);
+      }
+      properties.setProperty(e.getKey(), sb.toString());
+    }
+    store(properties, myFile, "ElasticBeanstalk deployment durations in seconds");
+  }
+
+  @NotNull
+  private static Properties read(@NotNull File file) {
+    final Properties properties = new Properties();
+    if (!file.isFile()) return properties;
+
+    InputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      properties.load(in);
+    } catch (IOException e) {
+      LOG.warn("Failed to read ElasticBeanstalk deployment history from " + file, e);
+    } finally {
+      FileUtil.close(in);
+    }
+    return properties;
+  }
+
+  private static void store(@NotNull Properties properties, @NotNull File file, @NotNull String comment) {
+    OutputStream out = null;
+    try {
+      FileUtil.createParentDirs(file);
+      out = new FileOutputStream(file);
+      properties.store(out, comment);
+    } catch (IOException e) {
+      LOG.warn("Failed to write ElasticBeanstalk deployment history to " + file, e);
+    } finally {
+      FileUtil.close(out);
+    }
+  }
+}
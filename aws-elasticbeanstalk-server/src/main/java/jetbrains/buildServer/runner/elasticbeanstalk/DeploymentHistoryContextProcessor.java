@@ -0,0 +1,60 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import jetbrains.buildServer.ExtensionHolder;
+import jetbrains.buildServer.serverSide.BuildStartContext;
+import jetbrains.buildServer.serverSide.BuildStartContextProcessor;
+import jetbrains.buildServer.serverSide.SRunnerContext;
+import org.jetbrains.annotations.NotNull;
+
+import static jetbrains.buildServer.runner.elasticbeanstalk.ElasticBeanstalkConstants.*;
+
+/**
+ * Passes the environment deployment history and, if the step rolls back on failure, the last good version to the ElasticBeanstalk build steps
+ */
+public class DeploymentHistoryContextProcessor implements BuildStartContextProcessor {
+  @NotNull
+  private final DeploymentHistory myHistory;
+
+  public DeploymentHistoryContextProcessor(@NotNull ExtensionHolder extensionHolder, @NotNull DeploymentHistory history) {
+    myHistory = history;
+    extensionHolder.registerExtension(BuildStartContextProcessor.class, getClass().getName(), this);
+  }
+
+  @Override
+  public void updateParameters(@NotNull BuildStartContext context) {
+    for (SRunnerContext runnerContext : context.getRunnerContexts()) {
+      if (!RUNNER_TYPE.equals(runnerContext.getRunType().getType())) continue;
+
+      final String environmentKey = ElasticBeanstalkServerUtil.getEnvironmentKey(context.getBuild(), runnerContext.getParameters());
+      if (environmentKey == null) continue;
+
+      final Integer p50 = myHistory.getPercentile(environmentKey, 50);
+      final Integer p95 = myHistory.getPercentile(environmentKey, 95);
+      if (p50 != null && p95 != null) {
+        runnerContext.addRunnerParameter(HISTORY_P50_SEC_PARAM, String.valueOf(p50));
+        runnerContext.addRunnerParameter(HISTORY_P95_SEC_PARAM, String.valueOf(p95));
+      }
+
+      if (Boolean.parseBoolean(runnerContext.getParameters().get(ROLLBACK_ON_FAILURE_PARAM))) {
+        final String lastVersion = myHistory.getLastVersion(environmentKey);
+        if (lastVersion != null) runnerContext.addRunnerParameter(LAST_GOOD_VERSION_PARAM, lastVersion);
+      }
+    }
+  }
+}
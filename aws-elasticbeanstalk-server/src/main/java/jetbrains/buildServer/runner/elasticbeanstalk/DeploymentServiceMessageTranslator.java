@@ -0,0 +1,75 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import jetbrains.buildServer.ExtensionHolder;
+import jetbrains.buildServer.messages.BuildMessage1;
+import jetbrains.buildServer.messages.serviceMessages.ServiceMessage;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.serverSide.ServiceMessageTranslator;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static jetbrains.buildServer.runner.elasticbeanstalk.ElasticBeanstalkConstants.*;
+
+/**
+ * Consumes deployment reports sent by the agent and records them in the deployment history
+ */
+public class DeploymentServiceMessageTranslator implements ServiceMessageTranslator {
+  @NotNull
+  private final DeploymentHistory myHistory;
+
+  public DeploymentServiceMessageTranslator(@NotNull ExtensionHolder extensionHolder, @NotNull DeploymentHistory history) {
+    myHistory = history;
+    extensionHolder.registerExtension(ServiceMessageTranslator.class, getClass().getName(), this);
+  }
+
+  @NotNull
+  @Override
+  public List<BuildMessage1> translate(@NotNull SRunningBuild runningBuild,
+                                       @NotNull BuildMessage1 originalMessage,
+                                       @NotNull ServiceMessage serviceMessage) {
+    final Map<String, String> attributes = serviceMessage.getAttributes();
+
+    final String regionName = attributes.get(DEPLOYMENT_REGION_ATTR);
+    final String applicationName = attributes.get(DEPLOYMENT_APPLICATION_ATTR);
+    final String environmentName = attributes.get(DEPLOYMENT_ENVIRONMENT_ATTR);
+    final Integer durationSec = ElasticBeanstalkUtil.getIntegerOrNull(attributes.get(DEPLOYMENT_DURATION_SEC_ATTR));
+
+    if (regionName != null && applicationName != null && environmentName != null && durationSec != null
+      && DEPLOYMENT_STATUS_SUCCESS.equals(attributes.get(DEPLOYMENT_STATUS_ATTR))) {
+      final String key = ElasticBeanstalkUtil.getEnvironmentKey(regionName, applicationName, environmentName);
+      // any build can print the message, only builds with a step deploying to the environment may add to its history
+      final SBuildType buildType = runningBuild.getBuildType();
+      if (buildType != null && ElasticBeanstalkServerUtil.getEnvironmentKeys(buildType, runningBuild.getValueResolver()).contains(key)) {
+        myHistory.recordSuccess(key, durationSec, attributes.get(DEPLOYMENT_VERSION_ATTR));
+      }
+    }
+
+    return Collections.emptyList();
+  }
+
+  @NotNull
+  @Override
+  public String getServiceMessageName() {
+    return DEPLOYMENT_SERVICE_MESSAGE;
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import jetbrains.buildServer.ExtensionHolder;
+import jetbrains.buildServer.messages.BuildMessage1;
+import jetbrains.buildServer.messages.DefaultMessagesInfo;
+import jetbrains.buildServer.messages.serviceMessages.ServiceMessage;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.serverSide.ServiceMessageTranslator;
+import jetbrains.buildServer.util.amazon.AWSCommonParams;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static jetbrains.buildServer.runner.elasticbeanstalk.ElasticBeanstalkConstants.*;
+
+/**
+ * Hands the environment updates started by the agent over to the {@link DeploymentWatcher}
+ */
+public class DeploymentWatchServiceMessageTranslator implements ServiceMessageTranslator {
+  @NotNull
+  private final DeploymentWatcher myWatcher;
+
+  public DeploymentWatchServiceMessageTranslator(@NotNull ExtensionHolder extensionHolder, @NotNull DeploymentWatcher watcher) {
+    myWatcher = watcher;
+    extensionHolder.registerExtension(ServiceMessageTranslator.class, getClass().getName(), this);
+  }
+
+  @NotNull
+  @Override
+  public List<BuildMessage1> translate(@NotNull SRunningBuild runningBuild,
+                                       @NotNull BuildMessage1 originalMessage,
+                                       @NotNull ServiceMessage serviceMessage) {
+    final Map<String, String> attributes = serviceMessage.getAttributes();
+
+    final String regionName = attributes.get(DEPLOYMENT_REGION_ATTR);
+    final String applicationName = attributes.get(DEPLOYMENT_APPLICATION_ATTR);
+    final String environmentName = attributes.get(DEPLOYMENT_ENVIRONMENT_ATTR);
+    final String environmentId = attributes.get(WATCH_ENVIRONMENT_ID_ATTR);
+    final String versionLabel = attributes.get(DEPLOYMENT_VERSION_ATTR);
+    final String stepId = attributes.get(WATCH_STEP_ID_ATTR);
+    final Integer timeoutSec = ElasticBeanstalkUtil.getIntegerOrNull(attributes.get(WATCH_TIMEOUT_SEC_ATTR));
+
+    if (regionName == null || applicationName == null || environmentName == null || environmentId == null || versionLabel == null
+      || stepId == null || timeoutSec == null) {
+      return Collections.singletonList(DefaultMessagesInfo.createTextMessage("Malformed " + WATCH_SERVICE_MESSAGE + " message, deployment won't be watched"));
+    }
+
+    // any build output can contain the message, the environment is accessed only with the settings of the step deploying to it
+    final Map<String, String> params = ElasticBeanstalkServerUtil.findRunnerParameters(runningBuild, stepId,
+      ElasticBeanstalkUtil.getEnvironmentKey(regionName, applicationName, environmentName));
+    if (params == null) {
+      return Collections.singletonList(DefaultMessagesInfo.createTextMessage(
+        "Build step " + stepId + " doesn't deploy to environment " + environmentName + ", deployment won't be watched"));
+    }
+    params.put(AWSCommonParams.REGION_NAME_PARAM, regionName);
+
+    myWatcher.watch(runningBuild.getBuildId(), params, applicationName, environmentName, environmentId, versionLabel, timeoutSec);
+    return Collections.singletonList(DefaultMessagesInfo.createTextMessage(String.format(
+      "Server waits for deployment of version %s to environment %s, the result will be marked on the build with a tag", versionLabel, environmentName)));
+  }
+
+  @NotNull
+  @Override
+  public String getServiceMessageName() {
+    return WATCH_SERVICE_MESSAGE;
+  }
+}
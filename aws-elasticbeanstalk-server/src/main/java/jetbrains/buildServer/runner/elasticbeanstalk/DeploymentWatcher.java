@@ -0,0 +1,223 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalkClient;
+import com.amazonaws.services.elasticbeanstalk.model.*;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.log.Loggers;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.util.NamedThreadFactory;
+import jetbrains.buildServer.util.amazon.AWSCommonParams;
+import jetbrains.buildServer.util.amazon.AWSException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static jetbrains.buildServer.runner.elasticbeanstalk.ElasticBeanstalkConstants.*;
+
+/**
+ * Waits for the environment updates started by the builds which handed waiting over to the server.
+ * <p>
+ * Every watched deployment is a task rescheduled on a small shared pool, so waiting costs no thread.
+ * The result is recorded in the deployment history and marked on the finished build with a tag and a comment.
+ * The watched environments stay locked for other deployments, see {@link EnvironmentLockPrecondition}.
+ * Watched deployments aren't persisted, the ones in progress are forgotten on server restart.
+ * <p>
+ * The deadline is counted by the server clock from the watch start, the events are followed by the ElasticBeanstalk clock.
+ */
+public class DeploymentWatcher {
+  @NotNull
+  private static final Logger LOG = Logger.getInstance(Loggers.SERVER_CATEGORY + DeploymentWatcher.class);
+
+  static final String SUCCEEDED_TAG = "deployment-succeeded";
+  static final String FAILED_TAG = "deployment-failed";
+  static final String TIMED_OUT_TAG = "deployment-timed-out";
+
+  private static final int MAX_CONSECUTIVE_ERRORS = 5;
+
+  @NotNull
+  private final SBuildServer myServer;
+  @NotNull
+  private final DeploymentHistory myHistory;
+  @NotNull
+  private final ScheduledExecutorService myExecutor;
+  @NotNull
+  private final Set<String> myWatchedEnvironmentKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  public DeploymentWatcher(@NotNull SBuildServer server, @NotNull DeploymentHistory history,
+                           @NotNull EventDispatcher<BuildServerListener> events) {
+    myServer = server;
+    myHistory = history;
+    myExecutor = Executors.newScheduledThreadPool(
+      TeamCityProperties.getInteger("teamcity.elasticbeanstalk.watcher.threads", 2), new NamedThreadFactory("ElasticBeanstalk deployment watcher"));
+    events.addListener(new BuildServerAdapter() {
+      @Override
+      public void serverShutdown() {
+        myExecutor.shutdownNow();
+      }
+    });
+  }
+
+  /**
+   * @param clientParams resolved build step parameters, used to access the environment region
+   * @param timeoutSec   how long to wait counting from now
+   */
+  void watch(long buildId, @NotNull Map<String, String> clientParams, @NotNull String applicationName, @NotNull String environmentName,
+             @NotNull String environmentId, @NotNull String versionLabel, int timeoutSec) {
+    final String environmentKey = ElasticBeanstalkUtil.getEnvironmentKey(AWSCommonParams.getRegionName(clientParams), applicationName, environmentName);
+    final Watch watch = new Watch(buildId, AWSCommonParams.createAWSClients(clientParams, true).createElasticBeanstalkClient(),
+      environmentKey, environmentName, environmentId, versionLabel, timeoutSec);
+    myWatchedEnvironmentKeys.add(environmentKey);
+    LOG.info("Watching deployment of version " + versionLabel + " to environment " + environmentName + " for build id=" + buildId);
+    // the first poll takes the update start time from the environment
+    myExecutor.execute(watch);
+  }
+
+  /**
+   * @return keys of the environments whose deployments are being watched
+   */
+  @NotNull
+  Set<String> getWatchedEnvironmentKeys() {
+    return Collections.unmodifiableSet(myWatchedEnvironmentKeys);
+  }
+
+  private class Watch implements Runnable {
+    private final long myBuildId;
+    @NotNull
+    private final AWSElasticBeanstalkClient myClient;
+    @NotNull
+    private final String myEnvironmentKey;
+    @NotNull
+    private final String myEnvironmentName;
+    @NotNull
+    private final String myEnvironmentId;
+    @NotNull
+    private final String myVersionLabel;
+    private final long myStartTime;
+    private final long myDeadline;
+    @Nullable
+    private Date myEventsCursor;
+    @Nullable
+    private String myFirstError;
+    private int myConsecutiveErrors;
+
+    Watch(long buildId, @NotNull AWSElasticBeanstalkClient client, @NotNull String environmentKey, @NotNull String environmentName,
+          @NotNull String environmentId, @NotNull String versionLabel, int timeoutSec) {
+      myBuildId = buildId;
+      myClient = client;
+      myEnvironmentKey = environmentKey;
+      myEnvironmentName = environmentName;
+      myEnvironmentId = environmentId;
+      myVersionLabel = versionLabel;
+      myStartTime = System.currentTimeMillis();
+      myDeadline = myStartTime + timeoutSec * 1000L;
+    }
+
+    void schedule() {
+      myExecutor.schedule(this, TeamCityProperties.getInteger("teamcity.elasticbeanstalk.watcher.poll.interval.sec", WAIT_POLL_INTERVAL_SEC_DEFAULT),
+        TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void run() {
+      try {
+        final EnvironmentDescription environment = myClient.describeEnvironments(new DescribeEnvironmentsRequest()
+          .withEnvironmentIds(myEnvironmentId))
+          .getEnvironments().get(0);
+        if (myEventsCursor == null) {
+          if (!myEnvironmentName.equals(environment.getEnvironmentName())) {
+            finish(FAILED_TAG, "wasn't watched, environment id " + myEnvironmentId + " belongs to environment " + environment.getEnvironmentName());
+            return;
+          }
+          // the environment was updated just before the watch started
+          myEventsCursor = environment.getDateUpdated() == null ? new Date(myStartTime) : environment.getDateUpdated();
+        }
+        pollErrors();
+        myConsecutiveErrors = 0;
+
+        final String status = environment.getStatus();
+        if (EnvironmentStatus.Updating.toString().equals(status) || EnvironmentStatus.Launching.toString().equals(status)) {
+          if (System.currentTimeMillis() > myDeadline) {
+            finish(TIMED_OUT_TAG, "timed out");
+          } else {
+            schedule();
+          }
+        } else if (myVersionLabel.equals(environment.getVersionLabel())) {
+          myHistory.recordSuccess(myEnvironmentKey, (int) ((System.currentTimeMillis() - myStartTime) / 1000), myVersionLabel);
+          finish(SUCCEEDED_TAG, "succeeded");
+        } else {
+          finish(FAILED_TAG, "failed, environment is " + status + " on version " + environment.getVersionLabel() +
+            (myFirstError == null ? "" : ": " + myFirstError));
+        }
+      } catch (Exception e) {
+        if (++myConsecutiveErrors >= MAX_CONSECUTIVE_ERRORS) {
+          finish(FAILED_TAG, "status is unknown: " + AWSException.getMessage(e));
+        } else {
+          LOG.warnAndDebugDetails("Failed to poll environment " + myEnvironmentName + ", will retry", e);
+          schedule();
+        }
+      }
+    }
+
+    private void pollErrors() {
+      Date cursor = myEventsCursor;
+      if (cursor == null) return;
+      final List<EventDescription> events = myClient.describeEvents(new DescribeEventsRequest()
+        .withEnvironmentId(myEnvironmentId)
+        .withStartTime(cursor)
+        .withSeverity(EventSeverity.ERROR))
+        .getEvents();
+      String oldestError = null;
+      for (EventDescription event : events) {
+        if (event.getEventDate().after(cursor)) cursor = event.getEventDate();
+        // events are returned newest first
+        oldestError = event.getMessage();
+      }
+      myEventsCursor = cursor;
+      if (myFirstError == null) myFirstError = oldestError;
+    }
+
+    private void finish(@NotNull String tag, @NotNull String result) {
+      myClient.shutdown();
+      myWatchedEnvironmentKeys.remove(myEnvironmentKey);
+
+      final String message = "Deployment of version " + myVersionLabel + " to environment " + myEnvironmentName + " " + result;
+      LOG.info(message + " (build id=" + myBuildId + ")");
+
+      final SBuild build = myServer.findBuildInstanceById(myBuildId);
+      if (build == null) return;
+
+      final List<String> tags = new ArrayList<String>(build.getTags());
+      if (!tags.contains(tag)) {
+        tags.add(tag);
+        build.setTags(null, tags);
+      }
+      build.setBuildComment(null, message);
+    }
+  }
+}
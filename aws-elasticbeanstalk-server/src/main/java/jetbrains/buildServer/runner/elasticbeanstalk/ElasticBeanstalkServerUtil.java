@@ -0,0 +1,143 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import jetbrains.buildServer.parameters.ProcessingResult;
+import jetbrains.buildServer.parameters.ValueResolver;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildRunnerDescriptor;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.util.StringUtil;
+import jetbrains.buildServer.util.amazon.AWSCommonParams;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static jetbrains.buildServer.runner.elasticbeanstalk.ElasticBeanstalkConstants.*;
+
+final class ElasticBeanstalkServerUtil {
+
+  /**
+   * @return the key of the environment the runner deploys to, null if it can't be resolved in the build
+   */
+  @Nullable
+  static String getEnvironmentKey(@NotNull SBuild build, @NotNull Map<String, String> runnerParams) {
+    return getEnvironmentKey(build.getValueResolver(), runnerParams);
+  }
+
+  /**
+   * @return the key of the environment the runner deploys to, null if it can't be resolved with the resolver
+   */
+  @Nullable
+  static String getEnvironmentKey(@NotNull ValueResolver resolver, @NotNull Map<String, String> runnerParams) {
+    final String regionName = resolve(resolver, AWSCommonParams.getRegionName(runnerParams));
+    final String applicationName = resolve(resolver, runnerParams.get(APP_NAME_PARAM));
+    final String environmentName = resolve(resolver, runnerParams.get(ENV_NAME_PARAM));
+    if (regionName == null || applicationName == null || environmentName == null) return null;
+    return ElasticBeanstalkUtil.getEnvironmentKey(regionName, applicationName, environmentName);
+  }
+
+  /**
+   * @return keys of the environments the enabled build configuration steps deploy to
+   */
+  @NotNull
+  static Set<String> getEnvironmentKeys(@NotNull SBuildType buildType, @NotNull ValueResolver resolver) {
+    final Set<String> keys = new HashSet<String>();
+    for (SBuildRunnerDescriptor runner : buildType.getBuildRunners()) {
+      if (!RUNNER_TYPE.equals(runner.getType()) || !buildType.isEnabled(runner.getId())) continue;
+      keys.addAll(getEnvironmentKeys(resolver, runner.getParameters()));
+    }
+    return keys;
+  }
+
+  /**
+   * @return keys of the environments the runner deploys to in all its regions, including the blue/green idle environments
+   */
+  @NotNull
+  static Set<String> getEnvironmentKeys(@NotNull ValueResolver resolver, @NotNull Map<String, String> runnerParams) {
+    final Set<String> keys = getRegionEnvironmentKeys(resolver, runnerParams);
+
+    final String additionalRegions = resolve(resolver, runnerParams.get(ADDITIONAL_REGIONS_PARAM));
+    if (additionalRegions != null) {
+      final Map<String, String> regionParams = new HashMap<String, String>(runnerParams);
+      regionParams.put(ADDITIONAL_REGIONS_PARAM, additionalRegions);
+      for (String regionName : ElasticBeanstalkUtil.getAdditionalRegionNames(regionParams)) {
+        regionParams.put(AWSCommonParams.REGION_NAME_PARAM, regionName);
+        keys.addAll(getRegionEnvironmentKeys(resolver, regionParams));
+      }
+    }
+    return keys;
+  }
+
+  @NotNull
+  private static Set<String> getRegionEnvironmentKeys(@NotNull ValueResolver resolver, @NotNull Map<String, String> runnerParams) {
+    final Set<String> keys = new HashSet<String>();
+
+    final String key = getEnvironmentKey(resolver, runnerParams);
+    if (key != null) keys.add(key);
+
+    if (ElasticBeanstalkUtil.isBlueGreenDeployment(runnerParams)) {
+      final Map<String, String> idleParams = new HashMap<String, String>(runnerParams);
+      idleParams.put(ENV_NAME_PARAM, runnerParams.get(IDLE_ENV_NAME_PARAM));
+      final String idleKey = getEnvironmentKey(resolver, idleParams);
+      if (idleKey != null) keys.add(idleKey);
+    }
+    return keys;
+  }
+
+  /**
+   * @return resolved parameters of the enabled ElasticBeanstalk build step, null if the build has no such step
+   * or the step doesn't deploy to the environment
+   */
+  @Nullable
+  static Map<String, String> findRunnerParameters(@NotNull SBuild build, @NotNull String stepId, @NotNull String environmentKey) {
+    final SBuildType buildType = build.getBuildType();
+    if (buildType == null) return null;
+
+    final SBuildRunnerDescriptor runner = buildType.findBuildRunnerById(stepId);
+    if (runner == null || !RUNNER_TYPE.equals(runner.getType()) || !buildType.isEnabled(stepId)) return null;
+
+    final ValueResolver resolver = build.getValueResolver();
+    if (!getEnvironmentKeys(resolver, runner.getParameters()).contains(environmentKey)) return null;
+
+    final Map<String, String> params = new HashMap<String, String>();
+    for (Map.Entry<String, String> e : runner.getParameters().entrySet()) {
+      final String value = resolve(resolver, e.getValue());
+      params.put(e.getKey(), value == null ? e.getValue() : value);
+    }
+    return params;
+  }
+
+  @Nullable
+  static String findCommon(@NotNull Set<String> keys, @NotNull Set<String> otherKeys) {
+    for (String key : otherKeys) {
+      if (keys.contains(key)) return key;
+    }
+    return null;
+  }
+
+  @Nullable
+  static String resolve(@NotNull ValueResolver resolver, @Nullable String value) {
+    if (StringUtil.isEmptyOrSpaces(value)) return null;
+    final ProcessingResult result = resolver.resolve(value);
+    return result.isFullyResolved() ? result.getResult() : null;
+  }
+}
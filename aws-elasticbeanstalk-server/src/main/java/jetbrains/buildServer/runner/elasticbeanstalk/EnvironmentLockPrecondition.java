@@ -0,0 +1,89 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import jetbrains.buildServer.ExtensionHolder;
+import jetbrains.buildServer.serverSide.BuildAgent;
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.buildDistribution.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps builds deploying to an ElasticBeanstalk environment in the queue
+ * while another build deploying to the same environment is running or is about to start,
+ * or the server still waits for the deployment of a finished build
+ */
+public class EnvironmentLockPrecondition implements StartBuildPrecondition {
+  @NotNull
+  private final DeploymentWatcher myWatcher;
+
+  public EnvironmentLockPrecondition(@NotNull ExtensionHolder extensionHolder, @NotNull DeploymentWatcher watcher) {
+    myWatcher = watcher;
+    extensionHolder.registerExtension(StartBuildPrecondition.class, getClass().getName(), this);
+  }
+
+  @Nullable
+  @Override
+  public WaitReason canStart(@NotNull QueuedBuildInfo queuedBuild,
+                             @NotNull Map<QueuedBuildInfo, BuildAgent> canBeStarted,
+                             @NotNull BuildDistributorInput buildDistributorInput,
+                             boolean emulationMode) {
+    final BuildPromotion promotion = (BuildPromotion) queuedBuild.getBuildPromotionInfo();
+    final SBuildType buildType = promotion.getBuildType();
+    if (buildType == null) return null;
+
+    final Set<String> environmentKeys = ElasticBeanstalkServerUtil.getEnvironmentKeys(buildType, buildType.getValueResolver());
+    if (environmentKeys.isEmpty()) return null;
+
+    final String watchedKey = ElasticBeanstalkServerUtil.findCommon(environmentKeys, myWatcher.getWatchedEnvironmentKeys());
+    if (watchedKey != null) {
+      return new SimpleWaitReason("ElasticBeanstalk environment " + watchedKey + " deployment is still in progress");
+    }
+
+    for (RunningBuildInfo runningBuild : buildDistributorInput.getRunningBuilds()) {
+      final BuildPromotion runningPromotion = (BuildPromotion) runningBuild.getBuildPromotionInfo();
+      final SBuild build = runningPromotion.getAssociatedBuild();
+      final SBuildType runningBuildType = runningPromotion.getBuildType();
+      if (build == null || runningBuildType == null) continue;
+
+      final String environmentKey = ElasticBeanstalkServerUtil.findCommon(environmentKeys,
+        ElasticBeanstalkServerUtil.getEnvironmentKeys(runningBuildType, build.getValueResolver()));
+      if (environmentKey != null) {
+        return new SimpleWaitReason("ElasticBeanstalk environment " + environmentKey + " is being deployed by build " + build.getBuildId());
+      }
+    }
+
+    for (QueuedBuildInfo startingBuild : canBeStarted.keySet()) {
+      final SBuildType startingBuildType = ((BuildPromotion) startingBuild.getBuildPromotionInfo()).getBuildType();
+      if (startingBuildType == null) continue;
+
+      final String environmentKey = ElasticBeanstalkServerUtil.findCommon(environmentKeys,
+        ElasticBeanstalkServerUtil.getEnvironmentKeys(startingBuildType, startingBuildType.getValueResolver()));
+      if (environmentKey != null) {
+        return new SimpleWaitReason("ElasticBeanstalk environment " + environmentKey + " is about to be deployed by another build");
+      }
+    }
+
+    return null;
+  }
+}
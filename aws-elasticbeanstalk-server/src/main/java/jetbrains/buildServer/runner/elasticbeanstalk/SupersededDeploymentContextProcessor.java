@@ -0,0 +1,74 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.runner.elasticbeanstalk;
+
+import jetbrains.buildServer.ExtensionHolder;
+import jetbrains.buildServer.serverSide.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Set;
+
+import static jetbrains.buildServer.runner.elasticbeanstalk.ElasticBeanstalkConstants.*;
+
+/**
+ * Tells the ElasticBeanstalk build steps which opted in for skipping superseded deployments
+ * that a newer build deploying to the same environment is already queued.
+ * <p>
+ * Together with {@link EnvironmentLockPrecondition} this coalesces a burst of queued deployments
+ * into a single deployment of the newest version.
+ */
+public class SupersededDeploymentContextProcessor implements BuildStartContextProcessor {
+  @NotNull
+  private final BuildQueue myBuildQueue;
+
+  public SupersededDeploymentContextProcessor(@NotNull ExtensionHolder extensionHolder, @NotNull BuildQueue buildQueue) {
+    myBuildQueue = buildQueue;
+    extensionHolder.registerExtension(BuildStartContextProcessor.class, getClass().getName(), this);
+  }
+
+  @Override
+  public void updateParameters(@NotNull BuildStartContext context) {
+    final SRunningBuild build = context.getBuild();
+    for (SRunnerContext runnerContext : context.getRunnerContexts()) {
+      if (!RUNNER_TYPE.equals(runnerContext.getRunType().getType())) continue;
+      if (!Boolean.parseBoolean(runnerContext.getParameters().get(SKIP_SUPERSEDED_PARAM))) continue;
+
+      final Set<String> environmentKeys = ElasticBeanstalkServerUtil.getEnvironmentKeys(build.getValueResolver(), runnerContext.getParameters());
+      if (environmentKeys.isEmpty()) continue;
+
+      final SQueuedBuild newerBuild = findNewerBuild(build.getBuildPromotion().getId(), environmentKeys);
+      if (newerBuild != null) {
+        runnerContext.addRunnerParameter(SUPERSEDED_BY_PARAM, newerBuild.getBuildType().getFullName());
+      }
+    }
+  }
+
+  @Nullable
+  private SQueuedBuild findNewerBuild(long promotionId, @NotNull Set<String> environmentKeys) {
+    for (SQueuedBuild queuedBuild : myBuildQueue.getItems()) {
+      if (queuedBuild.getBuildPromotion().getId() <= promotionId) continue;
+
+      final SBuildType buildType = queuedBuild.getBuildType();
+      if (ElasticBeanstalkServerUtil.findCommon(environmentKeys,
+        ElasticBeanstalkServerUtil.getEnvironmentKeys(buildType, buildType.getValueResolver())) != null) {
+        return queuedBuild;
+      }
+    }
+    return null;
+  }
+}
@@ -45,6 +45,26 @@
             <span class="error" id="error_${s3_object_key_param}"></span>
         </td>
     </tr>
+    <tr>
+        <th><label for="${additional_regions_param}">${additional_regions_label}: </label></th>
+        <td><props:textProperty name="${additional_regions_param}" className="longField" maxlength="256"/>
+            <span class="smallNote">Comma-separated regions to deploy to in parallel with the main one. The application and environment must exist in each region</span>
+            <span class="error" id="error_${additional_regions_param}"></span>
+        </td>
+    </tr>
+    <tr>
+        <th><label for="${regional_bucket_name_param}">${regional_bucket_name_label}: </label></th>
+        <td><props:textProperty name="${regional_bucket_name_param}" className="longField" maxlength="256"/>
+            <span class="smallNote">Bucket holding the version in an additional region, {region} is replaced with the region name</span>
+            <span class="error" id="error_${regional_bucket_name_param}"></span>
+        </td>
+    </tr>
+    <tr>
+        <th><label for="${replicate_bundle_param}">${replicate_bundle_label}: </label></th>
+        <td><props:checkboxProperty name="${replicate_bundle_param}" uncheckedValue="false"/>
+            <span class="smallNote">Copy the version from ${bucket_name_label} to the regional buckets on the S3 side, up-to-date copies are skipped</span>
+        </td>
+    </tr>
 </l:settingsGroup>
 
 <tr class="groupingTitle">
@@ -53,7 +73,7 @@
 <tr>
     <th><label for="${env_name_param}">${env_name_label}: <l:star/></label></th>
     <td><props:textProperty name="${env_name_param}" className="longField" maxlength="256"/><a href="http://console.aws.amazon.com/elasticbeanstalk" target="_blank">Open ElasticBeanstalk Console</a>
-        <span class="smallNote">Pre-configured ElasticBeanstalk environment name</span><span class="error" id="error_${env_name_param}"></span>
+        <span class="smallNote">Pre-configured ElasticBeanstalk environment name. Before deploying, the application, the environment and the version bundle are checked to exist and be readable. Permissions to create versions and update the environment can't be checked without changing them, their denial only fails the deployment step itself</span><span class="error" id="error_${env_name_param}"></span>
     </td>
 </tr>
 <tr>
@@ -73,23 +93,162 @@
     <td><props:checkboxProperty name="${app_version_skip_dupe_param}" uncheckedValue="false" /></td>
 </tr>
 <tr>
+    <th><label for="${process_version_param}">${process_version_label}: </label></th>
+    <td><props:checkboxProperty name="${process_version_param}" uncheckedValue="false"/>
+        <span class="smallNote">Let ElasticBeanstalk validate the bundle and its .ebextensions when creating the version, a version failing the validation isn't deployed</span>
+    </td>
+</tr>
+<tr>
+    <th><label for="${skip_superseded_param}">${skip_superseded_label}: </label></th>
+    <td><props:checkboxProperty name="${skip_superseded_param}" uncheckedValue="false"/>
+        <span class="smallNote">Skip the deployment if a newer build deploying to the same environment is already queued</span>
+    </td>
+</tr>
+<tr>
+    <th><label for="${deployment_mode_param}">${deployment_mode_label}: </label></th>
+    <td><props:selectProperty name="${deployment_mode_param}" onchange="elasticBeanstalkWaitFlag()">
+            <props:option value="${deployment_mode_in_place}">Update environment in place</props:option>
+            <props:option value="${deployment_mode_blue_green}">Blue/green: update idle environment and swap CNAMEs</props:option>
+        </props:selectProperty>
+        <span class="smallNote">Blue/green deployment always waits for the idle environment to become healthy before swapping</span>
+    </td>
+</tr>
+<tr id="${idle_env_name_param}_row">
+    <th><label for="${idle_env_name_param}">${idle_env_name_label}: <l:star/></label></th>
+    <td><props:textProperty name="${idle_env_name_param}" className="longField" maxlength="256"/>
+        <span class="smallNote">Environment to swap CNAMEs with ${env_name_label}. Created with the live environment configuration if it doesn't exist</span>
+        <span class="error" id="error_${idle_env_name_param}"></span>
+    </td>
+</tr>
+<tr id="${live_cname_prefix_param}_row">
+    <th><label for="${live_cname_prefix_param}">${live_cname_prefix_label}: <l:star/></label></th>
+    <td><props:textProperty name="${live_cname_prefix_param}" className="longField" maxlength="256"/>
+        <span class="smallNote">CNAME prefix serving the traffic, e.g. myapp for myapp.us-east-1.elasticbeanstalk.com. The environment which doesn't have it is updated</span>
+        <span class="error" id="error_${live_cname_prefix_param}"></span>
+    </td>
+</tr>
+<tr id="${wait_flag_param}_row">
     <th><label for="${wait_flag_param}">${wait_flag_label}: </label></th>
     <td><props:checkboxProperty name="${wait_flag_param}" uncheckedValue="false" onclick="elasticBeanstalkWaitFlag()"/></td>
 </tr>
 <tr id="${wait_timeout_param}_row">
-    <th><label for="${wait_timeout_param}">${wait_timeout_label}: <l:star/></label></th>
+    <th><label for="${wait_timeout_param}">${wait_timeout_label}: </label></th>
     <td><props:textProperty name="${wait_timeout_param}" maxlength="256"/>
-        <span class="smallNote">Build will fail if the timeout is exceeded</span><span class="error" id="error_${wait_timeout_param}"></span>
+        <span class="smallNote">Build will fail if the timeout is exceeded. Leave empty to derive the timeout from the environment deployment history</span><span class="error" id="error_${wait_timeout_param}"></span>
+    </td>
+</tr>
+<tr id="${server_wait_param}_row">
+    <th><label for="${server_wait_param}">${server_wait_label}: </label></th>
+    <td><props:checkboxProperty name="${server_wait_param}" uncheckedValue="false"/>
+        <span class="smallNote">Finish the build right after the update starts and let the server wait for it, freeing the agent.
+            The result is marked on the build with the deployment-succeeded, deployment-failed or deployment-timed-out tag.
+            Degraded instances and abort settings apply only to waiting on the agent</span>
+        <span class="error" id="error_${server_wait_param}"></span>
+    </td>
+</tr>
+<tr id="${notification_queue_url_param}_row">
+    <th><label for="${notification_queue_url_param}">${notification_queue_url_label}: </label></th>
+    <td><props:textProperty name="${notification_queue_url_param}" className="longField" maxlength="512"/>
+        <span class="smallNote">Queue subscribed to the environment notifications SNS topic. When set, deployment progress is followed by long polling the queue
+            instead of polling the environment events. Use {region} in the URL for additional regions, otherwise they poll</span>
     </td>
 </tr>
+<tr id="${abort_on_failure_param}_row">
+    <th><label for="${abort_on_failure_param}">${abort_on_failure_label}: </label></th>
+    <td><props:checkboxProperty name="${abort_on_failure_param}" uncheckedValue="false"/>
+        <span class="smallNote">On timeout, error or build cancel abort the environment update and wait for the environment to roll back to Ready</span>
+    </td>
+</tr>
+<tr id="${rollback_on_failure_param}_row">
+    <th><label for="${rollback_on_failure_param}">${rollback_on_failure_label}: </label></th>
+    <td><props:checkboxProperty name="${rollback_on_failure_param}" uncheckedValue="false"/>
+        <span class="smallNote">On timeout or error of an in-place update waited for on the agent, update the environment back to the version of its last successful deployment</span>
+    </td>
+</tr>
+<tr id="${health_degraded_percent_param}_row">
+    <th><label for="${health_degraded_percent_param}">${health_degraded_percent_label}: </label></th>
+    <td><props:textProperty name="${health_degraded_percent_param}" maxlength="256"/>
+        <span class="smallNote">Build will fail if more than this share of instances is Degraded or Severe. Requires enhanced health reporting, leave empty to disable</span>
+        <span class="error" id="error_${health_degraded_percent_param}"></span>
+    </td>
+</tr>
+<tr id="${health_degraded_duration_param}_row">
+    <th><label for="${health_degraded_duration_param}">${health_degraded_duration_label}: </label></th>
+    <td><props:textProperty name="${health_degraded_duration_param}" maxlength="256"/>
+        <span class="smallNote">How long the degraded instances share must stay over the threshold, 120 seconds by default</span>
+        <span class="error" id="error_${health_degraded_duration_param}"></span>
+    </td>
+</tr>
+
+<l:settingsGroup title="Deployment Policy">
+    <tr>
+        <th><label for="${deployment_policy_param}">${deployment_policy_label}: </label></th>
+        <td><props:selectProperty name="${deployment_policy_param}">
+                <props:option value="">-- Environment default --</props:option>
+                <props:option value="AllAtOnce">All at once</props:option>
+                <props:option value="Rolling">Rolling</props:option>
+                <props:option value="RollingWithAdditionalBatch">Rolling with additional batch</props:option>
+                <props:option value="Immutable">Immutable</props:option>
+            </props:selectProperty>
+            <span class="error" id="error_${deployment_policy_param}"></span>
+        </td>
+    </tr>
+    <tr>
+        <th><label for="${batch_size_param}">${batch_size_label}: </label></th>
+        <td><props:textProperty name="${batch_size_param}" maxlength="10"/>
+            <props:selectProperty name="${batch_size_type_param}">
+                <props:option value="">-- Environment default --</props:option>
+                <props:option value="${batch_size_type_percentage}">percent of instances</props:option>
+                <props:option value="${batch_size_type_fixed}">instances</props:option>
+            </props:selectProperty>
+            <span class="smallNote">Instances updated at once by rolling deployments</span>
+            <span class="error" id="error_${batch_size_param}"></span><span class="error" id="error_${batch_size_type_param}"></span>
+        </td>
+    </tr>
+    <tr>
+        <th><label for="${ignore_health_check_param}">${ignore_health_check_label}: </label></th>
+        <td><props:checkboxProperty name="${ignore_health_check_param}" uncheckedValue="false"/>
+            <span class="smallNote">Don't cancel the rolling deployment when a batch fails health checks</span>
+        </td>
+    </tr>
+    <tr>
+        <th><label for="${command_timeout_param}">${command_timeout_label}: </label></th>
+        <td><props:textProperty name="${command_timeout_param}" maxlength="10"/>
+            <span class="smallNote">How long an instance may take to deploy and pass health checks, environment default if empty</span>
+            <span class="error" id="error_${command_timeout_param}"></span>
+        </td>
+    </tr>
+    <tr>
+        <th><label for="${option_settings_param}">${option_settings_label}: </label></th>
+        <td><props:multilineProperty name="${option_settings_param}" linkTitle="Edit option settings" cols="58" rows="5" expanded="false"/>
+            <span class="smallNote">Other option settings to apply, one namespace:OptionName=value per line, e.g. aws:autoscaling:asg:MinSize=2</span>
+            <span class="error" id="error_${option_settings_param}"></span>
+        </td>
+    </tr>
+</l:settingsGroup>
 
 <script type="application/javascript">
     window.elasticBeanstalkWaitFlag = function () {
-        if ($j('#${wait_flag_param}').is(':checked')) {
-            BS.Util.show('${wait_timeout_param}_row');
+        var waitRows = ['${wait_timeout_param}_row', '${server_wait_param}_row', '${notification_queue_url_param}_row', '${abort_on_failure_param}_row', '${rollback_on_failure_param}_row', '${health_degraded_percent_param}_row', '${health_degraded_duration_param}_row'];
+        var blueGreen = $j('#${deployment_mode_param}').val() == '${deployment_mode_blue_green}';
+        var waitEnabled = blueGreen || $j('#${wait_flag_param}').is(':checked');
+        if (blueGreen) {
+            BS.Util.show('${idle_env_name_param}_row');
+            BS.Util.show('${live_cname_prefix_param}_row');
+            BS.Util.hide('${wait_flag_param}_row');
         } else {
-            BS.Util.hide('${wait_timeout_param}_row');
+            BS.Util.hide('${idle_env_name_param}_row');
+            BS.Util.hide('${live_cname_prefix_param}_row');
+            BS.Util.show('${wait_flag_param}_row');
         }
+        waitRows.forEach(function (row) {
+            if (waitEnabled) {
+                BS.Util.show(row);
+            } else {
+                BS.Util.hide(row);
+            }
+        });
+        if (blueGreen) BS.Util.hide('${server_wait_param}_row');
     };
     elasticBeanstalkWaitFlag();
 </script>
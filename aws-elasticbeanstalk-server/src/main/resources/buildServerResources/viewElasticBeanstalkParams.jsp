@@ -29,6 +29,19 @@
     </div>
 </c:if>
 
+<c:set var="additional_regions" value="${propertiesBean.properties[additional_regions_param]}"/>
+<c:if test="${not empty additional_regions}">
+    <div class="parameter">
+        ${additional_regions_label}: <props:displayValue name="${additional_regions_param}"/>
+    </div>
+    <div class="parameter">
+        ${regional_bucket_name_label}: <props:displayValue name="${regional_bucket_name_param}" emptyValue="empty"/>
+    </div>
+    <div class="parameter">
+        ${replicate_bundle_label}: <strong><props:displayCheckboxValue name="${replicate_bundle_param}"/></strong>
+    </div>
+</c:if>
+
 <div class="parameter">
     ${env_name_label}: <props:displayValue name="${env_name_param}" emptyValue="empty"/>
 </div>
@@ -46,12 +59,77 @@
 </div>
 
 <div class="parameter">
-    ${wait_flag_label}: <strong><props:displayCheckboxValue name="${wait_flag_param}"/></strong>
+    ${process_version_label}: <strong><props:displayCheckboxValue name="${process_version_param}"/></strong>
+</div>
+
+<div class="parameter">
+    ${skip_superseded_label}: <strong><props:displayCheckboxValue name="${skip_superseded_param}"/></strong>
 </div>
 
+<c:set var="deployment_policy" value="${propertiesBean.properties[deployment_policy_param]}"/>
+<c:if test="${not empty deployment_policy}">
+    <div class="parameter">
+        ${deployment_policy_label}: <props:displayValue name="${deployment_policy_param}"/>
+    </div>
+</c:if>
+<c:set var="batch_size" value="${propertiesBean.properties[batch_size_param]}"/>
+<c:if test="${not empty batch_size}">
+    <div class="parameter">
+        ${batch_size_label}: <props:displayValue name="${batch_size_param}"/> <props:displayValue name="${batch_size_type_param}"/>
+    </div>
+</c:if>
+<c:set var="option_settings" value="${propertiesBean.properties[option_settings_param]}"/>
+<c:if test="${not empty option_settings}">
+    <div class="parameter">
+        ${option_settings_label}: <props:displayValue name="${option_settings_param}" showInPopup="true"/>
+    </div>
+</c:if>
+
+<c:set var="blue_green" value="${propertiesBean.properties[deployment_mode_param] eq deployment_mode_blue_green}"/>
+<c:choose>
+    <c:when test="${blue_green}">
+        <div class="parameter">
+            ${deployment_mode_label}: <strong>blue/green</strong>
+        </div>
+        <div class="parameter">
+            ${idle_env_name_label}: <props:displayValue name="${idle_env_name_param}" emptyValue="empty"/>
+        </div>
+        <div class="parameter">
+            ${live_cname_prefix_label}: <props:displayValue name="${live_cname_prefix_param}" emptyValue="empty"/>
+        </div>
+    </c:when>
+    <c:otherwise>
+        <div class="parameter">
+            ${wait_flag_label}: <strong><props:displayCheckboxValue name="${wait_flag_param}"/></strong>
+        </div>
+    </c:otherwise>
+</c:choose>
+
 <c:set var="wait_flag" value="${propertiesBean.properties[wait_flag_param]}"/>
-<c:if test="${empty wait_flag or ('true' eq wait_flag)}">
+<c:if test="${blue_green or empty wait_flag or ('true' eq wait_flag)}">
+    <div class="parameter">
+        ${wait_timeout_label}: <props:displayValue name="${wait_timeout_param}" emptyValue="from deployment history"/>
+    </div>
+    <c:if test="${not blue_green}">
+        <div class="parameter">
+            ${server_wait_label}: <strong><props:displayCheckboxValue name="${server_wait_param}"/></strong>
+        </div>
+    </c:if>
     <div class="parameter">
-        ${wait_timeout_label}: <props:displayValue name="${wait_timeout_param}" emptyValue="empty"/>
+        ${abort_on_failure_label}: <strong><props:displayCheckboxValue name="${abort_on_failure_param}"/></strong>
     </div>
+    <c:if test="${not blue_green}">
+        <div class="parameter">
+            ${rollback_on_failure_label}: <strong><props:displayCheckboxValue name="${rollback_on_failure_param}"/></strong>
+        </div>
+    </c:if>
+    <c:set var="health_degraded_percent" value="${propertiesBean.properties[health_degraded_percent_param]}"/>
+    <c:if test="${not empty health_degraded_percent}">
+        <div class="parameter">
+            ${health_degraded_percent_label}: <props:displayValue name="${health_degraded_percent_param}"/>
+        </div>
+        <div class="parameter">
+            ${health_degraded_duration_label}: <props:displayValue name="${health_degraded_duration_param}" emptyValue="120"/>
+        </div>
+    </c:if>
 </c:if>